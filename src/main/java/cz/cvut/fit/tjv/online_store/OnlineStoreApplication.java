@@ -2,8 +2,10 @@ package cz.cvut.fit.tjv.online_store;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class OnlineStoreApplication {
 
 	public static void main(String[] args) {
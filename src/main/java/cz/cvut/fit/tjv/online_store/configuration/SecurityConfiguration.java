@@ -50,6 +50,8 @@ public class SecurityConfiguration {
                         .requestMatchers("/users/**").hasRole("ADMINISTRATOR")
                         .requestMatchers("/products-admin/**").hasRole("ADMINISTRATOR")
                         .requestMatchers("/api/admin/bonus-cards/**").hasRole("ADMINISTRATOR")
+                        .requestMatchers("/api/admin/catalog/**").hasRole("ADMINISTRATOR")
+                        .requestMatchers("/api/admin/flash-sales/**").hasRole("ADMINISTRATOR")
                         .requestMatchers("/api/users/my/bonus-card").hasRole("CUSTOMER")
                         .requestMatchers("orders/last").authenticated()
                         .requestMatchers("/orders/my").hasRole("CUSTOMER")
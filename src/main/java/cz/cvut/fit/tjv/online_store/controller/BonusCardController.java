@@ -3,6 +3,7 @@ package cz.cvut.fit.tjv.online_store.controller;
 import cz.cvut.fit.tjv.online_store.controller.dto.BonusCardDto;
 import cz.cvut.fit.tjv.online_store.service.BonusCardService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.springframework.http.HttpStatus;
@@ -10,6 +11,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/admin/bonus-cards")
@@ -30,6 +32,17 @@ public class BonusCardController {
         return bonusCardService.findAll();
     }
 
+    @Operation(summary = "Get all bonus cards with selected fields", description = "Only the fields named in the fields parameter are read and returned. Requires administrator privileges.")
+    @ApiResponse(responseCode = "200", description = "Successfully retrieved list of bonus cards")
+    @ApiResponse(responseCode = "400", description = "Unknown field")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @GetMapping(params = "fields")
+    public List<Map<String, Object>> getAllBonusCardFields(
+            @Parameter(description = "Comma-separated fields to return, e.g. id,balance") @RequestParam String fields) {
+        return bonusCardService.findAllFields(fields);
+    }
+
     @Operation(summary = "Get bonus card by ID", description = "Retrieve a specific bonus card by its unique ID.")
     @ApiResponse(responseCode = "200", description = "Successfully retrieved bonus card")
     @ApiResponse(responseCode = "404", description = "Bonus card not found")
@@ -0,0 +1,57 @@
+package cz.cvut.fit.tjv.online_store.controller;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.CatalogCacheStatsDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.LookupCoalescingStatsDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.PriceTableStatsDto;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductCatalogCache;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductLookupCoalescer;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductPriceTable;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/admin/catalog")
+public class CatalogAdminController {
+
+    private final ProductCatalogCache productCatalogCache;
+    private final ProductPriceTable productPriceTable;
+    private final ProductLookupCoalescer productLookupCoalescer;
+
+    public CatalogAdminController(ProductCatalogCache productCatalogCache, ProductPriceTable productPriceTable,
+                                  ProductLookupCoalescer productLookupCoalescer) {
+        this.productCatalogCache = productCatalogCache;
+        this.productPriceTable = productPriceTable;
+        this.productLookupCoalescer = productLookupCoalescer;
+    }
+
+    @Operation(summary = "Get catalog cache statistics", description = "Hit, miss and eviction counters of the in-process product cache. Requires administrator privileges.")
+    @ApiResponse(responseCode = "200", description = "Successfully retrieved cache statistics")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @GetMapping("/cache")
+    public CatalogCacheStatsDto getCacheStats() {
+        return productCatalogCache.stats();
+    }
+
+    @Operation(summary = "Get price table statistics", description = "Size and off-heap footprint of the product price/stock table. Requires administrator privileges.")
+    @ApiResponse(responseCode = "200", description = "Successfully retrieved price table statistics")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @GetMapping("/price-table")
+    public PriceTableStatsDto getPriceTableStats() {
+        return productPriceTable.stats();
+    }
+
+    @Operation(summary = "Get product lookup coalescing statistics", description = "How many product lookups were loaded and how many callers shared an in-flight load. Requires administrator privileges.")
+    @ApiResponse(responseCode = "200", description = "Successfully retrieved coalescing statistics")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @GetMapping("/lookups")
+    public LookupCoalescingStatsDto getLookupStats() {
+        return productLookupCoalescer.stats();
+    }
+}
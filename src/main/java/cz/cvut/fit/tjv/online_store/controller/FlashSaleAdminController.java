@@ -0,0 +1,55 @@
+package cz.cvut.fit.tjv.online_store.controller;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.FlashSaleStatsDto;
+import cz.cvut.fit.tjv.online_store.service.FlashSaleGate;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/flash-sales")
+public class FlashSaleAdminController {
+
+    private final FlashSaleGate flashSaleGate;
+
+    public FlashSaleAdminController(FlashSaleGate flashSaleGate) {
+        this.flashSaleGate = flashSaleGate;
+    }
+
+    @Operation(summary = "Get flash sales", description = "Running flash sales with their allocation left, queue and admission counters. Requires administrator privileges.")
+    @ApiResponse(responseCode = "200", description = "Successfully retrieved flash sales")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @GetMapping
+    public List<FlashSaleStatsDto> getFlashSales() {
+        return flashSaleGate.stats();
+    }
+
+    @Operation(summary = "Start or adjust a flash sale", description = "Queues cart and checkout requests for the product and lets them through at the given rate until the allocation is gone. Requires administrator privileges.")
+    @ApiResponse(responseCode = "204", description = "Flash sale started or adjusted")
+    @ApiResponse(responseCode = "400", description = "Invalid allocation or rate")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @PutMapping("/{productId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void startFlashSale(@PathVariable Long productId,
+                               @RequestParam int allocation,
+                               @RequestParam double ratePerSecond) {
+        flashSaleGate.start(productId, allocation, ratePerSecond);
+    }
+
+    @Operation(summary = "End a flash sale", description = "Requests for the product are no longer queued. Requires administrator privileges.")
+    @ApiResponse(responseCode = "204", description = "Flash sale ended")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @ApiResponse(responseCode = "404", description = "No flash sale runs for the product")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @DeleteMapping("/{productId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void endFlashSale(@PathVariable Long productId) {
+        flashSaleGate.end(productId);
+    }
+}
@@ -3,8 +3,10 @@ package cz.cvut.fit.tjv.online_store.controller;
 import cz.cvut.fit.tjv.online_store.controller.dto.OrderDto;
 import cz.cvut.fit.tjv.online_store.domain.OrderStatus;
 import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import cz.cvut.fit.tjv.online_store.service.IdempotencyService;
 import cz.cvut.fit.tjv.online_store.service.OrderService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.springframework.http.HttpStatus;
@@ -22,10 +24,13 @@ import java.util.Map;
 public class OrderController {
     private final OrderService orderService;
     private final UserRepository userRepository;
+    private final IdempotencyService idempotencyService;
 
-    public OrderController(OrderService orderService, UserRepository userRepository) {
+    public OrderController(OrderService orderService, UserRepository userRepository,
+                           IdempotencyService idempotencyService) {
         this.orderService = orderService;
         this.userRepository = userRepository;
+        this.idempotencyService = idempotencyService;
     }
 
     @Operation(summary = "Get all orders", description = "Retrieve a list of all orders in the system")
@@ -37,6 +42,18 @@ public class OrderController {
         return (List<OrderDto>) orderService.findAll();
     }
 
+    @Operation(summary = "Get all orders with selected fields",
+            description = "Only the fields named in the fields parameter are read and returned. Order lines are loaded only when requestedQuantities is requested.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved orders"),
+            @ApiResponse(responseCode = "400", description = "Unknown field")
+    })
+    @GetMapping(params = "fields")
+    public List<Map<String, Object>> getAllOrderFields(
+            @Parameter(description = "Comma-separated fields to return, e.g. id,status,totalCost") @RequestParam String fields) {
+        return orderService.findAllFields(fields);
+    }
+
     @Operation(summary = "Get order by ID", description = "Retrieve details of a specific order by its ID")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Order found"),
@@ -50,7 +67,8 @@ public class OrderController {
     @Operation(summary = "Create a new order", description = "Create a new order for a user")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "Order successfully created"),
-            @ApiResponse(responseCode = "400", description = "Invalid order data")
+            @ApiResponse(responseCode = "400", description = "Invalid order data"),
+            @ApiResponse(responseCode = "409", description = "User already has a DRAFT order, or not enough stock left to reserve")
     })
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
@@ -73,7 +91,8 @@ public class OrderController {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Order status updated successfully"),
             @ApiResponse(responseCode = "400", description = "Invalid status value"),
-            @ApiResponse(responseCode = "404", description = "Order not found")
+            @ApiResponse(responseCode = "404", description = "Order not found"),
+            @ApiResponse(responseCode = "409", description = "User already has another DRAFT order")
     })
     @PreAuthorize("hasRole('ADMINISTRATOR')")
     @PatchMapping("/{id:[0-9]+}/status")
@@ -82,7 +101,6 @@ public class OrderController {
             throw new IllegalArgumentException("Request body cannot be null or empty.");
         }
 
-        System.out.println("Request body: " + request);
         String status = request.get("status");
         if (status == null || status.isEmpty()) {
             throw new IllegalArgumentException("The 'status' field is required.");
@@ -99,30 +117,22 @@ public class OrderController {
     @Operation(summary = "Add products to an existing order in DRAFT status")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Products successfully added to the order"),
-            @ApiResponse(responseCode = "400", description = "Invalid input or order not in DRAFT status"),
-            @ApiResponse(responseCode = "404", description = "Order not found")
+            @ApiResponse(responseCode = "400", description = "Invalid input"),
+            @ApiResponse(responseCode = "404", description = "Order not found"),
+            @ApiResponse(responseCode = "409", description = "Order not in DRAFT status, or not enough stock left to reserve")
     })
     @PatchMapping("/{id:[0-9]+}/add-products")
     public OrderDto addProductsToOrder(@PathVariable Long id, @RequestBody Map<Long, Integer> productsToAdd) {
         if (productsToAdd == null || productsToAdd.isEmpty()) {
             throw new IllegalArgumentException("Product quantities to add are required.");
         }
-        System.out.println(productsToAdd);
-        OrderDto existingOrder = orderService.findById(id);
-        if (existingOrder.getStatus() != OrderStatus.DRAFT) {
-            throw new IllegalStateException("Cannot add products to an order that is not in DRAFT status.");
-        }
-
-        Map<Long, Integer> updatedQuantities = new HashMap<>(existingOrder.getRequestedQuantities());
         productsToAdd.forEach((productId, quantityToAdd) -> {
             if (quantityToAdd <= 0) {
                 throw new IllegalArgumentException("Product quantity must be greater than zero for product ID: " + productId);
             }
-            updatedQuantities.merge(productId, quantityToAdd, Integer::sum);
         });
-
-        existingOrder.setRequestedQuantities(updatedQuantities);
-        return orderService.save(existingOrder);
+        // Same path as add-to-cart, so the added quantities are reserved.
+        return orderService.addProductsToOrder(id, productsToAdd);
     }
 
     @Operation(summary = "Get current user's draft order", description = "Retrieve the draft order of the currently authenticated user")
@@ -151,14 +161,7 @@ public class OrderController {
         var user = userRepository.findByEmail(authentication.getName())
                 .orElseThrow(() -> new IllegalArgumentException("User not found"));
 
-        return orderService.findUserDraftOrder(user.getId())
-                .orElseGet(() -> {
-                    OrderDto newDraftOrder = new OrderDto();
-                    newDraftOrder.setUserId(user.getId());
-                    newDraftOrder.setStatus(OrderStatus.DRAFT);
-                    newDraftOrder.setRequestedQuantities(new HashMap<>());
-                    return orderService.save(newDraftOrder);
-                });
+        return orderService.getOrCreateDraftOrder(user.getId());
     }
     @Operation(summary = "Get all orders of the current user",
             description = "Retrieve a list of all orders associated with the authenticated user.")
@@ -179,10 +182,14 @@ public class OrderController {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Products successfully added to the cart"),
             @ApiResponse(responseCode = "400", description = "Invalid input or unable to add products"),
-            @ApiResponse(responseCode = "404", description = "User not found")
+            @ApiResponse(responseCode = "404", description = "User not found"),
+            @ApiResponse(responseCode = "409", description = "Product sold out, its stock could not be reserved, or a request with the same Idempotency-Key is still running"),
+            @ApiResponse(responseCode = "429", description = "Flash sale queue is full; retry after the Retry-After header")
     })
     @PostMapping("/add-to-cart")
-    public OrderDto addToCart(Authentication authentication, @RequestBody Map<String, Integer> productsToAdd) {
+    public OrderDto addToCart(Authentication authentication, @RequestBody Map<String, Integer> productsToAdd,
+                              @Parameter(description = "Client-chosen key; a repeated request with the same key returns the first response")
+                              @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         if (productsToAdd == null || productsToAdd.isEmpty()) {
             throw new IllegalArgumentException("Product quantities to add are required.");
         }
@@ -199,23 +206,25 @@ public class OrderController {
         }
 
         String userEmail = authentication.getName();
-        var user = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new IllegalArgumentException("User not found"));
-
-        OrderDto draftOrder = orderService.getOrCreateDraftOrder(user.getId());
-        return orderService.addProductsToOrder(draftOrder.getId(), productsToAddLong);
+        return idempotencyService.execute("add-to-cart:" + userEmail, idempotencyKey, productsToAddLong, OrderDto.class,
+                () -> orderService.addToCart(userEmail, productsToAddLong));
     }
 
     @Operation(summary = "Finalize the order", description = "Finalize the order by updating its status to PROCESSING")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Order successfully confirmed"),
             @ApiResponse(responseCode = "400", description = "Invalid request or order not in DRAFT status"),
-            @ApiResponse(responseCode = "404", description = "Order not found")
+            @ApiResponse(responseCode = "404", description = "Order not found"),
+            @ApiResponse(responseCode = "409", description = "A request with the same Idempotency-Key is still running"),
+            @ApiResponse(responseCode = "429", description = "Flash sale queue is full; retry after the Retry-After header")
     })
     @PostMapping("/{id:[0-9]+}/confirm")
-    public OrderDto confirmOrder(@PathVariable long id) {
+    public OrderDto confirmOrder(@PathVariable long id,
+                                 @Parameter(description = "Client-chosen key; a repeated request with the same key returns the first response")
+                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
 
-        return orderService.updateStatus(id, OrderStatus.PROCESSING);
+        return idempotencyService.execute("confirm:" + id, idempotencyKey, id, OrderDto.class,
+                () -> orderService.updateStatus(id, OrderStatus.PROCESSING));
     }
 
     @Operation(summary = "Get the last order of the authenticated user", description = "Retrieve the most recent order placed by the authenticated user")
@@ -1,43 +1,234 @@
 package cz.cvut.fit.tjv.online_store.controller;
 
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductChangesDto;
 import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductImportReportDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductPageDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductPriceDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.SparsePageDto;
+import cz.cvut.fit.tjv.online_store.repository.ProductFilter;
+import cz.cvut.fit.tjv.online_store.repository.ProductSort;
+import cz.cvut.fit.tjv.online_store.service.ProductExportFormat;
+import cz.cvut.fit.tjv.online_store.service.ProductExportService;
+import cz.cvut.fit.tjv.online_store.service.ProductImportFormat;
+import cz.cvut.fit.tjv.online_store.service.ProductImportService;
 import cz.cvut.fit.tjv.online_store.service.ProductService;
+import cz.cvut.fit.tjv.online_store.service.catalog.CatalogVersion;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/products")
 public class ProductController {
 
     private final ProductService productService;
+    private final ProductImportService productImportService;
+    private final ProductExportService productExportService;
+    private final CatalogVersion catalogVersion;
 
-    public ProductController(ProductService productService) {
+    public ProductController(ProductService productService,
+                             ProductImportService productImportService,
+                             ProductExportService productExportService,
+                             CatalogVersion catalogVersion) {
         this.productService = productService;
+        this.productImportService = productImportService;
+        this.productExportService = productExportService;
+        this.catalogVersion = catalogVersion;
     }
 
-    @Operation(summary = "Get all products")
+    @Operation(summary = "Get a page of products",
+            description = "Keyset-paginated product listing. Pass the returned nextCursor to fetch the following page.")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Successfully retrieved list of products")
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved page of products"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag"),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor, limit or filter")
     })
     @GetMapping
-    public List<ProductDto> getAllProducts() {
-        return (List<ProductDto>) productService.findAll();
+    public ResponseEntity<ProductPageDto> getProducts(
+            @Parameter(description = "Cursor returned by the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size, at most " + ProductService.MAX_PAGE_SIZE) @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Sort order: id or price") @RequestParam(defaultValue = "id") String sort,
+            @RequestParam(required = false) Double minPrice,
+            @RequestParam(required = false) Double maxPrice,
+            @RequestParam(required = false) Boolean isRestricted,
+            @Parameter(description = "Only products that can be sold to a customer of this age")
+            @RequestParam(required = false) Integer maxAllowedAge,
+            WebRequest request) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        ProductFilter filter = ProductFilter.builder()
+                .minPrice(minPrice)
+                .maxPrice(maxPrice)
+                .isRestricted(isRestricted)
+                .maxAllowedAge(maxAllowedAge)
+                .build();
+        return revalidated(productService.findPage(filter, parseSort(sort), cursor, limit));
+    }
+
+    @Operation(summary = "Get a page of products with selected fields",
+            description = "Same as the paged listing, but only the fields named in the fields parameter are read and returned.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved page of products"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag"),
+            @ApiResponse(responseCode = "400", description = "Unknown field, invalid cursor, limit or filter")
+    })
+    @GetMapping(params = "fields")
+    public ResponseEntity<SparsePageDto> getProductFields(
+            @Parameter(description = "Comma-separated fields to return, e.g. id,name,price") @RequestParam String fields,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "id") String sort,
+            @RequestParam(required = false) Double minPrice,
+            @RequestParam(required = false) Double maxPrice,
+            @RequestParam(required = false) Boolean isRestricted,
+            @RequestParam(required = false) Integer maxAllowedAge,
+            WebRequest request) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        ProductFilter filter = ProductFilter.builder()
+                .minPrice(minPrice)
+                .maxPrice(maxPrice)
+                .isRestricted(isRestricted)
+                .maxAllowedAge(maxAllowedAge)
+                .build();
+        return revalidated(productService.findPageFields(filter, parseSort(sort), cursor, limit, fields));
+    }
+
+    @Operation(summary = "Get all products", description = "Unpaged listing of the whole catalog. Only served with unpaged=true.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved list of products"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag")
+    })
+    @GetMapping(params = "unpaged=true")
+    public ResponseEntity<List<ProductDto>> getAllProducts(WebRequest request) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        return revalidated((List<ProductDto>) productService.findAll());
+    }
+
+    @Operation(summary = "Get all products with selected fields",
+            description = "Unpaged listing that reads and returns only the fields named in the fields parameter.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved list of products"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag"),
+            @ApiResponse(responseCode = "400", description = "Unknown field")
+    })
+    @GetMapping(params = {"unpaged=true", "fields"})
+    public ResponseEntity<List<Map<String, Object>>> getAllProductFields(
+            @Parameter(description = "Comma-separated fields to return, e.g. id,name,price") @RequestParam String fields,
+            WebRequest request) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        return revalidated(productService.findAllFields(fields));
+    }
+
+    @Operation(summary = "Get products changed since a change number",
+            description = "Delta sync: products written and ids of products deleted after the given change number, "
+                    + "oldest first. Start with since=0 and pass nextSince back on the next poll.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved changes"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag"),
+            @ApiResponse(responseCode = "400", description = "Invalid since or limit")
+    })
+    @GetMapping("/changes")
+    public ResponseEntity<ProductChangesDto> getProductChanges(
+            @Parameter(description = "Last change number the client has seen") @RequestParam(defaultValue = "0") Long since,
+            @Parameter(description = "Maximum number of changes, at most " + ProductService.MAX_PAGE_SIZE)
+            @RequestParam(required = false) Integer limit,
+            WebRequest request) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        return revalidated(productService.findChanges(since, limit));
+    }
+
+    @Operation(summary = "Export the whole catalog",
+            description = "Streams every product as a JSON array, NDJSON or CSV straight from a database cursor.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Catalog export is streamed"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag"),
+            @ApiResponse(responseCode = "400", description = "Unsupported export format")
+    })
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportProducts(
+            @Parameter(description = "Output format: json, ndjson or csv") @RequestParam(defaultValue = "json") String format,
+            WebRequest request) {
+        ProductExportFormat exportFormat = ProductExportFormat.fromParameter(format);
+        if (isNotModified(request)) {
+            return null;
+        }
+        StreamingResponseBody body = out -> productExportService.export(exportFormat, out);
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .contentType(exportFormat.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"products." + exportFormat.getExtension() + "\"")
+                .body(body);
+    }
+
+    @Operation(summary = "Search products by name",
+            description = "Ranked search over product names with prefix (autocomplete) and typo-tolerant matching.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved matching products"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag"),
+            @ApiResponse(responseCode = "400", description = "Missing query or invalid limit")
+    })
+    @GetMapping("/search")
+    public ResponseEntity<List<ProductDto>> searchProducts(@RequestParam("q") String query,
+                                                           @RequestParam(required = false) Integer limit,
+                                                           WebRequest request) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        return revalidated(productService.search(query, limit));
     }
 
     @Operation(summary = "Get product by ID")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successfully retrieved product"),
+            @ApiResponse(responseCode = "304", description = "Catalog has not changed since the given ETag"),
             @ApiResponse(responseCode = "404", description = "Product not found")
     })
     @GetMapping("/{id}")
-    public ProductDto getProductById(@PathVariable Long id) {
-        return productService.findById(id);
+    public ResponseEntity<ProductDto> getProductById(@PathVariable Long id, WebRequest request) {
+        if (isNotModified(request)) {
+            return null;
+        }
+        return revalidated(productService.findById(id));
+    }
+
+    @Operation(summary = "Get the price of a product at a point in time",
+            description = "Answers from the append-only price history, also for products that have since been deleted.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved price"),
+            @ApiResponse(responseCode = "404", description = "Product had no price at that time")
+    })
+    @GetMapping("/{id}/price")
+    public ProductPriceDto getProductPriceAt(
+            @PathVariable Long id,
+            @Parameter(description = "ISO-8601 instant, e.g. 2024-12-24T18:00:00Z; defaults to now")
+            @RequestParam(required = false) Instant at) {
+        return productService.findPriceAt(id, at);
     }
 
     @Operation(summary = "Create a new product")
@@ -52,6 +243,20 @@ public class ProductController {
         return productService.save(productDto);
     }
 
+    @Operation(summary = "Bulk import products",
+            description = "Streams newline-delimited JSON or CSV (with a header row) into the catalog in batches. "
+                    + "Invalid rows are skipped and reported by line number.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Import finished, see the report for rejected rows"),
+            @ApiResponse(responseCode = "400", description = "Unsupported content type or invalid CSV header")
+    })
+    @PostMapping(value = "/import", consumes = {"application/x-ndjson", "text/csv"})
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    public ProductImportReportDto importProducts(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                 InputStream body) throws IOException {
+        return productImportService.importProducts(body, ProductImportFormat.fromContentType(contentType));
+    }
+
     @Operation(summary = "Update an existing product")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Product successfully updated"),
@@ -64,6 +269,21 @@ public class ProductController {
         return productService.update(id, productDto);
     }
 
+    @Operation(summary = "Shard the stock of a hot product",
+            description = "Splits the stock over the given number of sub-counters, so that concurrent checkouts stop "
+                    + "queueing on one row. A count of 1 moves the stock back into the product.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Stock successfully resharded"),
+            @ApiResponse(responseCode = "404", description = "Product not found"),
+            @ApiResponse(responseCode = "400", description = "Invalid shard count")
+    })
+    @PutMapping("/{id}/stock-shards")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    public ProductDto setStockShards(@PathVariable Long id,
+                                     @Parameter(description = "Number of stock shards, 1 for none") @RequestParam int count) {
+        return productService.setStockShards(id, count);
+    }
+
     @Operation(summary = "Delete a product by ID")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "204", description = "Product successfully deleted"),
@@ -75,4 +295,31 @@ public class ProductController {
     public void deleteProduct(@PathVariable Long id) {
         productService.delete(id);
     }
+
+    private ProductSort parseSort(String sort) {
+        try {
+            return ProductSort.valueOf(sort.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid sort value: " + sort);
+        }
+    }
+
+    /**
+     * Evaluates If-None-Match / If-Modified-Since against the catalog version before any data is read.
+     * Also sets the ETag and Last-Modified headers; on a match the response is already a 304.
+     * The body is JSON, CBOR or Smile depending on Accept, so caches must key on it, for the 304 as well.
+     */
+    private boolean isNotModified(WebRequest request) {
+        if (request instanceof ServletWebRequest servletRequest && servletRequest.getResponse() != null) {
+            servletRequest.getResponse().addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        CatalogVersion.Validators validators = catalogVersion.current();
+        return request.checkNotModified(validators.etag(), validators.lastModified());
+    }
+
+    private <T> ResponseEntity<T> revalidated(T body) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .body(body);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package cz.cvut.fit.tjv.online_store.controller;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.RetryStatsDto;
+import cz.cvut.fit.tjv.online_store.service.OptimisticRetry;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/retries")
+public class RetryAdminController {
+
+    private final OptimisticRetry optimisticRetry;
+
+    public RetryAdminController(OptimisticRetry optimisticRetry) {
+        this.optimisticRetry = optimisticRetry;
+    }
+
+    @Operation(summary = "Get optimistic retry statistics", description = "Calls, version conflicts, retries and give-ups per service method. Requires administrator privileges.")
+    @ApiResponse(responseCode = "200", description = "Successfully retrieved retry statistics")
+    @ApiResponse(responseCode = "403", description = "Access forbidden")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @GetMapping
+    public List<RetryStatsDto> getRetryStats() {
+        return optimisticRetry.stats();
+    }
+}
@@ -14,6 +14,9 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.security.access.prepost.PreAuthorize;
 
+import java.util.List;
+import java.util.Map;
+
 
 @RestController
 @RequestMapping("/users")
@@ -45,6 +48,18 @@ public class UserController {
         return userService.findAll();
     }
 
+    @Operation(summary = "Get all users with selected fields", description = "Only the fields named in the fields parameter are read and returned. Admin-only access.")
+    @PreAuthorize("hasRole('ADMINISTRATOR')")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved list of users"),
+            @ApiResponse(responseCode = "400", description = "Unknown field")
+    })
+    @GetMapping(params = "fields")
+    public List<Map<String, Object>> getAllFields(
+            @Parameter(description = "Comma-separated fields to return, e.g. id,email,role") @RequestParam String fields) {
+        return userService.findAllFields(fields);
+    }
+
     @Operation(summary = "Create a new user (Registration)", description = "Register a new user. Defaults to CUSTOMER role if no role is provided.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "User successfully created"),
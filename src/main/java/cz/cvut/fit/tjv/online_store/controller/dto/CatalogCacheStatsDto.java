@@ -0,0 +1,15 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogCacheStatsDto {
+    private int maxSize;
+    private int size;
+    private long hits;
+    private long misses;
+    private long evictions;
+}
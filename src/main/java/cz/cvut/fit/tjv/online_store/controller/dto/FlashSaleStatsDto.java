@@ -0,0 +1,17 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FlashSaleStatsDto {
+    private Long productId;
+    private double ratePerSecond;
+    private int allocationLeft;
+    private int waiting;
+    private long admitted;
+    private long soldOut;
+    private long queueFull;
+}
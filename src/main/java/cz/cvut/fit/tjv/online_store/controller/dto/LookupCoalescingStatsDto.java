@@ -0,0 +1,14 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LookupCoalescingStatsDto {
+    private int inFlight;
+    private long loads;
+    private long collapsed;
+    private long timeouts;
+}
@@ -19,4 +19,10 @@ public class OrderDto {
     private Double totalCost;
     private OrderStatus status;
     private List<Long> productIds;
+    private Map<Long, Double> unitPrices;
+
+    public OrderDto(Long id, Long userId, Map<Long, Integer> requestedQuantities, LocalDate dateOfCreation,
+                    Double totalCost, OrderStatus status, List<Long> productIds) {
+        this(id, userId, requestedQuantities, dateOfCreation, totalCost, status, productIds, null);
+    }
 }
\ No newline at end of file
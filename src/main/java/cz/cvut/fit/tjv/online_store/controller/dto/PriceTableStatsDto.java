@@ -0,0 +1,14 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceTableStatsDto {
+    private long size;
+    private long capacity;
+    private long maxId;
+    private long offHeapBytes;
+}
@@ -0,0 +1,16 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductChangesDto {
+    private List<ProductDto> changed;
+    private List<Long> removedIds;
+    private long nextSince;
+    private boolean hasMore;
+}
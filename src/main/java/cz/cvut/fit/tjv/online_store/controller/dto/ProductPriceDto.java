@@ -0,0 +1,15 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+import java.time.Instant;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPriceDto {
+    private Long productId;
+    private Double price;
+    private Instant validFrom;
+}
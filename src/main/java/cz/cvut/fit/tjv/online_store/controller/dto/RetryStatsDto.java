@@ -0,0 +1,16 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RetryStatsDto {
+    private String operation;
+    private long calls;
+    private long conflicts;
+    private long retries;
+    private long exhausted;
+    private long budgetDenied;
+}
@@ -0,0 +1,19 @@
+package cz.cvut.fit.tjv.online_store.controller.dto;
+
+import lombok.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page of a list endpoint called with {@code ?fields=}: each item holds only the requested fields.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SparsePageDto {
+    private List<Map<String, Object>> items;
+    private String nextCursor;
+    private boolean hasMore;
+}
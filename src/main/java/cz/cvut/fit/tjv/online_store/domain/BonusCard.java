@@ -5,6 +5,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
 @Data
@@ -24,4 +25,14 @@ public class BonusCard {
 
     @Column(nullable = false)
     private Double balance;
-}
\ No newline at end of file
+
+    // Optimistic lock, so that concurrent balance changes cannot overwrite each other.
+    @Version
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private Long version;
+
+    public BonusCard(Long id, User user, Double balance) {
+        this(id, user, balance, null);
+    }
+}
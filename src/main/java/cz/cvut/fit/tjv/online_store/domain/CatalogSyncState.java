@@ -0,0 +1,31 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * The single row the change sequencer locks while it numbers committed catalog writes, so runs on different
+ * nodes take turns. Also records the last number a run handed out and when.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogSyncState {
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+
+    @Column(nullable = false)
+    private Long syncSeq;
+
+    @Column(nullable = false)
+    private Instant numberedAt;
+}
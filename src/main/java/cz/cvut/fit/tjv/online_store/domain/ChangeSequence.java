@@ -0,0 +1,17 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import org.hibernate.annotations.ValueGenerationType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a column that the database fills from {@link ChangeSequenceGenerator#SEQUENCE} on every insert and update.
+ */
+@ValueGenerationType(generatedBy = ChangeSequenceGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface ChangeSequence {
+}
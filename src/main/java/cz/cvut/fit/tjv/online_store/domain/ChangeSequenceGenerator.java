@@ -0,0 +1,40 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+import org.hibernate.generator.OnExecutionGenerator;
+
+import java.util.EnumSet;
+
+/**
+ * Writes {@code nextval} of the catalog change sequence into the INSERT and UPDATE statements themselves,
+ * so every write to a product gets a fresh, globally ordered change number without an extra round trip.
+ */
+public class ChangeSequenceGenerator implements OnExecutionGenerator {
+    public static final String SEQUENCE = "product_change_seq";
+
+    public static String nextValueSql(Dialect dialect) {
+        return dialect.getSequenceSupport().getSelectSequenceNextValString(SEQUENCE);
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_AND_UPDATE;
+    }
+
+    @Override
+    public boolean referenceColumnsInSql(Dialect dialect) {
+        return true;
+    }
+
+    @Override
+    public String[] getReferencedColumnValues(Dialect dialect) {
+        return new String[]{nextValueSql(dialect)};
+    }
+
+    @Override
+    public boolean writePropertyValue() {
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A request made with an {@code Idempotency-Key} header: a hash of the request and, once it finished,
+ * its response in Smile-encoded form. A row without a response marks a request still running.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(indexes = {
+        @Index(name = "idx_idempotency_record_expires_at", columnList = "expiresAt")
+})
+public class IdempotencyRecord {
+    // Scope of the request (operation and caller) followed by the key the client sent.
+    @Id
+    @Column(length = 512)
+    private String idempotencyKey;
+
+    // SHA-256 of the request, so a key reused for a different request is caught.
+    @Column(nullable = false, length = 32)
+    private byte[] requestHash;
+
+    @Column(length = 1048576)
+    private byte[] response;
+
+    // When the request claimed the key; moved forward by its node while it runs, so it also works as a lease.
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+}
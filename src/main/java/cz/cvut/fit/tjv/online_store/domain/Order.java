@@ -5,6 +5,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
+import org.hibernate.annotations.ColumnDefault;
 import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
@@ -43,6 +44,20 @@ public class Order {
 
     private Double bonusPointsUsed = 0.0;
 
+    // Unit price each line was charged at, fixed when the order is confirmed.
+    @ElementCollection
+    @CollectionTable(name = "order_unit_prices", joinColumns = @JoinColumn(name = "order_id"))
+    @MapKeyColumn(name = "product_id")
+    @Column(name = "unit_price")
+    @Builder.Default
+    private Map<Long, Double> unitPrices = new HashMap<>();
+
+    // Optimistic lock; changes to the order lines bump it as well.
+    @Version
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private Long version;
+
     public Order(Long id,
                  User user,
                  Map<Long, Integer> requestedQuantities,
@@ -56,6 +71,18 @@ public class Order {
         this.totalCost = totalCost;
         this.status = status;
         this.bonusPointsUsed = 0.0;
+        this.unitPrices = new HashMap<>();
+    }
+
+    public Order(Long id,
+                 User user,
+                 Map<Long, Integer> requestedQuantities,
+                 LocalDate dateOfCreation,
+                 Double totalCost,
+                 OrderStatus status,
+                 Double bonusPointsUsed) {
+        this(id, user, requestedQuantities, dateOfCreation, totalCost, status);
+        this.bonusPointsUsed = bonusPointsUsed;
     }
 
     @PrePersist
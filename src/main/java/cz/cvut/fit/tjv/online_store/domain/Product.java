@@ -5,12 +5,18 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+// The storefront indexes on price and age only cover active rows; they are partial indexes in schema-postgresql.sql.
+@Table(indexes = {
+        @Index(name = "idx_product_change_seq", columnList = "changeSeq"),
+        @Index(name = "idx_product_sync_seq", columnList = "syncSeq")
+})
 public class Product {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -31,10 +37,51 @@ public class Product {
     @Column
     private Integer allowedAge;
 
+    // Bumped by the database on every insert and update; orders the writes to one product.
+    @ChangeSequence
+    private Long changeSeq;
+
+    // Change number in commit order, given by ProductChangeSequencer after the write has committed; delta sync
+    // pages by it. Null or below changeSeq while the last write still waits for its number.
+    @Column(insertable = false, updatable = false)
+    private Long syncSeq;
+
+    // Deleted products stay so that orders referencing them can still be priced, until the purge job removes them.
+    @Column(nullable = false)
+    @ColumnDefault("true")
+    @Builder.Default
+    private Boolean active = true;
+
+    // Optimistic lock. The checkout stock decrement bumps it in SQL too, so a stale admin edit cannot undo a sale.
+    @Version
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private Long version;
+
+    // Number of ProductStockShard rows holding the stock of a hot product; below 2 the quantity column holds it.
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    @Builder.Default
+    private Integer stockShards = 0;
+
+    public boolean isDeleted() {
+        return Boolean.FALSE.equals(active);
+    }
+
+    public boolean isSharded() {
+        return stockShards != null && stockShards > 1;
+    }
+
     @PrePersist
     public void setDefaults() {
         if (isRestricted == null) {
             isRestricted = false;
         }
+        if (active == null) {
+            active = true;
+        }
+        if (stockShards == null) {
+            stockShards = 0;
+        }
     }
 }
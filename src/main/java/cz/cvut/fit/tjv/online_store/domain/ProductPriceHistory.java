@@ -0,0 +1,34 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * One price a product had, valid from {@code validFrom} until the next entry of the same product.
+ * Rows are only ever appended; the product id is kept without a foreign key so history outlives purged products.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(indexes = {
+        @Index(name = "idx_price_history_product_valid_from", columnList = "productId, validFrom")
+})
+public class ProductPriceHistory {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Double price;
+
+    @Column(nullable = false)
+    private Instant validFrom;
+}
@@ -0,0 +1,24 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Running total of the active {@link StockReservation}s of a product, so the stock still free to reserve
+ * is one primary key lookup away. Kept apart from the product row, which admin updates rewrite.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductReservedStock {
+    @Id
+    private Long productId;
+
+    @Column(nullable = false)
+    private Integer reserved;
+}
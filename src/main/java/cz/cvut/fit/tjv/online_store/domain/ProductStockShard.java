@@ -0,0 +1,44 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One sub-counter of the stock of a hot product. Checkouts take from a random shard instead of all queueing
+ * on the product row; the stock of the product is the sum of its shards.
+ * <p>
+ * A shard write never touches the product row, so the shard carries its own change number; the change sequencer
+ * numbers the product again for every shard write it has not seen yet.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(uniqueConstraints = {
+        @UniqueConstraint(name = "uk_stock_shard_product_shard", columnNames = {"productId", "shard"})
+})
+public class ProductStockShard {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Integer shard;
+
+    @Column(nullable = false)
+    private Integer quantity;
+
+    // Bumped by the database on every insert and update, like Product.changeSeq.
+    @ChangeSequence
+    private Long changeSeq;
+
+    // The changeSeq the product was last numbered for by ProductChangeSequencer. Null or below changeSeq
+    // while the last write to the shard still waits for the product to be numbered.
+    @Column(insertable = false, updatable = false)
+    private Long syncedChangeSeq;
+}
@@ -0,0 +1,31 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Records a deleted product so delta-sync clients learn about the deletion. Like a product write, it gets
+ * its {@link #syncSeq} from ProductChangeSequencer once it has committed, so changes and deletions share one ordering.
+ */
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_product_tombstone_sync_seq", columnList = "syncSeq")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductTombstone {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "productChangeSeq")
+    @SequenceGenerator(name = "productChangeSeq", sequenceName = ChangeSequenceGenerator.SEQUENCE, allocationSize = 1)
+    private Long changeSeq;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    // Null until the sequencer has numbered the tombstone.
+    @Column(insertable = false, updatable = false)
+    private Long syncSeq;
+}
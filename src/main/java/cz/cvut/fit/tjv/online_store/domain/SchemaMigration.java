@@ -0,0 +1,27 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A one-time data migration that has run against this database. The row is written in the migration's own
+ * transaction, so however many nodes start at once, the migration runs once.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SchemaMigration {
+    @Id
+    @Column(length = 100)
+    private String name;
+
+    @Column(nullable = false)
+    private Instant appliedAt;
+}
@@ -0,0 +1,39 @@
+package cz.cvut.fit.tjv.online_store.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Stock a DRAFT order holds for one of its lines until {@code expiresAt}. The expiry job finds due rows
+ * through the {@code expiresAt} index; availability checks read {@link ProductReservedStock} instead.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(uniqueConstraints = {
+        @UniqueConstraint(name = "uk_stock_reservation_order_product", columnNames = {"orderId", "productId"})
+}, indexes = {
+        @Index(name = "idx_stock_reservation_expires_at", columnList = "expiresAt")
+})
+public class StockReservation {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long orderId;
+
+    @Column(nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Integer quantity;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+}
@@ -0,0 +1,98 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.CatalogSyncState;
+import cz.cvut.fit.tjv.online_store.domain.ChangeSequenceGenerator;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Numbers committed product writes and tombstones for delta sync. A product is waiting for its number while its
+ * syncSeq is missing or below its changeSeq, which every write bumps; a tombstone while its syncSeq is missing.
+ * A product with sharded stock also waits while one of its shards has a changeSeq the product was not numbered for:
+ * checkouts of hot products only write the shards.
+ */
+@Repository
+public class CatalogSyncRepository {
+    private static final String PENDING_PRODUCTS = "syncSeq IS NULL OR syncSeq < changeSeq";
+    private static final String PENDING_SHARDS = "syncedChangeSeq IS NULL OR syncedChangeSeq < changeSeq";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String nextValueSql;
+
+    public CatalogSyncRepository(NamedParameterJdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        this.jdbcTemplate = jdbcTemplate;
+        this.nextValueSql = ChangeSequenceGenerator.nextValueSql(dialect);
+    }
+
+    /**
+     * Numbers up to {@code limit} waiting products and as many waiting tombstones. Has to run in a transaction:
+     * the sequencer row stays locked until it commits, so no other run can hand out numbers in between.
+     * Product rows are locked in id order, like checkouts lock them; shards only after their product, like
+     * admin stock edits lock them.
+     */
+    public Numbered numberPending(int limit, Instant now) {
+        MapSqlParameterSource state = new MapSqlParameterSource()
+                .addValue("id", CatalogSyncState.ID)
+                .addValue("now", Timestamp.from(now));
+        jdbcTemplate.update("INSERT INTO CatalogSyncState (id, syncSeq, numberedAt) VALUES (:id, 0, :now)"
+                + " ON CONFLICT DO NOTHING", state);
+        jdbcTemplate.queryForObject("SELECT id FROM CatalogSyncState WHERE id = :id FOR UPDATE", state, Integer.class);
+
+        MapSqlParameterSource page = new MapSqlParameterSource("limit", limit);
+        // Not locked here: a shard the product is numbered for is marked seen below, once the product row is locked.
+        List<Long> shardedIds = jdbcTemplate.queryForList("SELECT DISTINCT productId FROM ProductStockShard WHERE "
+                + PENDING_SHARDS + " ORDER BY productId LIMIT :limit", page, Long.class);
+        page.addValue("shardedIds", shardedIds);
+        List<Long> productIds = jdbcTemplate.queryForList("SELECT id FROM Product WHERE (" + PENDING_PRODUCTS + ")"
+                + (shardedIds.isEmpty() ? "" : " OR id IN (:shardedIds)")
+                + " ORDER BY id LIMIT :limit FOR UPDATE", page, Long.class);
+        List<Long> tombstoneIds = jdbcTemplate.queryForList("SELECT changeSeq FROM ProductTombstone"
+                + " WHERE syncSeq IS NULL ORDER BY changeSeq LIMIT :limit FOR UPDATE", page, Long.class);
+        if (productIds.isEmpty() && tombstoneIds.isEmpty()) {
+            return new Numbered(0, 0);
+        }
+        if (!productIds.isEmpty()) {
+            MapSqlParameterSource ids = new MapSqlParameterSource("ids", productIds);
+            jdbcTemplate.update("UPDATE Product SET syncSeq = " + nextValueSql + " WHERE id IN (:ids)", ids);
+            // Waits for a checkout still writing a shard; its write is then covered by the number just given.
+            jdbcTemplate.update("UPDATE ProductStockShard SET syncedChangeSeq = changeSeq"
+                    + " WHERE productId IN (:ids) AND (" + PENDING_SHARDS + ")", ids);
+        }
+        if (!tombstoneIds.isEmpty()) {
+            jdbcTemplate.update("UPDATE ProductTombstone SET syncSeq = " + nextValueSql + " WHERE changeSeq IN (:ids)",
+                    new MapSqlParameterSource("ids", tombstoneIds));
+        }
+        jdbcTemplate.update("UPDATE CatalogSyncState SET syncSeq = " + nextValueSql + ", numberedAt = :now"
+                + " WHERE id = :id", state);
+        return new Numbered(productIds.size(), tombstoneIds.size());
+    }
+
+    /**
+     * Reads the last number handed out and when, by primary key. Before the first sequencer run there is no row;
+     * the number is then 0.
+     */
+    public State readState() {
+        List<State> states = jdbcTemplate.query("SELECT syncSeq, numberedAt FROM CatalogSyncState WHERE id = :id",
+                new MapSqlParameterSource("id", CatalogSyncState.ID),
+                (rs, rowNum) -> new State(rs.getLong("syncSeq"), rs.getTimestamp("numberedAt").toInstant()));
+        return states.isEmpty() ? new State(0, null) : states.get(0);
+    }
+
+    public record Numbered(int products, int tombstones) {
+    }
+
+    /**
+     * @param numberedAt when the sequencer last ran, null before its first run
+     */
+    public record State(long syncSeq, Instant numberedAt) {
+    }
+}
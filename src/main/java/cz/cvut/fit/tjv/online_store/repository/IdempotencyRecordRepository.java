@@ -0,0 +1,98 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.IdempotencyRecord;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Idempotency records, written outside of any transaction of the request they belong to: a claim has to be
+ * visible to duplicates before the request runs, and its response stored only after the request committed.
+ */
+@Repository
+public class IdempotencyRecordRepository {
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public IdempotencyRecordRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Inserts a record without a response, unless one with the key exists.
+     *
+     * @return whether this caller got the key
+     */
+    public boolean claim(String key, byte[] requestHash, Instant createdAt, Instant expiresAt) {
+        return jdbcTemplate.update("INSERT INTO IdempotencyRecord (idempotencyKey, requestHash, createdAt, expiresAt)"
+                        + " VALUES (:key, :requestHash, :createdAt, :expiresAt) ON CONFLICT DO NOTHING",
+                new MapSqlParameterSource()
+                        .addValue("key", key)
+                        .addValue("requestHash", requestHash)
+                        .addValue("createdAt", Timestamp.from(createdAt))
+                        .addValue("expiresAt", Timestamp.from(expiresAt))) == 1;
+    }
+
+    public Optional<IdempotencyRecord> findByKey(String key) {
+        List<IdempotencyRecord> records = jdbcTemplate.query(
+                "SELECT idempotencyKey, requestHash, response, createdAt, expiresAt FROM IdempotencyRecord"
+                        + " WHERE idempotencyKey = :key",
+                new MapSqlParameterSource("key", key),
+                (rs, rowNum) -> new IdempotencyRecord(
+                        rs.getString("idempotencyKey"),
+                        rs.getBytes("requestHash"),
+                        rs.getBytes("response"),
+                        rs.getTimestamp("createdAt").toInstant(),
+                        rs.getTimestamp("expiresAt").toInstant()));
+        return records.stream().findFirst();
+    }
+
+    public void complete(String key, byte[] response) {
+        jdbcTemplate.update("UPDATE IdempotencyRecord SET response = :response WHERE idempotencyKey = :key",
+                new MapSqlParameterSource()
+                        .addValue("key", key)
+                        .addValue("response", response));
+    }
+
+    /**
+     * Moves the claim time of the given records forward, as long as they have no response yet.
+     *
+     * @return the number of records renewed
+     */
+    public int renew(Collection<String> keys, Instant now) {
+        return jdbcTemplate.update("UPDATE IdempotencyRecord SET createdAt = :now"
+                        + " WHERE idempotencyKey IN (:keys) AND response IS NULL",
+                new MapSqlParameterSource()
+                        .addValue("keys", keys)
+                        .addValue("now", Timestamp.from(now)));
+    }
+
+    public void delete(String key) {
+        jdbcTemplate.update("DELETE FROM IdempotencyRecord WHERE idempotencyKey = :key",
+                new MapSqlParameterSource("key", key));
+    }
+
+    /** Deletes the record only if it is still the one created at {@code createdAt}, so a newer claim survives. */
+    public void delete(String key, Instant createdAt) {
+        jdbcTemplate.update("DELETE FROM IdempotencyRecord WHERE idempotencyKey = :key AND createdAt = :createdAt",
+                new MapSqlParameterSource()
+                        .addValue("key", key)
+                        .addValue("createdAt", Timestamp.from(createdAt)));
+    }
+
+    /**
+     * @return the number of records deleted, at most {@code limit}
+     */
+    public int deleteExpired(Instant now, int limit) {
+        return jdbcTemplate.update("DELETE FROM IdempotencyRecord WHERE idempotencyKey IN ("
+                        + "SELECT idempotencyKey FROM IdempotencyRecord WHERE expiresAt <= :now LIMIT :limit)",
+                new MapSqlParameterSource()
+                        .addValue("now", Timestamp.from(now))
+                        .addValue("limit", limit));
+    }
+}
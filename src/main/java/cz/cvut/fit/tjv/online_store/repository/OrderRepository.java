@@ -2,10 +2,14 @@ package cz.cvut.fit.tjv.online_store.repository;
 
 import cz.cvut.fit.tjv.online_store.domain.Order;
 import cz.cvut.fit.tjv.online_store.domain.OrderStatus;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,4 +20,30 @@ public interface OrderRepository extends CrudRepository<Order, Long> {
     List<Order> findByUserId(Long userId);
     Optional<Order> findTopByUserIdOrderByIdDesc(Long userId);
     List<Order> findByUserIdAndStatusIn(Long userId, List<OrderStatus> statuses);
+
+    /** The order with its user and order lines, in one query. */
+    @Query("SELECT o FROM Order o JOIN FETCH o.user LEFT JOIN FETCH o.requestedQuantities WHERE o.id = :id")
+    Optional<Order> findWithLinesById(@Param("id") Long id);
+
+    /** The user's order in the given status with the user and order lines, in one query. */
+    @Query("SELECT o FROM Order o JOIN FETCH o.user u LEFT JOIN FETCH o.requestedQuantities "
+            + "WHERE u.email = :email AND o.status = :status")
+    Optional<Order> findWithLinesByUserEmailAndStatus(@Param("email") String email,
+                                                       @Param("status") OrderStatus status);
+
+    /**
+     * Creates an empty DRAFT order for the user unless the user already has one; uk_orders_user_draft allows
+     * a single DRAFT per user, so of concurrent callers only one inserts.
+     *
+     * @return 1 if the draft was created, 0 if there already was one
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO orders (user_id, date_of_creation, total_cost, status, bonusPointsUsed, version) "
+            + "VALUES (:userId, :dateOfCreation, 0, 'DRAFT', 0, 0) ON CONFLICT DO NOTHING", nativeQuery = true)
+    int insertDraftIfAbsent(@Param("userId") Long userId, @Param("dateOfCreation") LocalDate dateOfCreation);
+
+    /** Order lines of the given orders as (orderId, productId, quantity) rows, without loading the orders. */
+    @Query("SELECT o.id, KEY(q), VALUE(q) FROM Order o JOIN o.requestedQuantities q WHERE o.id IN :orderIds")
+    List<Object[]> findRequestedQuantities(@Param("orderIds") Collection<Long> orderIds);
 }
@@ -0,0 +1,17 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductFilter {
+    private Double minPrice;
+    private Double maxPrice;
+    private Boolean isRestricted;
+    private Integer maxAllowedAge;
+}
@@ -0,0 +1,14 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.ProductPriceHistory;
+import org.springframework.data.repository.CrudRepository;
+
+import java.time.Instant;
+import java.util.Optional;
+
+public interface ProductPriceHistoryRepository extends CrudRepository<ProductPriceHistory, Long> {
+    /**
+     * The entry in force at the given instant. Ties within the same instant go to the later write.
+     */
+    Optional<ProductPriceHistory> findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(Long productId, Instant at);
+}
@@ -1,7 +1,27 @@
 package cz.cvut.fit.tjv.online_store.repository;
 
 import cz.cvut.fit.tjv.online_store.domain.Product;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.repository.CrudRepository;
 
-public interface ProductRepository extends CrudRepository<Product, Long> {
+import java.util.Collection;
+import java.util.List;
+
+public interface ProductRepository extends CrudRepository<Product, Long>, ProductRepositoryCustom {
+    List<Product> findByActiveTrue();
+
+    boolean existsByIdAndActiveTrue(Long id);
+
+    List<Product> findByActiveTrueAndSyncSeqGreaterThanOrderBySyncSeqAsc(Long since, Limit limit);
+
+    List<Product> findByIdInAndChangeSeqGreaterThan(Collection<Long> ids, Long since);
+
+    /**
+     * Loads and write-locks the products in one statement. The rows are locked in ascending id order,
+     * so two transactions locking overlapping sets always wait for each other in the same order.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<Product> findByIdInOrderByIdAsc(Collection<Long> ids);
 }
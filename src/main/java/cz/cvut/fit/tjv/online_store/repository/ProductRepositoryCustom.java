@@ -0,0 +1,39 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface ProductRepositoryCustom {
+    /**
+     * Keyset page of products. Only the predicates of the filter that are set end up in the query,
+     * so each combination can use the matching index. {@code afterPrice} is only used with {@link ProductSort#PRICE}.
+     */
+    List<Product> findPage(ProductFilter filter, ProductSort sort, Double afterPrice, Long afterId, int limit);
+
+    /**
+     * Same page as {@link #findPage}, but only the given columns (field name → attribute path) are selected.
+     */
+    List<Map<String, Object>> findPageFields(ProductFilter filter, ProductSort sort, Double afterPrice, Long afterId,
+                                             int limit, Map<String, String> columns);
+
+    /**
+     * Ids of deleted products that no order refers to, lowest first.
+     */
+    List<Long> findPurgeableIds(int limit);
+
+    /**
+     * Hard-deletes those of the given products that are still deleted and unreferenced.
+     *
+     * @return the number of rows removed
+     */
+    int deletePurgeable(Collection<Long> ids);
+
+    /**
+     * Detaches those of the given products the persistence context holds, so that the next read in the same
+     * transaction goes to the database. Needed after stock was written with plain SQL.
+     */
+    void detachAll(Collection<Product> products);
+}
@@ -0,0 +1,130 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class ProductRepositoryImpl implements ProductRepositoryCustom {
+    private static final String UNREFERENCED =
+            "NOT EXISTS (SELECT 1 FROM Order o JOIN o.requestedQuantities q WHERE KEY(q) = p.id)";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Product> findPage(ProductFilter filter, ProductSort sort, Double afterPrice, Long afterId, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Product> query = cb.createQuery(Product.class);
+        Root<Product> product = query.from(Product.class);
+        query.select(product);
+        restrictToPage(cb, query, product, filter, sort, afterPrice, afterId);
+
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public List<Map<String, Object>> findPageFields(ProductFilter filter, ProductSort sort, Double afterPrice, Long afterId,
+                                                    int limit, Map<String, String> columns) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Product> product = query.from(Product.class);
+        query.multiselect(SparseFieldRepository.selections(product, columns));
+        restrictToPage(cb, query, product, filter, sort, afterPrice, afterId);
+
+        List<Tuple> tuples = entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+        return SparseFieldRepository.toRows(tuples, columns.keySet());
+    }
+
+    @Override
+    public List<Long> findPurgeableIds(int limit) {
+        return entityManager.createQuery(
+                        "SELECT p.id FROM Product p WHERE p.active = false AND " + UNREFERENCED + " ORDER BY p.id", Long.class)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public int deletePurgeable(Collection<Long> ids) {
+        // Checked again: an order may have started referring to one of the ids since they were selected.
+        int deleted = entityManager.createQuery(
+                        "DELETE FROM Product p WHERE p.id IN :ids AND p.active = false AND " + UNREFERENCED)
+                .setParameter("ids", ids)
+                .executeUpdate();
+        entityManager.createQuery("DELETE FROM ProductStockShard s WHERE s.productId IN :ids"
+                        + " AND NOT EXISTS (SELECT p.id FROM Product p WHERE p.id = s.productId)")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        entityManager.createQuery("DELETE FROM ProductReservedStock r WHERE r.productId IN :ids"
+                        + " AND NOT EXISTS (SELECT p.id FROM Product p WHERE p.id = r.productId)")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        return deleted;
+    }
+
+    @Override
+    public void detachAll(Collection<Product> products) {
+        products.stream()
+                .filter(entityManager::contains)
+                .forEach(entityManager::detach);
+    }
+
+    private static void restrictToPage(CriteriaBuilder cb, CriteriaQuery<?> query, Root<Product> product,
+                                       ProductFilter filter, ProductSort sort, Double afterPrice, Long afterId) {
+        List<Predicate> predicates = filterPredicates(cb, product, filter);
+        predicates.add(cb.isTrue(product.get("active")));
+        if (afterId != null) {
+            if (sort == ProductSort.PRICE) {
+                predicates.add(cb.or(
+                        cb.greaterThan(product.<Double>get("price"), afterPrice),
+                        cb.and(
+                                cb.equal(product.get("price"), afterPrice),
+                                cb.greaterThan(product.<Long>get("id"), afterId))));
+            } else {
+                predicates.add(cb.greaterThan(product.<Long>get("id"), afterId));
+            }
+        }
+
+        query.where(predicates.toArray(Predicate[]::new));
+        if (sort == ProductSort.PRICE) {
+            query.orderBy(cb.asc(product.get("price")), cb.asc(product.get("id")));
+        } else {
+            query.orderBy(cb.asc(product.get("id")));
+        }
+    }
+
+    static List<Predicate> filterPredicates(CriteriaBuilder cb, Root<Product> product, ProductFilter filter) {
+        List<Predicate> predicates = new ArrayList<>();
+        if (filter == null) {
+            return predicates;
+        }
+        if (filter.getMinPrice() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(product.<Double>get("price"), filter.getMinPrice()));
+        }
+        if (filter.getMaxPrice() != null) {
+            predicates.add(cb.lessThanOrEqualTo(product.<Double>get("price"), filter.getMaxPrice()));
+        }
+        if (filter.getIsRestricted() != null) {
+            predicates.add(cb.equal(product.get("isRestricted"), filter.getIsRestricted()));
+        }
+        if (filter.getMaxAllowedAge() != null) {
+            predicates.add(cb.or(
+                    cb.isNull(product.get("allowedAge")),
+                    cb.lessThanOrEqualTo(product.<Integer>get("allowedAge"), filter.getMaxAllowedAge())));
+        }
+        return predicates;
+    }
+}
@@ -0,0 +1,6 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+public enum ProductSort {
+    ID,
+    PRICE
+}
@@ -0,0 +1,197 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.ChangeSequenceGenerator;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.LockOptions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stock writes that concurrent checkouts must not lose. Every decrement is one guarded UPDATE, so the
+ * stock check and the write happen atomically in the database, and all lines of an order go out as one JDBC batch.
+ * Nothing is read beforehand; the checkout has only write-locked the product rows, see {@link #lockForCheckout}.
+ * Hot products keep their stock in {@code ProductStockShard} rows instead; their lines never touch the product row,
+ * and the change number goes on the shard.
+ * <p>
+ * Stock held by DRAFT carts in {@code ProductReservedStock} is not for sale: a line only goes through if what is
+ * left after it still covers every reservation. A checkout releases its own order's reservations first.
+ */
+@Repository
+public class ProductStockRepository {
+    private static final String RESERVED_SQL =
+            "COALESCE((SELECT r.reserved FROM ProductReservedStock r WHERE r.productId = :id), 0)";
+    private static final String LOCK_SHARDS_SQL =
+            "SELECT shard, quantity FROM ProductStockShard WHERE productId = :id ORDER BY shard FOR UPDATE";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String decrementSql;
+    private final String decrementShardSql;
+    private final String lockReservedSql;
+
+    public ProductStockRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                  TransactionTemplate transactionTemplate,
+                                  EntityManagerFactory entityManagerFactory) {
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.decrementSql = "UPDATE Product SET quantity = quantity - :quantity, version = version + 1, changeSeq = "
+                + ChangeSequenceGenerator.nextValueSql(dialect)
+                + " WHERE id = :id AND active = TRUE AND quantity - " + RESERVED_SQL + " >= :quantity";
+        // A shard write takes a change number of its own, so delta sync and the catalog version see it.
+        this.decrementShardSql = "UPDATE ProductStockShard SET quantity = quantity - :quantity, changeSeq = "
+                + ChangeSequenceGenerator.nextValueSql(dialect)
+                + " WHERE productId = :id AND shard = :shard AND quantity >= :quantity";
+        // Shared between checkouts, which only read the total; a cart that raises it waits for all of them.
+        this.lockReservedSql = "SELECT reserved FROM ProductReservedStock WHERE productId = :id"
+                + dialect.getReadLockString(LockOptions.WAIT_FOREVER);
+    }
+
+    /**
+     * Write-locks the given products in id order, except sharded ones, whose checkouts must not queue up on one row.
+     * A checkout calls it before it releases its order's reservations: the guarded UPDATE then reads reserved
+     * totals that no cart can move until it commits, and carts, which share-lock the products before they lock
+     * anything else, wait for it rather than deadlock with it.
+     */
+    public void lockForCheckout(Collection<Long> productIds) {
+        if (!productIds.isEmpty()) {
+            jdbcTemplate.queryForList("SELECT id FROM Product WHERE id IN (:ids) AND stockShards <= 1"
+                    + " ORDER BY id FOR UPDATE", new MapSqlParameterSource("ids", productIds), Long.class);
+        }
+    }
+
+    /**
+     * Takes every line off stock, or none: if any line finds too little stock left, the whole batch is rolled back.
+     * Lines are written in product id order, so two checkouts sharing products cannot deadlock each other.
+     *
+     * @param quantities product id → quantity to take, every quantity positive
+     * @return one result per line, in product id order
+     */
+    public List<StockDecrement> decrementAll(Map<Long, Integer> quantities) {
+        return decrementAll(quantities, Map.of());
+    }
+
+    /**
+     * Variant of {@link #decrementAll(Map)} for orders that may contain hot products. A sharded line share-locks
+     * the product's reserved total first. If nothing is reserved it takes its quantity from one shard picked at
+     * random; otherwise, or if that shard has too little left, all shards of the product are locked, in shard order,
+     * and the quantity taken across them once their sum still covers the reservations.
+     *
+     * @param stockShards product id → number of stock shards, for the sharded products among the lines
+     */
+    public List<StockDecrement> decrementAll(Map<Long, Integer> quantities, Map<Long, Integer> stockShards) {
+        Map<Long, Integer> lines = new TreeMap<>();
+        Map<Long, Integer> shardedLines = new TreeMap<>();
+        quantities.forEach((id, quantity) -> (stockShards.containsKey(id) ? shardedLines : lines).put(id, quantity));
+        MapSqlParameterSource[] batch = lines.entrySet().stream()
+                .map(line -> new MapSqlParameterSource()
+                        .addValue("id", line.getKey())
+                        .addValue("quantity", line.getValue()))
+                .toArray(MapSqlParameterSource[]::new);
+
+        return transactionTemplate.execute(status -> {
+            Map<Long, Boolean> fulfilled = new TreeMap<>();
+            int[] updated = (batch.length > 0) ? jdbcTemplate.batchUpdate(decrementSql, batch) : new int[0];
+            int i = 0;
+            for (Long id : lines.keySet()) {
+                fulfilled.put(id, updated[i++] == 1);
+            }
+            shardedLines.forEach((id, quantity) -> fulfilled.put(id, decrementSharded(id, quantity, stockShards.get(id))));
+
+            if (fulfilled.containsValue(false)) {
+                status.setRollbackOnly();
+                List<StockDecrement> results = new ArrayList<>(fulfilled.size());
+                fulfilled.forEach((id, done) -> results.add(new StockDecrement(id, quantities.get(id), done, null, null)));
+                return results;
+            }
+            return fulfilled(new TreeMap<>(quantities), shardedLines.keySet());
+        });
+    }
+
+    private boolean decrementSharded(Long productId, int quantity, int shards) {
+        // The total is locked, not the product row, so checkouts of a hot product do not queue up on one row.
+        // It must exist to be locked: a cart that reserves the product later has to wait for this checkout.
+        MapSqlParameterSource id = new MapSqlParameterSource("id", productId);
+        List<Integer> locked = jdbcTemplate.queryForList(lockReservedSql, id, Integer.class);
+        if (locked.isEmpty()) {
+            jdbcTemplate.update("INSERT INTO ProductReservedStock (productId, reserved) VALUES (:id, 0)"
+                    + " ON CONFLICT DO NOTHING", id);
+            locked = jdbcTemplate.queryForList(lockReservedSql, id, Integer.class);
+        }
+        int reserved = locked.get(0);
+        // One shard alone cannot tell whether the product as a whole is reserved, so it is enough only if nothing is.
+        if (reserved == 0) {
+            int updated = jdbcTemplate.update(decrementShardSql, new MapSqlParameterSource()
+                    .addValue("id", productId)
+                    .addValue("shard", ThreadLocalRandom.current().nextInt(shards))
+                    .addValue("quantity", quantity));
+            if (updated == 1) {
+                return true;
+            }
+        }
+
+        // Lock all shards in shard order, so these checkouts of the product queue up and each sees the others' sum.
+        Map<Integer, Integer> available = new TreeMap<>();
+        jdbcTemplate.query(LOCK_SHARDS_SQL, id,
+                rs -> {
+                    available.put(rs.getInt("shard"), rs.getInt("quantity"));
+                });
+        int total = available.values().stream().mapToInt(Integer::intValue).sum();
+        if (total - reserved < quantity) {
+            return false;
+        }
+        int left = quantity;
+        List<MapSqlParameterSource> takes = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : available.entrySet()) {
+            int take = Math.min(left, entry.getValue());
+            if (take > 0) {
+                takes.add(new MapSqlParameterSource()
+                        .addValue("id", productId)
+                        .addValue("shard", entry.getKey())
+                        .addValue("quantity", take));
+                left -= take;
+            }
+            if (left == 0) {
+                break;
+            }
+        }
+        jdbcTemplate.batchUpdate(decrementShardSql, takes.toArray(MapSqlParameterSource[]::new));
+        return true;
+    }
+
+    // Reads back what the batch wrote, so listeners get the stock and change number the database now holds.
+    private List<StockDecrement> fulfilled(Map<Long, Integer> lines, Collection<Long> shardedIds) {
+        Map<Long, Object[]> rows = new HashMap<>();
+        jdbcTemplate.query("SELECT id, quantity, changeSeq FROM Product WHERE id IN (:ids)",
+                new MapSqlParameterSource("ids", lines.keySet()),
+                rs -> {
+                    rows.put(rs.getLong("id"), new Object[]{rs.getInt("quantity"), rs.getLong("changeSeq")});
+                });
+        if (!shardedIds.isEmpty()) {
+            jdbcTemplate.query("SELECT productId, SUM(quantity) AS quantity FROM ProductStockShard"
+                            + " WHERE productId IN (:ids) GROUP BY productId",
+                    new MapSqlParameterSource("ids", shardedIds),
+                    rs -> {
+                        rows.get(rs.getLong("productId"))[0] = rs.getInt("quantity");
+                    });
+        }
+        List<StockDecrement> results = new ArrayList<>(lines.size());
+        lines.forEach((id, quantity) -> {
+            Object[] row = rows.get(id);
+            results.add(new StockDecrement(id, quantity, true, (Integer) row[0], (Long) row[1]));
+        });
+        return results;
+    }
+}
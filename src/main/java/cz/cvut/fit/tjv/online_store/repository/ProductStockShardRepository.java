@@ -0,0 +1,39 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.ProductStockShard;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public interface ProductStockShardRepository extends CrudRepository<ProductStockShard, Long> {
+    /** Loads and write-locks the shards of a product, in shard order. */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<ProductStockShard> findByProductIdOrderByShardAsc(Long productId);
+
+    @Modifying
+    @Query("DELETE FROM ProductStockShard s WHERE s.productId = :productId")
+    int deleteByProductId(@Param("productId") Long productId);
+
+    @Query("SELECT s.productId, SUM(s.quantity) FROM ProductStockShard s WHERE s.productId IN :productIds GROUP BY s.productId")
+    List<Object[]> sumQuantities(@Param("productIds") Collection<Long> productIds);
+
+    /** Stock of every given product that has shards, summed over its shards. Products without shards are left out. */
+    default Map<Long, Integer> findShardedStock(Collection<Long> productIds) {
+        Map<Long, Integer> stock = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return stock;
+        }
+        for (Object[] row : sumQuantities(productIds)) {
+            stock.put((Long) row[0], ((Number) row[1]).intValue());
+        }
+        return stock;
+    }
+}
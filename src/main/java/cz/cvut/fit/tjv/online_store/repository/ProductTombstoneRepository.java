@@ -0,0 +1,14 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.ProductTombstone;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ProductTombstoneRepository extends CrudRepository<ProductTombstone, Long> {
+    List<ProductTombstone> findBySyncSeqGreaterThanOrderBySyncSeqAsc(Long since, Limit limit);
+
+    List<ProductTombstone> findByProductIdIn(Collection<Long> productIds);
+}
@@ -0,0 +1,65 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.*;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+
+/**
+ * Reads only selected attributes of an entity. Rows are maps keyed by output field name,
+ * so neither entities nor their associations are ever loaded.
+ */
+@Repository
+public class SparseFieldRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * @param columns output field name → attribute path, e.g. {@code userId → user.id}
+     */
+    public List<Map<String, Object>> findAll(Class<?> entityClass, Map<String, String> columns) {
+        return findAll(entityClass, columns, Map.of());
+    }
+
+    /**
+     * @param equalTo attribute → value every returned row must have, e.g. {@code active → true}
+     */
+    public List<Map<String, Object>> findAll(Class<?> entityClass, Map<String, String> columns, Map<String, ?> equalTo) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<?> root = query.from(entityClass);
+        Predicate[] predicates = equalTo.entrySet().stream()
+                .map(e -> cb.equal(root.get(e.getKey()), e.getValue()))
+                .toArray(Predicate[]::new);
+        query.multiselect(selections(root, columns)).where(predicates).orderBy(cb.asc(root.get("id")));
+        return toRows(entityManager.createQuery(query).getResultList(), columns.keySet());
+    }
+
+    static List<Selection<?>> selections(Root<?> root, Map<String, String> columns) {
+        List<Selection<?>> selections = new ArrayList<>();
+        columns.forEach((name, attributePath) -> {
+            Path<?> path = root;
+            for (String attribute : attributePath.split("\\.")) {
+                path = path.get(attribute);
+            }
+            selections.add(path.alias(name));
+        });
+        return selections;
+    }
+
+    static List<Map<String, Object>> toRows(List<Tuple> tuples, Collection<String> names) {
+        List<Map<String, Object>> rows = new ArrayList<>(tuples.size());
+        for (Tuple tuple : tuples) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (String name : names) {
+                row.put(name, tuple.get(name));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,11 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+/**
+ * Outcome of taking one order line off stock.
+ *
+ * @param remaining stock left after the decrement; {@code null} when the line was not fulfilled
+ * @param changeSeq change number the decrement gave the product; if its stock is sharded, the product row keeps its
+ *                  number and the shard written gets a new one instead; {@code null} when the line was not fulfilled
+ */
+public record StockDecrement(Long productId, int quantity, boolean fulfilled, Integer remaining, Long changeSeq) {
+}
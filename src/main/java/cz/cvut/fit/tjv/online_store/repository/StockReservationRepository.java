@@ -0,0 +1,229 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.LockOptions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reservation rows and the per-product reserved totals, kept in step. A total only grows through one guarded
+ * UPDATE that checks it against the product's stock, so concurrent carts cannot reserve more than there is.
+ * Callers lock reservation rows before they touch totals, and touch totals in product id order.
+ * <p>
+ * The guard reads stock that checkouts write, and checkouts read totals that the guard writes, so the two must
+ * wait for each other or both could pass on what the other has not committed yet. Locks are taken in one order
+ * everywhere: product rows first, then reservation rows, then totals. A cart share-locks the product rows before
+ * it reserves, and a checkout write-locks them before it releases. Checkouts of sharded products leave the
+ * product row alone and share-lock the total instead, so a growing total is write-locked before the guard runs.
+ */
+@Repository
+public class StockReservationRepository {
+    // Stock of a sharded product lives in its shards and its own quantity is 0, so the sum covers both kinds.
+    // A release always goes through; a growing total only while the stock still covers it.
+    private static final String ADJUST_SQL = "UPDATE ProductReservedStock SET reserved = reserved + :delta"
+            + " WHERE productId = :id AND (:delta < 0 OR reserved + :delta <= ("
+            + "SELECT p.quantity + COALESCE((SELECT SUM(s.quantity) FROM ProductStockShard s WHERE s.productId = p.id), 0)"
+            + " FROM Product p WHERE p.id = :id AND p.active = TRUE))";
+    // Inserts, updates or, for quantity 0, deletes the reservation of one order line.
+    private static final String SET_LINE_SQL = "MERGE INTO StockReservation r"
+            + " USING (SELECT CAST(:orderId AS BIGINT) AS orderId, CAST(:productId AS BIGINT) AS productId,"
+            + " CAST(:quantity AS INTEGER) AS quantity, CAST(:expiresAt AS TIMESTAMP WITH TIME ZONE) AS expiresAt) l"
+            + " ON r.orderId = l.orderId AND r.productId = l.productId"
+            + " WHEN MATCHED AND l.quantity = 0 THEN DELETE"
+            + " WHEN MATCHED THEN UPDATE SET quantity = l.quantity, expiresAt = l.expiresAt"
+            + " WHEN NOT MATCHED AND l.quantity > 0 THEN INSERT (orderId, productId, quantity, expiresAt)"
+            + " VALUES (l.orderId, l.productId, l.quantity, l.expiresAt)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String lockProductsSql;
+
+    public StockReservationRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                      EntityManagerFactory entityManagerFactory) {
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        this.jdbcTemplate = jdbcTemplate;
+        // FOR SHARE where the database has it, so carts do not queue up behind each other on a product.
+        this.lockProductsSql = "SELECT id FROM Product WHERE id IN (:ids) ORDER BY id"
+                + dialect.getReadLockString(LockOptions.WAIT_FOREVER);
+    }
+
+    /**
+     * Share-locks the given product rows in id order, so their stock cannot be taken by a checkout
+     * until the transaction ends. A cart calls it before it locks its reservation rows.
+     */
+    public void lockProducts(Collection<Long> productIds) {
+        if (!productIds.isEmpty()) {
+            jdbcTemplate.queryForList(lockProductsSql, new MapSqlParameterSource("ids", productIds), Long.class);
+        }
+    }
+
+    /** Reserved total of every given product that has one; products nobody reserved are left out. */
+    public Map<Long, Integer> findReserved(Collection<Long> productIds) {
+        Map<Long, Integer> reserved = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return reserved;
+        }
+        jdbcTemplate.query("SELECT productId, reserved FROM ProductReservedStock WHERE productId IN (:ids)",
+                new MapSqlParameterSource("ids", productIds),
+                rs -> {
+                    reserved.put(rs.getLong("productId"), rs.getInt("reserved"));
+                });
+        return reserved;
+    }
+
+    /** Product id → reserved quantity of the order, without locking anything. */
+    public Map<Long, Integer> findByOrder(Long orderId) {
+        return queryByOrder("SELECT productId, quantity FROM StockReservation WHERE orderId = :orderId", orderId);
+    }
+
+    /** Like {@link #findByOrder}, but write-locks the rows, so the expiry job cannot release them underneath. */
+    public Map<Long, Integer> lockByOrder(Long orderId) {
+        return queryByOrder("SELECT productId, quantity FROM StockReservation WHERE orderId = :orderId"
+                + " ORDER BY productId FOR UPDATE", orderId);
+    }
+
+    /**
+     * Moves the reserved totals of several products at once, in one JDBC batch and in product id order.
+     * A negative delta releases; a positive one only goes through if the product's stock still covers the new total.
+     * The caller has share-locked the products with {@link #lockProducts} beforehand.
+     *
+     * @param deltas product id → change of its reserved total, none of them 0
+     * @return ids of the products whose total could not grow, in product id order
+     */
+    public List<Long> adjust(Map<Long, Integer> deltas) {
+        List<Long> refused = new ArrayList<>();
+        if (deltas.isEmpty()) {
+            return refused;
+        }
+        Map<Long, Integer> ordered = new TreeMap<>(deltas);
+        MapSqlParameterSource[] growing = ordered.entrySet().stream()
+                .filter(delta -> delta.getValue() > 0)
+                .map(delta -> new MapSqlParameterSource("id", delta.getKey()))
+                .toArray(MapSqlParameterSource[]::new);
+        if (growing.length > 0) {
+            jdbcTemplate.batchUpdate("INSERT INTO ProductReservedStock (productId, reserved) VALUES (:id, 0)"
+                    + " ON CONFLICT DO NOTHING", growing);
+            // A statement of its own, so the guarded updates start after the sharded checkouts holding the totals
+            // have committed, and see the shards they took from.
+            jdbcTemplate.queryForList("SELECT productId FROM ProductReservedStock WHERE productId IN (:ids)"
+                            + " ORDER BY productId FOR UPDATE",
+                    new MapSqlParameterSource("ids", Arrays.stream(growing).map(id -> id.getValue("id")).toList()),
+                    Long.class);
+        }
+        MapSqlParameterSource[] batch = ordered.entrySet().stream()
+                .map(delta -> new MapSqlParameterSource()
+                        .addValue("id", delta.getKey())
+                        .addValue("delta", delta.getValue()))
+                .toArray(MapSqlParameterSource[]::new);
+        int[] updated = jdbcTemplate.batchUpdate(ADJUST_SQL, batch);
+        int i = 0;
+        for (Map.Entry<Long, Integer> delta : ordered.entrySet()) {
+            if (updated[i++] != 1 && delta.getValue() > 0) {
+                refused.add(delta.getKey());
+            }
+        }
+        return refused;
+    }
+
+    public void unreserve(Long productId, int quantity) {
+        jdbcTemplate.update("UPDATE ProductReservedStock SET reserved = reserved - :quantity WHERE productId = :id",
+                new MapSqlParameterSource()
+                        .addValue("id", productId)
+                        .addValue("quantity", quantity));
+    }
+
+    /**
+     * Sets the reserved quantity of several lines of the order in one JDBC batch: a line is inserted, updated,
+     * or deleted when its quantity is 0. Written lines expire at {@code expiresAt}.
+     *
+     * @param quantities product id → quantity the order holds from now on
+     */
+    public void setLines(Long orderId, Map<Long, Integer> quantities, Instant expiresAt) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        Timestamp expiry = Timestamp.from(expiresAt);
+        MapSqlParameterSource[] batch = new TreeMap<>(quantities).entrySet().stream()
+                .map(line -> line(orderId, line.getKey())
+                        .addValue("quantity", line.getValue())
+                        .addValue("expiresAt", expiry))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(SET_LINE_SQL, batch);
+    }
+
+    /** Moves the expiry of every reservation of the order. */
+    public void extend(Long orderId, Instant expiresAt) {
+        jdbcTemplate.update("UPDATE StockReservation SET expiresAt = :expiresAt WHERE orderId = :orderId",
+                new MapSqlParameterSource()
+                        .addValue("orderId", orderId)
+                        .addValue("expiresAt", Timestamp.from(expiresAt)));
+    }
+
+    public void delete(Long orderId, Long productId) {
+        jdbcTemplate.update("DELETE FROM StockReservation WHERE orderId = :orderId AND productId = :productId",
+                line(orderId, productId));
+    }
+
+    public void deleteByOrder(Long orderId) {
+        jdbcTemplate.update("DELETE FROM StockReservation WHERE orderId = :orderId",
+                new MapSqlParameterSource("orderId", orderId));
+    }
+
+    /**
+     * Releases up to {@code limit} reservations that expired by {@code now}, soonest expiry first.
+     * Only due rows are read, through the expiry index.
+     */
+    public Released releaseExpired(Instant now, int limit) {
+        List<Long> ids = new ArrayList<>();
+        Map<Long, Integer> released = new TreeMap<>();
+        jdbcTemplate.query("SELECT id, productId, quantity FROM StockReservation WHERE expiresAt <= :now"
+                        + " ORDER BY expiresAt LIMIT :limit FOR UPDATE",
+                new MapSqlParameterSource()
+                        .addValue("now", Timestamp.from(now))
+                        .addValue("limit", limit),
+                rs -> {
+                    ids.add(rs.getLong("id"));
+                    released.merge(rs.getLong("productId"), rs.getInt("quantity"), Integer::sum);
+                });
+        if (ids.isEmpty()) {
+            return new Released(0, released);
+        }
+        released.forEach(this::unreserve);
+        jdbcTemplate.update("DELETE FROM StockReservation WHERE id IN (:ids)", new MapSqlParameterSource("ids", ids));
+        return new Released(ids.size(), released);
+    }
+
+    /**
+     * @param reservations number of reservations released
+     * @param quantities product id → quantity released
+     */
+    public record Released(int reservations, Map<Long, Integer> quantities) {
+    }
+
+    private Map<Long, Integer> queryByOrder(String sql, Long orderId) {
+        Map<Long, Integer> lines = new TreeMap<>();
+        jdbcTemplate.query(sql, new MapSqlParameterSource("orderId", orderId),
+                rs -> {
+                    lines.put(rs.getLong("productId"), rs.getInt("quantity"));
+                });
+        return lines;
+    }
+
+    private static MapSqlParameterSource line(Long orderId, Long productId) {
+        return new MapSqlParameterSource()
+                .addValue("orderId", orderId)
+                .addValue("productId", productId);
+    }
+}
@@ -4,23 +4,35 @@ import cz.cvut.fit.tjv.online_store.controller.dto.BonusCardDto;
 import cz.cvut.fit.tjv.online_store.domain.BonusCard;
 import cz.cvut.fit.tjv.online_store.domain.User;
 import cz.cvut.fit.tjv.online_store.repository.BonusCardRepository;
+import cz.cvut.fit.tjv.online_store.repository.SparseFieldRepository;
 import cz.cvut.fit.tjv.online_store.repository.UserRepository;
 import cz.cvut.fit.tjv.online_store.service.mapper.BonusCardMapper;
 import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 public class BonusCardService {
+    /** Fields selectable with {@code ?fields=}. */
+    static final Map<String, String> FIELDS = SparseFields.paths(
+            "id", "id",
+            "userId", "user.id",
+            "balance", "balance");
 
     private final BonusCardRepository bonusCardRepository;
     private final UserRepository userRepository;
     private final BonusCardMapper bonusCardMapper;
+    private final SparseFieldRepository sparseFieldRepository;
+    private final OptimisticRetry optimisticRetry;
 
-    public BonusCardService(BonusCardRepository bonusCardRepository, UserRepository userRepository, BonusCardMapper bonusCardMapper) {
+    public BonusCardService(BonusCardRepository bonusCardRepository, UserRepository userRepository, BonusCardMapper bonusCardMapper,
+                            SparseFieldRepository sparseFieldRepository, OptimisticRetry optimisticRetry) {
         this.bonusCardRepository = bonusCardRepository;
         this.userRepository = userRepository;
         this.bonusCardMapper = bonusCardMapper;
+        this.sparseFieldRepository = sparseFieldRepository;
+        this.optimisticRetry = optimisticRetry;
     }
 
     public BonusCardDto save(BonusCardDto bonusCardDto) {
@@ -32,6 +44,8 @@ public class BonusCardService {
         }
 
         BonusCard bonusCard = bonusCardMapper.convertToEntity(bonusCardDto);
+        // Always a new card: an id sent along must not overwrite someone else's.
+        bonusCard.setId(null);
         bonusCard.setUser(user);
         BonusCard savedCard = bonusCardRepository.save(bonusCard);
         return bonusCardMapper.convertToDto(savedCard);
@@ -42,6 +56,11 @@ public class BonusCardService {
         return bonusCardMapper.convertManyToDto(bonusCards);
     }
 
+    public List<Map<String, Object>> findAllFields(String fields) {
+        SparseFields selected = SparseFields.parse(fields, FIELDS);
+        return sparseFieldRepository.findAll(BonusCard.class, selected.columnsIncluding());
+    }
+
     public BonusCardDto findById(Long id) {
         BonusCard bonusCard = bonusCardRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Bonus card not found"));
@@ -59,28 +78,32 @@ public class BonusCardService {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be greater than 0");
         }
-        BonusCard bonusCard = bonusCardRepository.findById(cardId)
-                .orElseThrow(() -> new IllegalArgumentException("Bonus card not found"));
-
-        bonusCard.setBalance(bonusCard.getBalance() + amount);
-        BonusCard updatedCard = bonusCardRepository.save(bonusCard);
-        return bonusCardMapper.convertToDto(updatedCard);
+        return optimisticRetry.run("BonusCardService.addBalance", () -> {
+            BonusCard bonusCard = bonusCardRepository.findById(cardId)
+                    .orElseThrow(() -> new IllegalArgumentException("Bonus card not found"));
+
+            bonusCard.setBalance(bonusCard.getBalance() + amount);
+            BonusCard updatedCard = bonusCardRepository.save(bonusCard);
+            return bonusCardMapper.convertToDto(updatedCard);
+        });
     }
 
     public BonusCardDto deductBalance(Long cardId, Double amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be greater than 0");
         }
-        BonusCard bonusCard = bonusCardRepository.findById(cardId)
-                .orElseThrow(() -> new IllegalArgumentException("Bonus card not found"));
-
-        if (bonusCard.getBalance() < amount) {
-            throw new IllegalArgumentException("Insufficient balance on the bonus card");
-        }
-
-        bonusCard.setBalance(bonusCard.getBalance() - amount);
-        BonusCard updatedCard = bonusCardRepository.save(bonusCard);
-        return bonusCardMapper.convertToDto(updatedCard);
+        return optimisticRetry.run("BonusCardService.deductBalance", () -> {
+            BonusCard bonusCard = bonusCardRepository.findById(cardId)
+                    .orElseThrow(() -> new IllegalArgumentException("Bonus card not found"));
+
+            if (bonusCard.getBalance() < amount) {
+                throw new IllegalArgumentException("Insufficient balance on the bonus card");
+            }
+
+            bonusCard.setBalance(bonusCard.getBalance() - amount);
+            BonusCard updatedCard = bonusCardRepository.save(bonusCard);
+            return bonusCardMapper.convertToDto(updatedCard);
+        });
     }
 
     public Double getBalanceByUserId(Long userId) {
@@ -94,16 +117,18 @@ public class BonusCardService {
             throw new IllegalArgumentException("Amount must be greater than 0");
         }
 
-        BonusCard bonusCard = bonusCardRepository.findByUserId(userId)
-                .orElseThrow(() -> new IllegalArgumentException("Bonus card not found for user"));
+        return optimisticRetry.run("BonusCardService.deductBalanceByUserId", () -> {
+            BonusCard bonusCard = bonusCardRepository.findByUserId(userId)
+                    .orElseThrow(() -> new IllegalArgumentException("Bonus card not found for user"));
 
-        if (bonusCard.getBalance() < amount) {
-            throw new IllegalArgumentException("Insufficient balance on the bonus card");
-        }
+            if (bonusCard.getBalance() < amount) {
+                throw new IllegalArgumentException("Insufficient balance on the bonus card");
+            }
 
-        bonusCard.setBalance(bonusCard.getBalance() - amount);
-        BonusCard updatedCard = bonusCardRepository.save(bonusCard);
-        return bonusCardMapper.convertToDto(updatedCard);
+            bonusCard.setBalance(bonusCard.getBalance() - amount);
+            BonusCard updatedCard = bonusCardRepository.save(bonusCard);
+            return bonusCardMapper.convertToDto(updatedCard);
+        });
     }
 
     public BonusCardDto addCashback(Long userId, Double cashbackAmount) {
@@ -111,12 +136,14 @@ public class BonusCardService {
             throw new IllegalArgumentException("Cashback amount must be greater than 0");
         }
 
-        BonusCard bonusCard = bonusCardRepository.findByUserId(userId)
-                .orElseThrow(() -> new IllegalArgumentException("Bonus card not found for user"));
+        return optimisticRetry.run("BonusCardService.addCashback", () -> {
+            BonusCard bonusCard = bonusCardRepository.findByUserId(userId)
+                    .orElseThrow(() -> new IllegalArgumentException("Bonus card not found for user"));
 
-        bonusCard.setBalance(bonusCard.getBalance() + cashbackAmount);
-        BonusCard updatedCard = bonusCardRepository.save(bonusCard);
-        return bonusCardMapper.convertToDto(updatedCard);
+            bonusCard.setBalance(bonusCard.getBalance() + cashbackAmount);
+            BonusCard updatedCard = bonusCardRepository.save(bonusCard);
+            return bonusCardMapper.convertToDto(updatedCard);
+        });
     }
 
     public BonusCardDto createForUser(String email) {
@@ -0,0 +1,14 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+/**
+ * How a checkout protects the stock it takes, chosen per deployment with {@code online-store.checkout.locking}.
+ */
+public enum CheckoutLocking {
+    /** No read locks: the guarded stock decrement rejects the checkout if a concurrent one took the stock first. */
+    CONDITIONAL,
+    /**
+     * Every product of the cart is locked up front with one {@code SELECT ... FOR UPDATE} in ascending id order,
+     * so the stock that is checked is the stock that is taken, and overlapping carts cannot deadlock.
+     */
+    PESSIMISTIC
+}
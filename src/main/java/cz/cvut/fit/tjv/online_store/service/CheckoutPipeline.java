@@ -0,0 +1,227 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Group commit for checkouts. When enabled, confirmations are queued and a worker runs a group of them in one
+ * transaction, so the group pays for one commit instead of one each; Hibernate sends their order and bonus card
+ * updates as JDBC batches at that commit. A checkout that fails takes the group's transaction down with it:
+ * its caller gets the failure, and the rest of the group runs again without it.
+ * A group locks the products of all its checkouts up front, in id order, as it holds them until the one commit;
+ * a checkout that still loses a lock, e.g. to a deadlock, runs again alone like one that hit a version conflict.
+ * When disabled, or when the caller already runs a transaction, checkouts run right away as before.
+ */
+@Component
+public class CheckoutPipeline {
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final TransactionTemplate transactionTemplate;
+    private final OptimisticRetry optimisticRetry;
+    private final ProductRepository productRepository;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final int workers;
+    private final BlockingQueue<Checkout<?>> queue;
+    private final List<Thread> threads = new ArrayList<>();
+
+    private volatile boolean running;
+
+    public CheckoutPipeline(TransactionTemplate transactionTemplate,
+                            OptimisticRetry optimisticRetry,
+                            ProductRepository productRepository,
+                            @Value("${online-store.checkout.pipeline.enabled:false}") boolean enabled,
+                            @Value("${online-store.checkout.pipeline.batch-size:32}") int batchSize,
+                            @Value("${online-store.checkout.pipeline.linger-ms:2}") long lingerMillis,
+                            @Value("${online-store.checkout.pipeline.workers:1}") int workers,
+                            @Value("${online-store.checkout.pipeline.capacity:10000}") int capacity) {
+        if (batchSize <= 0 || workers <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Checkout pipeline batch size, workers and capacity must be positive");
+        }
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("Checkout pipeline linger must not be negative");
+        }
+        this.transactionTemplate = transactionTemplate;
+        this.optimisticRetry = optimisticRetry;
+        this.productRepository = productRepository;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.workers = workers;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::work, "checkout-pipeline-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    @EventListener(ContextClosedEvent.class)
+    public synchronized void stop() {
+        running = false;
+        threads.forEach(Thread::interrupt);
+        threads.clear();
+        List<Checkout<?>> left = new ArrayList<>();
+        queue.drainTo(left);
+        left.forEach(checkout -> checkout.result.completeExceptionally(
+                new IllegalStateException("The application is shutting down. Please try again.")));
+    }
+
+    /**
+     * Runs a checkout, grouped with concurrent ones when the pipeline runs, and waits for its own result.
+     * The work has to read everything it changes itself, as it may be started over in a new transaction.
+     *
+     * @param productIds reads the ids of the products the work will lock, in the transaction the work runs in
+     */
+    public <R> R submit(String operation, Supplier<? extends Collection<Long>> productIds, Supplier<R> work) {
+        if (!running || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return optimisticRetry.run(operation, work);
+        }
+        Checkout<R> checkout = new Checkout<>(operation, productIds, work, new CompletableFuture<>());
+        if (!queue.offer(checkout)) {
+            throw new IllegalStateException("Too many checkouts in progress. Please try again.");
+        }
+        try {
+            return checkout.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void work() {
+        while (running) {
+            List<Checkout<?>> group = new ArrayList<>(batchSize);
+            try {
+                Checkout<?> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                queue.drainTo(group, batchSize - group.size());
+                long left;
+                while (group.size() < batchSize && (left = deadline - System.nanoTime()) > 0) {
+                    Checkout<?> next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                    queue.drainTo(group, batchSize - group.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                group.forEach(checkout -> checkout.result.completeExceptionally(
+                        new IllegalStateException("The application is shutting down. Please try again.")));
+                return;
+            }
+            commitGroup(group);
+        }
+    }
+
+    void commitGroup(List<Checkout<?>> group) {
+        List<Checkout<?>> pending = new ArrayList<>(group);
+        List<Checkout<?>> alone = new ArrayList<>();
+        while (pending.size() > 1) {
+            Map<Checkout<?>, Object> results = new IdentityHashMap<>();
+            Failure failure;
+            try {
+                failure = transactionTemplate.execute(status -> {
+                    lockProducts(pending);
+                    for (Checkout<?> checkout : pending) {
+                        try {
+                            results.put(checkout, checkout.work.get());
+                        } catch (RuntimeException e) {
+                            status.setRollbackOnly();
+                            return new Failure(checkout, e);
+                        }
+                    }
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                // The locks or the commit failed, e.g. on a version conflict, and cannot be pinned on one checkout.
+                alone.addAll(pending);
+                pending.clear();
+                break;
+            }
+            if (failure == null) {
+                pending.forEach(checkout -> checkout.complete(results.get(checkout)));
+                return;
+            }
+            pending.remove(failure.checkout());
+            if (failure.error() instanceof OptimisticLockingFailureException
+                    || failure.error() instanceof PessimisticLockingFailureException) {
+                alone.add(failure.checkout());
+            } else {
+                failure.checkout().result.completeExceptionally(failure.error());
+            }
+        }
+        alone.addAll(pending);
+        alone.forEach(this::runAlone);
+    }
+
+    /**
+     * Locks the products of the whole group in ascending id order before any checkout runs, so that two groups,
+     * or a group and a single checkout, never take the same rows in different orders. The group shares one
+     * persistence context; a checkout detaches the products it took stock of, so the next one reads their stock again.
+     */
+    private void lockProducts(List<Checkout<?>> group) {
+        TreeSet<Long> productIds = new TreeSet<>();
+        group.forEach(checkout -> productIds.addAll(checkout.productIds.get()));
+        if (!productIds.isEmpty()) {
+            productRepository.findByIdInOrderByIdAsc(productIds);
+        }
+    }
+
+    private void runAlone(Checkout<?> checkout) {
+        try {
+            checkout.complete(optimisticRetry.run(checkout.operation, checkout.work));
+        } catch (RuntimeException e) {
+            checkout.result.completeExceptionally(e);
+        }
+    }
+
+    private record Failure(Checkout<?> checkout, RuntimeException error) {
+    }
+
+    record Checkout<R>(String operation, Supplier<? extends Collection<Long>> productIds, Supplier<R> work,
+                       CompletableFuture<R> result) {
+        @SuppressWarnings("unchecked")
+        private void complete(Object value) {
+            result.complete((R) value);
+        }
+    }
+}
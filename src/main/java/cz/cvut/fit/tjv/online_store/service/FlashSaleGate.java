@@ -0,0 +1,273 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.FlashSaleStatsDto;
+import cz.cvut.fit.tjv.online_store.exception.TooManyRequestsException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Admission queue in front of cart and checkout writes for products on flash sale. Every request for such a product
+ * books the next free slot of the product's queue, and slots follow each other at the configured rate, so requests
+ * reach the database in arrival order and no faster than that. Requests that would wait longer than
+ * {@code online-store.flash-sale.max-wait-ms} are turned away at once, and so is everyone once the allocation
+ * is gone. Requests for other products pass straight through.
+ * <p>
+ * The allocation follows the stock reservations of carts: {@link StockReservationService} takes units from it when
+ * a cart reserves more and gives them back when a cart holds less, is deleted or expires. Both only count once the
+ * reservation change has committed. Units bought at checkout stay taken.
+ */
+@Component
+public class FlashSaleGate {
+    private final long maxWaitNanos;
+    private final Map<Long, FlashSale> sales = new ConcurrentHashMap<>();
+    // Carts that were let in with flash-sale products, so their checkout is queued without reading the order first.
+    private final Map<Long, Set<Long>> flashCarts = new ConcurrentHashMap<>();
+
+    public FlashSaleGate(@Value("${online-store.flash-sale.max-wait-ms:2000}") long maxWaitMs) {
+        if (maxWaitMs < 0) {
+            throw new IllegalArgumentException("Flash sale max wait must not be negative");
+        }
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    }
+
+    /**
+     * Puts a product on flash sale, or changes the allocation and rate of a running one.
+     *
+     * @param allocation units that may still go into carts
+     * @param ratePerSecond requests let through per second
+     */
+    public void start(Long productId, int allocation, double ratePerSecond) {
+        if (allocation < 0) {
+            throw new IllegalArgumentException("Flash sale allocation must not be negative");
+        }
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("Flash sale rate must be positive");
+        }
+        long intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        sales.compute(productId, (id, running) -> {
+            FlashSale sale = (running != null) ? running : new FlashSale(id);
+            sale.ratePerSecond = ratePerSecond;
+            sale.intervalNanos = intervalNanos;
+            sale.allocationLeft.set(allocation);
+            return sale;
+        });
+    }
+
+    public void end(Long productId) {
+        if (sales.remove(productId) == null) {
+            throw new IllegalArgumentException("Flash sale not found for product ID: " + productId);
+        }
+    }
+
+    /** Forgets a cart, e.g. because its order was deleted. */
+    public void forget(Long orderId) {
+        flashCarts.remove(orderId);
+    }
+
+    public List<FlashSaleStatsDto> stats() {
+        return sales.values().stream()
+                .sorted(Comparator.comparing(sale -> sale.productId))
+                .map(sale -> new FlashSaleStatsDto(sale.productId, sale.ratePerSecond, sale.allocationLeft.get(),
+                        sale.waiting.get(), sale.admitted.get(), sale.soldOut.get(), sale.queueFull.get()))
+                .toList();
+    }
+
+    /**
+     * Runs an add-to-cart once it is admitted. A product whose allocation is gone is turned away up front;
+     * the units themselves are taken when the cart reserves them.
+     */
+    public <T> T admitToCart(Long orderId, Map<Long, Integer> quantities, Supplier<T> action) {
+        return admitToCart(quantities, action, result -> orderId);
+    }
+
+    /**
+     * Variant of {@link #admitToCart(Long, Map, Supplier)} for callers that learn the order only while running
+     * the action, e.g. because the action creates the cart.
+     */
+    public <T> T admitToCart(Map<Long, Integer> quantities, Supplier<T> action, Function<T, Long> orderIdOf) {
+        List<FlashSale> queued = quantities.keySet().stream()
+                .map(sales::get)
+                .filter(sale -> sale != null)
+                .sorted(Comparator.comparing(sale -> sale.productId))
+                .toList();
+        if (queued.isEmpty()) {
+            return action.get();
+        }
+        for (FlashSale sale : queued) {
+            if (sale.allocationLeft.get() <= 0) {
+                throw soldOut(sale);
+            }
+        }
+
+        waitForSlots(queued);
+        T result = action.get();
+        Long orderId = orderIdOf.apply(result);
+        queued.forEach(sale -> {
+            sale.admitted.incrementAndGet();
+            flashCarts.computeIfAbsent(orderId, id -> ConcurrentHashMap.newKeySet()).add(sale.productId);
+        });
+        return result;
+    }
+
+    /**
+     * Takes units of a product's allocation for a cart reservation. Inside a transaction they come back
+     * if it rolls back. Products not on flash sale always succeed.
+     *
+     * @return whether the allocation covered the quantity
+     */
+    public boolean take(Long productId, int quantity) {
+        FlashSale sale = sales.get(productId);
+        if (sale == null || quantity <= 0) {
+            return true;
+        }
+        if (!sale.claim(quantity)) {
+            sale.soldOut.incrementAndGet();
+            return false;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        sale.allocationLeft.addAndGet(quantity);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Gives units a cart no longer holds back to the product's allocation, once the current transaction
+     * has committed. Products not on flash sale are ignored.
+     */
+    public void giveBack(Long productId, int quantity) {
+        FlashSale sale = sales.get(productId);
+        if (sale == null || quantity <= 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    sale.allocationLeft.addAndGet(quantity);
+                }
+            });
+        } else {
+            sale.allocationLeft.addAndGet(quantity);
+        }
+    }
+
+    /** Runs the checkout of a cart once it is admitted; carts without flash-sale products pass straight through. */
+    public <T> T admitToCheckout(Long orderId, Supplier<T> action) {
+        Set<Long> productIds = flashCarts.get(orderId);
+        List<FlashSale> queued = (productIds == null) ? List.of() : productIds.stream()
+                .map(sales::get)
+                .filter(sale -> sale != null)
+                .sorted(Comparator.comparing(sale -> sale.productId))
+                .toList();
+        if (!queued.isEmpty()) {
+            waitForSlots(queued);
+        }
+        T result = action.get();
+        queued.forEach(sale -> sale.admitted.incrementAndGet());
+        flashCarts.remove(orderId);
+        return result;
+    }
+
+    private void waitForSlots(Collection<FlashSale> queued) {
+        long now = System.nanoTime();
+        long longestWait = 0;
+        for (FlashSale sale : queued) {
+            long wait = sale.book(now, maxWaitNanos);
+            if (wait < 0) {
+                sale.queueFull.incrementAndGet();
+                long retryAfter = Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(maxWaitNanos));
+                throw new TooManyRequestsException("Flash sale of product ID " + sale.productId
+                        + " is busy. Please try again in " + retryAfter + " s.", retryAfter);
+            }
+            longestWait = Math.max(longestWait, wait);
+        }
+        long admitAt = now + longestWait;
+
+        queued.forEach(sale -> sale.waiting.incrementAndGet());
+        try {
+            long wait;
+            while ((wait = admitAt - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting in the flash sale queue");
+        } finally {
+            queued.forEach(sale -> sale.waiting.decrementAndGet());
+        }
+    }
+
+    private static IllegalStateException soldOut(FlashSale sale) {
+        sale.soldOut.incrementAndGet();
+        return new IllegalStateException("Product ID " + sale.productId + " is sold out.");
+    }
+
+    private static final class FlashSale {
+        private final Long productId;
+        private final AtomicInteger allocationLeft = new AtomicInteger();
+        private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong soldOut = new AtomicLong();
+        private final AtomicLong queueFull = new AtomicLong();
+        private volatile double ratePerSecond;
+        private volatile long intervalNanos;
+
+        private FlashSale(Long productId) {
+            this.productId = productId;
+        }
+
+        /**
+         * Books the next free slot of the queue.
+         *
+         * @return nanoseconds from {@code now} until the slot starts, or -1 if that is longer than maxWait;
+         *         an offset rather than a {@link System#nanoTime()} value, which may itself be negative
+         */
+        private long book(long now, long maxWaitNanos) {
+            while (true) {
+                long next = nextSlot.get();
+                // An idle queue does not bank slots: a burst after a quiet spell is still let in at the rate.
+                long wait = Math.max(next - now, 0L);
+                if (wait > maxWaitNanos) {
+                    return -1;
+                }
+                if (nextSlot.compareAndSet(next, now + wait + intervalNanos)) {
+                    return wait;
+                }
+            }
+        }
+
+        private boolean claim(int quantity) {
+            while (true) {
+                int left = allocationLeft.get();
+                if (left < quantity || left <= 0) {
+                    return false;
+                }
+                if (allocationLeft.compareAndSet(left, left - quantity)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import cz.cvut.fit.tjv.online_store.domain.IdempotencyRecord;
+import cz.cvut.fit.tjv.online_store.exception.ConflictException;
+import cz.cvut.fit.tjv.online_store.repository.IdempotencyRecordRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a request at most once per {@code Idempotency-Key}. The first request with a key claims it, runs, and stores
+ * its response for {@code online-store.idempotency.ttl-ms}; repeats get that response back without running again.
+ * A repeat that comes while the first is still running waits for it. A request that fails gives its key up,
+ * so the client's retry runs again.
+ * <p>
+ * A running request holds its key as a lease: its node renews the claim every
+ * {@code online-store.idempotency.renew-interval-ms}, however long the request waits in a queue or for a retry.
+ * Only a claim left without renewal for {@code online-store.idempotency.stale-ms}, because its node is gone,
+ * is taken over by a repeat; a claim of a request still running on the same node never is.
+ */
+@Service
+public class IdempotencyService {
+    static final int MAX_KEY_LENGTH = 255;
+    private static final long POLL_MILLIS = 20;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final ObjectMapper smileMapper;
+    private final ObjectWriter hashWriter;
+    private final long ttlMillis;
+    private final long waitMillis;
+    private final long staleMillis;
+    // Requests running on this node, so local repeats are woken up as soon as they finish.
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> running = new ConcurrentHashMap<>();
+
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              ObjectMapper objectMapper,
+                              @Value("${online-store.idempotency.ttl-ms:86400000}") long ttlMillis,
+                              @Value("${online-store.idempotency.wait-ms:30000}") long waitMillis,
+                              @Value("${online-store.idempotency.stale-ms:120000}") long staleMillis,
+                              @Value("${online-store.idempotency.renew-interval-ms:30000}") long renewMillis) {
+        if (ttlMillis <= 0 || waitMillis < 0 || staleMillis <= 0) {
+            throw new IllegalArgumentException("Idempotency TTL and stale time must be positive, wait time not negative");
+        }
+        if (renewMillis <= 0 || renewMillis >= staleMillis) {
+            throw new IllegalArgumentException("Idempotency renew interval must be positive and below the stale time");
+        }
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.smileMapper = objectMapper.copyWith(new SmileFactory());
+        this.hashWriter = objectMapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        this.ttlMillis = ttlMillis;
+        this.waitMillis = waitMillis;
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * Runs the action once for the key, or returns the response stored for it. Without a key the action simply runs.
+     *
+     * @param scope   operation and caller the key belongs to, so different callers cannot collide
+     * @param request what the response depends on; a key repeated with a different request is rejected
+     */
+    public <T> T execute(String scope, String key, Object request, Class<T> responseType, Supplier<T> action) {
+        if (key == null) {
+            return action.get();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must have 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        String recordKey = scope + ":" + key;
+        byte[] requestHash = hash(request);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+
+        while (true) {
+            Instant now = Instant.now();
+            if (idempotencyRecordRepository.claim(recordKey, requestHash, now, now.plusMillis(ttlMillis))) {
+                return runClaimed(recordKey, action);
+            }
+            Optional<IdempotencyRecord> found = idempotencyRecordRepository.findByKey(recordKey);
+            if (found.isEmpty()) {
+                continue;
+            }
+            IdempotencyRecord record = found.get();
+            if (!Arrays.equals(record.getRequestHash(), requestHash)) {
+                throw new IllegalArgumentException("Idempotency-Key " + key + " was already used for a different request");
+            }
+            boolean abandoned = record.getResponse() == null
+                    && record.getCreatedAt().isBefore(now.minusMillis(staleMillis))
+                    && !running.containsKey(recordKey);
+            if (record.getExpiresAt().isBefore(now) || abandoned) {
+                idempotencyRecordRepository.delete(recordKey, record.getCreatedAt());
+                continue;
+            }
+            if (record.getResponse() != null) {
+                return read(record.getResponse(), responseType);
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new ConflictException("A request with Idempotency-Key " + key + " is still in progress");
+            }
+            awaitRunning(recordKey);
+        }
+    }
+
+    /**
+     * Renews the claims of the requests running on this node, so that repeats do not take them for abandoned.
+     *
+     * @return the number of claims renewed
+     */
+    @Scheduled(initialDelayString = "${online-store.idempotency.renew-interval-ms:30000}",
+            fixedDelayString = "${online-store.idempotency.renew-interval-ms:30000}")
+    public int renewRunning() {
+        List<String> keys = List.copyOf(running.keySet());
+        return keys.isEmpty() ? 0 : idempotencyRecordRepository.renew(keys, Instant.now());
+    }
+
+    /**
+     * Deletes expired records, a batch at a time.
+     *
+     * @return the number of records deleted
+     */
+    @Scheduled(initialDelayString = "${online-store.idempotency.purge-interval-ms:600000}",
+            fixedDelayString = "${online-store.idempotency.purge-interval-ms:600000}")
+    public int purgeExpired() {
+        Instant now = Instant.now();
+        int purged = 0;
+        int deleted;
+        do {
+            deleted = idempotencyRecordRepository.deleteExpired(now, PURGE_BATCH_SIZE);
+            purged += deleted;
+        } while (deleted == PURGE_BATCH_SIZE);
+        return purged;
+    }
+
+    private <T> T runClaimed(String recordKey, Supplier<T> action) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        running.put(recordKey, done);
+        try {
+            T response = action.get();
+            idempotencyRecordRepository.complete(recordKey, write(response));
+            return response;
+        } catch (RuntimeException e) {
+            idempotencyRecordRepository.delete(recordKey);
+            throw e;
+        } finally {
+            running.remove(recordKey, done);
+            done.complete(null);
+        }
+    }
+
+    private void awaitRunning(String recordKey) {
+        CompletableFuture<Void> local = running.get(recordKey);
+        try {
+            if (local != null) {
+                local.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                // Running on another node: poll.
+                Thread.sleep(POLL_MILLIS);
+            }
+        } catch (TimeoutException | ExecutionException e) {
+            // Looked at again on the next round.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a request with the same Idempotency-Key", e);
+        }
+    }
+
+    private byte[] hash(Object request) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(hashWriter.writeValueAsBytes(request));
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Cannot hash the request", e);
+        }
+    }
+
+    private byte[] write(Object response) {
+        try {
+            return smileMapper.writeValueAsBytes(response);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot store the response", e);
+        }
+    }
+
+    private <T> T read(byte[] response, Class<T> responseType) {
+        try {
+            return smileMapper.readValue(response, responseType);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the stored response", e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.RetryStatsDto;
+import cz.cvut.fit.tjv.online_store.exception.ConflictException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs a read-modify-write in its own transaction and starts it over when another request changed the same
+ * rows first, as detected by their {@code @Version} columns. Attempts back off with full jitter, and every retry
+ * is paid from a budget that each call tops up by a fraction, so a burst of conflicts cannot become a retry storm.
+ * Inside a transaction that is already running the action runs once: only the caller that owns it can start over.
+ */
+@Component
+public class OptimisticRetry {
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double budgetPerCall;
+    private final double budgetCap;
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+
+    private double budget; // guarded by this
+
+    public OptimisticRetry(TransactionTemplate transactionTemplate,
+                           @Value("${online-store.retry.max-attempts:4}") int maxAttempts,
+                           @Value("${online-store.retry.base-backoff-ms:5}") long baseBackoffMillis,
+                           @Value("${online-store.retry.max-backoff-ms:200}") long maxBackoffMillis,
+                           @Value("${online-store.retry.budget-per-call:0.2}") double budgetPerCall,
+                           @Value("${online-store.retry.budget-cap:50}") double budgetCap) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Retry max attempts must be positive");
+        }
+        if (baseBackoffMillis < 0 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("Retry backoff must satisfy 0 <= base <= max");
+        }
+        if (budgetPerCall < 0 || budgetCap < 0) {
+            throw new IllegalArgumentException("Retry budget must not be negative");
+        }
+        this.transactionTemplate = transactionTemplate;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.budgetPerCall = budgetPerCall;
+        this.budgetCap = budgetCap;
+        this.budget = budgetCap;
+    }
+
+    /**
+     * @param operation name the conflicts are counted under, e.g. {@code OrderService.updateStatus}
+     * @throws ConflictException when the action still conflicts after the last attempt or the budget is spent
+     */
+    public <T> T run(String operation, Supplier<T> action) {
+        Counters c = counters.computeIfAbsent(operation, name -> new Counters());
+        c.calls.incrementAndGet();
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return action.get();
+        }
+        deposit();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> action.get());
+            } catch (OptimisticLockingFailureException e) {
+                c.conflicts.incrementAndGet();
+                if (attempt >= maxAttempts) {
+                    c.exhausted.incrementAndGet();
+                    throw conflict();
+                }
+                if (!withdraw()) {
+                    c.budgetDenied.incrementAndGet();
+                    throw conflict();
+                }
+                c.retries.incrementAndGet();
+                backOff(attempt);
+            }
+        }
+    }
+
+    public List<RetryStatsDto> stats() {
+        return counters.entrySet().stream()
+                .map(e -> new RetryStatsDto(e.getKey(), e.getValue().calls.get(), e.getValue().conflicts.get(),
+                        e.getValue().retries.get(), e.getValue().exhausted.get(), e.getValue().budgetDenied.get()))
+                .sorted(Comparator.comparing(RetryStatsDto::getOperation))
+                .toList();
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(budgetCap, budget + budgetPerCall);
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1.0) {
+            return false;
+        }
+        budget -= 1.0;
+        return true;
+    }
+
+    // Full jitter: a random wait up to the exponential bound, so conflicting callers do not collide again in step.
+    private void backOff(int attempt) {
+        long bound = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        long millis = ThreadLocalRandom.current().nextLong(bound + 1);
+        if (millis == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict();
+        }
+    }
+
+    private static ConflictException conflict() {
+        return new ConflictException("The data was changed by another request at the same time. Please try again.");
+    }
+
+    private static final class Counters {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong conflicts = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong exhausted = new AtomicLong();
+        private final AtomicLong budgetDenied = new AtomicLong();
+    }
+}
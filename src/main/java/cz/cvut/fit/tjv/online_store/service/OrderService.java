@@ -5,8 +5,18 @@ import cz.cvut.fit.tjv.online_store.domain.*;
 import cz.cvut.fit.tjv.online_store.repository.BonusCardRepository;
 import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
 import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductStockRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductStockShardRepository;
+import cz.cvut.fit.tjv.online_store.repository.SparseFieldRepository;
+import cz.cvut.fit.tjv.online_store.repository.StockDecrement;
 import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductCatalogCache;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductChangedEvent;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductPriceTable;
 import cz.cvut.fit.tjv.online_store.service.mapper.OrderMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -18,33 +28,96 @@ import java.util.stream.StreamSupport;
 
 @Service
 public class OrderService {
+    /** Fields selectable with {@code ?fields=}; order lines have no column and are loaded only when requested. */
+    static final Map<String, String> FIELDS = SparseFields.paths(
+            "id", "id",
+            "userId", "user.id",
+            "dateOfCreation", "dateOfCreation",
+            "totalCost", "totalCost",
+            "status", "status",
+            "bonusPointsUsed", "bonusPointsUsed",
+            "requestedQuantities", null);
+
+    private static final String ANOTHER_DRAFT =
+            "User already has another DRAFT order. Cannot have two DRAFT orders at once.";
+
     private final OrderRepository orderRepository;
     private final UserRepository userRepository;
     private final BonusCardRepository bonusCardRepository;
     private final ProductRepository productRepository;
+    private final ProductStockRepository productStockRepository;
+    private final ProductStockShardRepository productStockShardRepository;
+    private final StockReservationService stockReservationService;
     private final OrderMapper orderMapper;
     private final BonusCardService bonusCardService;
+    private final ProductCatalogCache productCatalogCache;
+    private final ProductPriceTable productPriceTable;
+    private final ApplicationEventPublisher eventPublisher;
+    private final SparseFieldRepository sparseFieldRepository;
+    private final OptimisticRetry optimisticRetry;
+    private final FlashSaleGate flashSaleGate;
+    private final CheckoutPipeline checkoutPipeline;
+    private final CheckoutLocking checkoutLocking;
 
     public OrderService(
             OrderRepository orderRepository,
             UserRepository userRepository,
             BonusCardRepository bonusCardRepository,
             ProductRepository productRepository,
+            ProductStockRepository productStockRepository,
+            ProductStockShardRepository productStockShardRepository,
+            StockReservationService stockReservationService,
             OrderMapper orderMapper,
-            BonusCardService bonusCardService
+            BonusCardService bonusCardService,
+            ProductCatalogCache productCatalogCache,
+            ProductPriceTable productPriceTable,
+            ApplicationEventPublisher eventPublisher,
+            SparseFieldRepository sparseFieldRepository,
+            OptimisticRetry optimisticRetry,
+            FlashSaleGate flashSaleGate,
+            CheckoutPipeline checkoutPipeline,
+            @Value("${online-store.checkout.locking:conditional}") CheckoutLocking checkoutLocking
     ) {
         this.orderRepository = orderRepository;
         this.userRepository = userRepository;
         this.bonusCardRepository = bonusCardRepository;
         this.productRepository = productRepository;
+        this.productStockRepository = productStockRepository;
+        this.productStockShardRepository = productStockShardRepository;
+        this.stockReservationService = stockReservationService;
         this.orderMapper = orderMapper;
         this.bonusCardService = bonusCardService;
+        this.productCatalogCache = productCatalogCache;
+        this.productPriceTable = productPriceTable;
+        this.eventPublisher = eventPublisher;
+        this.sparseFieldRepository = sparseFieldRepository;
+        this.optimisticRetry = optimisticRetry;
+        this.flashSaleGate = flashSaleGate;
+        this.checkoutPipeline = checkoutPipeline;
+        this.checkoutLocking = checkoutLocking;
     }
 
 
+    /**
+     * Creates a DRAFT order or replaces the lines of one. The order then holds reservations for exactly the
+     * quantities it asks for, like add-to-cart: lines it no longer has are released, and the save fails
+     * if the stock other carts leave does not cover it.
+     */
     public OrderDto save(OrderDto orderDto) {
         validateOrderDto(orderDto);
+        Map<Long, Integer> requested = (orderDto.getRequestedQuantities() != null)
+                ? orderDto.getRequestedQuantities()
+                : Map.of();
+        try {
+            return flashSaleGate.admitToCart(requested,
+                    () -> optimisticRetry.run("OrderService.save", () -> saveDraft(orderDto)),
+                    OrderDto::getId);
+        } catch (DataIntegrityViolationException e) {
+            throw new IllegalStateException(ANOTHER_DRAFT, e);
+        }
+    }
 
+    private OrderDto saveDraft(OrderDto orderDto) {
         User user = userRepository.findById(orderDto.getUserId())
                 .orElseThrow(() -> new IllegalArgumentException(
                         "User not found with ID: " + orderDto.getUserId()));
@@ -62,8 +135,15 @@ public class OrderService {
             if (order == null) {
                 throw new IllegalStateException("Failed to map OrderDto to Order.");
             }
+            if (existingOrder != null) {
+                // The draft replaces the existing row, so it has to carry that row's version.
+                order.setVersion(existingOrder.getVersion());
+            } else {
+                order.setId(null);
+            }
             order.setUser(user);
             order.setStatus(OrderStatus.DRAFT);
+            order.setUnitPrices(new HashMap<>());
             order.setDateOfCreation(LocalDate.now());
             order.setRequestedQuantities(
                     (orderDto.getRequestedQuantities() != null)
@@ -71,49 +151,92 @@ public class OrderService {
                             : new HashMap<>()
             );
         }
-        checkAgeRestrictions(order);
-        double hypotheticalCost = calculateTotalCost(order);
+        Map<Long, Product> products = loadProductsMissingFromPriceTable(order.getRequestedQuantities().keySet());
+        checkAgeRestrictions(order, products);
+        double hypotheticalCost = calculateTotalCost(order, products);
         order.setTotalCost(hypotheticalCost);
 
         Order saved = orderRepository.save(order);
+        Map<Long, Integer> heldByCart = stockReservationService.lockReservedBy(saved.getId(),
+                saved.getRequestedQuantities().keySet());
+        Map<Long, Integer> wanted = new HashMap<>(saved.getRequestedQuantities());
+        heldByCart.keySet().forEach(productId -> wanted.putIfAbsent(productId, 0));
+        List<Long> unavailable = stockReservationService.reserve(saved.getId(), heldByCart, wanted);
+        if (!unavailable.isEmpty()) {
+            throw new IllegalStateException("Not enough stock left to reserve product IDs: " + unavailable);
+        }
         return orderMapper.convertToDto(saved);
     }
 
 
 
     public OrderDto updateStatus(Long orderId, OrderStatus newStatus) {
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new IllegalArgumentException(
-                        "Order not found with ID: " + orderId));
+        StatusUpdate update = (newStatus == OrderStatus.PROCESSING)
+                ? flashSaleGate.admitToCheckout(orderId, () -> checkoutPipeline.submit("OrderService.updateStatus",
+                        () -> checkoutProductIds(orderId), () -> applyStatus(orderId, newStatus)))
+                : updateOutsideCheckout(orderId, newStatus);
+        // A clamped order is confirmed with what is left; the caller is told which lines were cut.
+        if (!update.clampWarnings().isEmpty()) {
+            throw new IllegalArgumentException("Warnings: " + update.clampWarnings());
+        }
+        return update.order();
+    }
 
-        if (newStatus == OrderStatus.DRAFT && order.getStatus() != OrderStatus.DRAFT) {
-            boolean alreadyHasDraft = orderRepository.existsByUserIdAndStatusIn(
-                    order.getUser().getId(),
-                    List.of(OrderStatus.DRAFT)
-            );
-            if (alreadyHasDraft) {
-                List<Order> allDrafts = orderRepository.findByUserIdAndStatusIn(
-                        order.getUser().getId(),
-                        List.of(OrderStatus.DRAFT)
-                );
-                boolean hasAnotherDraft = allDrafts.stream()
-                        .anyMatch(d -> !d.getId().equals(orderId));
-                if (hasAnotherDraft) {
-                    throw new IllegalStateException(
-                            "User already has another DRAFT order. Cannot have two DRAFT orders at once."
-                    );
-                }
+    // A user may have one DRAFT order; uk_orders_user_draft turns a second one away when the order is written.
+    private StatusUpdate updateOutsideCheckout(Long orderId, OrderStatus newStatus) {
+        try {
+            return optimisticRetry.run("OrderService.updateStatus", () -> applyStatus(orderId, newStatus));
+        } catch (DataIntegrityViolationException e) {
+            if (newStatus != OrderStatus.DRAFT) {
+                throw e;
             }
+            throw new IllegalStateException(ANOTHER_DRAFT, e);
         }
+    }
+
+    private record StatusUpdate(OrderDto order, List<String> clampWarnings) {
+    }
+
+    /** Products a checkout of the order will take stock of; none if the order is gone, which the checkout reports. */
+    private Collection<Long> checkoutProductIds(Long orderId) {
+        return orderRepository.findById(orderId)
+                .map(order -> order.getRequestedQuantities().keySet())
+                .orElse(Set.of());
+    }
+
+    private StatusUpdate applyStatus(Long orderId, OrderStatus newStatus) {
+        Order order = orderRepository.findById(orderId)
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Order not found with ID: " + orderId));
 
         OrderStatus oldStatus = order.getStatus();
         order.setStatus(newStatus);
+        List<String> clampWarnings = List.of();
+        boolean checkout = oldStatus != OrderStatus.PROCESSING && newStatus == OrderStatus.PROCESSING;
+        Map<Long, Product> products = Map.of();
+        if (checkout) {
+            // One snapshot of the products is shared by all checkout stages; stock is taken in one batch.
+            // Their rows are locked before any reservation is released, in the order carts lock them in.
+            products = loadProductsForCheckout(order.getRequestedQuantities().keySet());
+        }
+        Map<Long, Integer> heldByCart = Map.of();
+        if (oldStatus == OrderStatus.DRAFT && newStatus == OrderStatus.PROCESSING) {
+            // Released first, so at checkout the order competes only with what other carts hold.
+            heldByCart = stockReservationService.releaseForCheckout(orderId);
+        } else if (oldStatus == OrderStatus.DRAFT && newStatus != OrderStatus.DRAFT) {
+            stockReservationService.release(orderId);
+        }
 
-        if (oldStatus != OrderStatus.PROCESSING && newStatus == OrderStatus.PROCESSING) {
-            checkAgeRestrictions(order);
-            List<String> clampWarnings = clampRequestedQuantities(order);
-            subtractStockForFinalConfirm(order);
-            double finalCost = calculateTotalCost(order);
+        if (checkout) {
+            checkAgeRestrictions(order, products);
+            clampWarnings = clampRequestedQuantities(order, products);
+            // Flash-sale units the cart held but does not buy, e.g. because its line was clamped, go back.
+            Map<Long, Integer> bought = order.getRequestedQuantities();
+            heldByCart.forEach((productId, held) ->
+                    flashSaleGate.giveBack(productId, held - bought.getOrDefault(productId, 0)));
+            subtractStockForFinalConfirm(order, products);
+            recordUnitPrices(order, products);
+            double finalCost = calculateRecordedTotalCost(order);
             order.setTotalCost(finalCost);
             BonusCard bonusCard = bonusCardRepository.findByUserId(order.getUser().getId())
                     .orElse(null);
@@ -122,63 +245,99 @@ public class OrderService {
                 double cashback = order.getTotalCost() * 0.05;
                 bonusCardService.addBalance(bonusCard.getId(), cashback);
             }
-
-            if (!clampWarnings.isEmpty()) {
-               throw new IllegalArgumentException("Warnings: " + clampWarnings);
-            }
         }
 
         Order saved = orderRepository.save(order);
-        return orderMapper.convertToDto(saved);
+        return new StatusUpdate(orderMapper.convertToDto(saved), clampWarnings);
     }
 
-    private void checkAgeRestrictions(Order order) {
-        LocalDate birthDate = order.getUser().getBirthDate();
+    private void checkAgeRestrictions(Order order, Map<Long, Product> products) {
+        checkAgeRestrictions(order.getUser(), order.getRequestedQuantities().keySet(), products);
+    }
+
+    private void checkAgeRestrictions(User user, Collection<Long> productIds, Map<Long, Product> products) {
+        LocalDate birthDate = user.getBirthDate();
         int userAge = 0;
         if (birthDate != null) {
             userAge = Period.between(birthDate, LocalDate.now()).getYears();
         }
 
-        for (Map.Entry<Long, Integer> e : order.getRequestedQuantities().entrySet()) {
-            Product p = productRepository.findById(e.getKey())
-                    .orElseThrow(() -> new IllegalArgumentException(
-                            "Product not found with ID: " + e.getKey()));
+        for (Long productId : productIds) {
+            int allowedAge = productPriceTable.allowedAge(productId);
+            if (allowedAge == ProductPriceTable.NOT_PRESENT) {
+                Integer entityAge = productFrom(products, productId).getAllowedAge();
+                allowedAge = (entityAge != null) ? entityAge : ProductPriceTable.NO_AGE_LIMIT;
+            }
 
-            if (p.getAllowedAge() != null && userAge < p.getAllowedAge()) {
+            if (allowedAge != ProductPriceTable.NO_AGE_LIMIT && userAge < allowedAge) {
                 throw new IllegalArgumentException(
-                        "User is too young to buy " + p.getName());
+                        "User is too young to buy " + productFrom(products, productId).getName());
             }
         }
     }
 
-    private List<String> clampRequestedQuantities(Order order) {
+    private List<String> clampRequestedQuantities(Order order, Map<Long, Product> products) {
         List<String> clampWarnings = new ArrayList<>();
+        Map<Long, Integer> shardedStock = shardedStock(products.values());
+        Map<Long, Integer> reservedStock = stockReservationService.reservedStock(products.keySet());
         for (Map.Entry<Long, Integer> e : order.getRequestedQuantities().entrySet()) {
-            Product p = productRepository.findById(e.getKey())
-                    .orElseThrow(() -> new IllegalArgumentException(
-                            "Product not found with ID: " + e.getKey()));
+            Product p = products.get(e.getKey());
             int requested = e.getValue();
-            if (requested > p.getQuantity()) {
+            // A product deleted after it was put into the cart can no longer be bought.
+            int available = p.isDeleted() ? 0 : availableStock(p, shardedStock, reservedStock, Map.of());
+            if (requested > available) {
                 clampWarnings.add("Clamped product '" + p.getName()
                         + "' from " + requested
-                        + " to " + p.getQuantity());
-                order.getRequestedQuantities().put(e.getKey(), p.getQuantity());
+                        + " to " + available);
+                order.getRequestedQuantities().put(e.getKey(), available);
             }
         }
         return clampWarnings;
     }
 
-    private void subtractStockForFinalConfirm(Order order) {
-        for (Map.Entry<Long, Integer> e : order.getRequestedQuantities().entrySet()) {
-            int qty = e.getValue();
-            if (qty <= 0) continue;
-
-            Product p = productRepository.findById(e.getKey())
-                    .orElseThrow(() -> new IllegalArgumentException(
-                            "Product not found with ID: " + e.getKey()));
-            p.setQuantity(p.getQuantity() - qty);
-            productRepository.save(p);
+    /**
+     * Takes the order off stock with one guarded UPDATE per line, sent as a single batch. The clamp above works on
+     * a snapshot that a concurrent checkout may already have outdated; the database has the final word, and if any
+     * line can no longer be fulfilled nothing is taken off stock.
+     */
+    private void subtractStockForFinalConfirm(Order order, Map<Long, Product> products) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        Map<Long, Integer> stockShards = new HashMap<>();
+        order.getRequestedQuantities().forEach((productId, qty) -> {
+            if (qty > 0) {
+                quantities.put(productId, qty);
+                Product p = products.get(productId);
+                if (p.isSharded()) {
+                    stockShards.put(productId, p.getStockShards());
+                }
+            }
+        });
+        if (quantities.isEmpty()) {
+            return;
         }
+        List<StockDecrement> results = productStockRepository.decrementAll(quantities, stockShards);
+        // The batch went around the persistence context. A later checkout in the same transaction, as in a
+        // CheckoutPipeline group, must read the stock from the database again, not from these entities.
+        productRepository.detachAll(results.stream().map(result -> products.get(result.productId())).toList());
+
+        List<String> unfulfilled = results.stream()
+                .filter(result -> !result.fulfilled())
+                .map(result -> products.get(result.productId()).getName() + " (" + result.quantity() + " requested)")
+                .toList();
+        if (!unfulfilled.isEmpty()) {
+            throw new IllegalStateException("Not enough stock left for: " + String.join(", ", unfulfilled));
+        }
+
+        // The loaded entities still hold the old stock; listeners get copies with what the database now holds.
+        List<Product> changed = results.stream()
+                .map(result -> {
+                    Product p = products.get(result.productId());
+                    return new Product(p.getId(), p.getName(), p.getPrice(), result.remaining(),
+                            p.getIsRestricted(), p.getAllowedAge(), result.changeSeq(), p.getSyncSeq(), p.getActive(),
+                            p.getVersion(), p.getStockShards());
+                })
+                .toList();
+        eventPublisher.publishEvent(ProductChangedEvent.changed(changed));
     }
 
     private void handleBonusUsage(Order order, BonusCard bonusCard) {
@@ -215,7 +374,6 @@ public class OrderService {
                 order.setTotalCost(newCost);
             }
         }
-        System.out.println(order.getTotalCost());
     }
 
     private void mergeRequestedQuantities(Order existingOrder, Map<Long, Integer> newQuantities) {
@@ -233,17 +391,114 @@ public class OrderService {
         existingOrder.setRequestedQuantities(existing);
     }
 
-    private double calculateTotalCost(Order order) {
+    private double calculateTotalCost(Order order, Map<Long, Product> products) {
         return order.getRequestedQuantities().entrySet().stream()
-                .mapToDouble(e -> {
-                    Product product = productRepository.findById(e.getKey())
-                            .orElseThrow(() -> new IllegalArgumentException(
-                                    "Product not found with ID: " + e.getKey()));
-                    return product.getPrice() * e.getValue();
-                })
+                .mapToDouble(e -> priceOf(e.getKey(), products) * e.getValue())
+                .sum();
+    }
+
+    /**
+     * Stores the unit price every line is charged at, so reports read it from the order
+     * instead of re-deriving it from the price history.
+     */
+    private void recordUnitPrices(Order order, Map<Long, Product> products) {
+        Map<Long, Double> unitPrices = new HashMap<>();
+        order.getRequestedQuantities().forEach((productId, quantity) -> {
+            if (quantity > 0) {
+                unitPrices.put(productId, priceOf(productId, products));
+            }
+        });
+        order.setUnitPrices(unitPrices);
+    }
+
+    private double calculateRecordedTotalCost(Order order) {
+        return order.getUnitPrices().entrySet().stream()
+                .mapToDouble(e -> e.getValue() * order.getRequestedQuantities().get(e.getKey()))
                 .sum();
     }
 
+    private double priceOf(Long productId, Map<Long, Product> products) {
+        double price = productPriceTable.price(productId);
+        return !Double.isNaN(price) ? price : productFrom(products, productId).getPrice();
+    }
+
+    /**
+     * Returns a product of the operation, loading it if it was expected in the price table
+     * but has left it in the meantime.
+     */
+    private Product productFrom(Map<Long, Product> products, Long productId) {
+        return products.computeIfAbsent(productId, id -> loadProducts(List.of(id)).get(id));
+    }
+
+    /**
+     * Loads every product of an operation in one go: cached products are reused,
+     * the rest comes from a single findAllById.
+     */
+    private Map<Long, Product> loadProducts(Collection<Long> productIds) {
+        Map<Long, Product> products = productCatalogCache.getAll(productIds, productRepository::findAllById);
+        requireAllLoaded(productIds, products);
+        return products;
+    }
+
+    /**
+     * Pricing variant of {@link #loadProducts}: products held by the off-heap price table
+     * are priced and age-checked from there, so only the others are loaded.
+     */
+    private Map<Long, Product> loadProductsMissingFromPriceTable(Collection<Long> productIds) {
+        List<Long> missing = productIds.stream()
+                .filter(id -> !productPriceTable.contains(id))
+                .toList();
+        return missing.isEmpty() ? new HashMap<>() : new HashMap<>(loadProducts(missing));
+    }
+
+    /**
+     * Checkout variant of {@link #loadProducts}: reads the products straight from the database, because their
+     * stock is about to be decremented. The rows stay locked until the checkout commits, so the clamp sees the
+     * stock that will actually be taken; those of sharded products only in {@link CheckoutLocking#PESSIMISTIC} mode.
+     */
+    private Map<Long, Product> loadProductsForCheckout(Collection<Long> productIds) {
+        Map<Long, Product> products = new HashMap<>();
+        Iterable<Product> loaded;
+        if (checkoutLocking == CheckoutLocking.PESSIMISTIC && !productIds.isEmpty()) {
+            loaded = productRepository.findByIdInOrderByIdAsc(productIds);
+        } else {
+            productStockRepository.lockForCheckout(productIds);
+            loaded = productRepository.findAllById(productIds);
+        }
+        loaded.forEach(p -> products.put(p.getId(), p));
+        requireAllLoaded(productIds, products);
+        return products;
+    }
+
+    /**
+     * Stock of the sharded products among the given ones, summed over their shards.
+     * Costs a query only if one of them is sharded.
+     */
+    private Map<Long, Integer> shardedStock(Collection<Product> products) {
+        List<Long> sharded = products.stream().filter(Product::isSharded).map(Product::getId).toList();
+        return sharded.isEmpty() ? Map.of() : productStockShardRepository.findShardedStock(sharded);
+    }
+
+    private static int stockOf(Product product, Map<Long, Integer> shardedStock) {
+        return product.isSharded() ? shardedStock.getOrDefault(product.getId(), 0) : product.getQuantity();
+    }
+
+    /** Stock an order can get: what is left after the reservations of other carts. */
+    private static int availableStock(Product product, Map<Long, Integer> shardedStock,
+                                      Map<Long, Integer> reservedStock, Map<Long, Integer> heldByOrder) {
+        int reservedByOthers = reservedStock.getOrDefault(product.getId(), 0)
+                - heldByOrder.getOrDefault(product.getId(), 0);
+        return Math.max(stockOf(product, shardedStock) - reservedByOthers, 0);
+    }
+
+    private void requireAllLoaded(Collection<Long> productIds, Map<Long, Product> products) {
+        for (Long productId : productIds) {
+            if (!products.containsKey(productId)) {
+                throw new IllegalArgumentException("Product not found with ID: " + productId);
+            }
+        }
+    }
+
     private void validateOrderDto(OrderDto dto) {
         if (dto.getStatus() == null) {
             dto.setStatus(OrderStatus.DRAFT);
@@ -258,6 +513,21 @@ public class OrderService {
         return orderMapper.convertManyToDto(orders);
     }
 
+    public List<Map<String, Object>> findAllFields(String fields) {
+        SparseFields selected = SparseFields.parse(fields, FIELDS);
+        List<Map<String, Object>> rows = sparseFieldRepository.findAll(Order.class, selected.columnsIncluding("id"));
+
+        if (selected.contains("requestedQuantities") && !rows.isEmpty()) {
+            Map<Long, Map<Long, Integer>> linesByOrder = new HashMap<>();
+            List<Long> orderIds = rows.stream().map(row -> (Long) row.get("id")).toList();
+            for (Object[] line : orderRepository.findRequestedQuantities(orderIds)) {
+                linesByOrder.computeIfAbsent((Long) line[0], id -> new HashMap<>()).put((Long) line[1], (Integer) line[2]);
+            }
+            rows.forEach(row -> row.put("requestedQuantities", linesByOrder.getOrDefault((Long) row.get("id"), Map.of())));
+        }
+        return selected.strip(rows);
+    }
+
     public OrderDto findById(Long id) {
         Order order = orderRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Order not found"));
@@ -268,7 +538,9 @@ public class OrderService {
         if (!orderRepository.existsById(id)) {
             throw new IllegalArgumentException("Order not found");
         }
+        stockReservationService.release(id);
         orderRepository.deleteById(id);
+        flashSaleGate.forget(id);
     }
 
     public Optional<OrderDto> findUserDraftOrder(Long userId) {
@@ -281,31 +553,81 @@ public class OrderService {
         return orderMapper.convertManyToDto(orders);
     }
 
+    /**
+     * Returns the user's DRAFT order, creating an empty one if there is none. The insert does nothing when a
+     * concurrent request has just created the draft, so both end up with the same order.
+     */
     @Transactional
     public OrderDto getOrCreateDraftOrder(Long userId) {
-        return findUserDraftOrder(userId).orElseGet(() -> {
-            OrderDto newDraft = new OrderDto();
-            newDraft.setUserId(userId);
-            newDraft.setStatus(OrderStatus.DRAFT);
-            newDraft.setRequestedQuantities(new HashMap<>());
-            return save(newDraft);
-        });
+        Optional<OrderDto> draft = findUserDraftOrder(userId);
+        if (draft.isPresent()) {
+            return draft.get();
+        }
+        try {
+            orderRepository.insertDraftIfAbsent(userId, LocalDate.now());
+        } catch (DataIntegrityViolationException e) {
+            throw new IllegalArgumentException("User not found with ID: " + userId, e);
+        }
+        return findUserDraftOrder(userId)
+                .orElseThrow(() -> new IllegalStateException("Draft order of user " + userId + " was not created."));
     }
 
 
+    /**
+     * Adds products to the DRAFT order of the user with the given email, creating the draft if there is none.
+     * Everything happens in one transaction that reads the draft with its lines and the added products once each,
+     * so the number of statements does not grow with the size of the cart.
+     */
+    public OrderDto addToCart(String email, Map<Long, Integer> productsToAdd) {
+        return flashSaleGate.admitToCart(productsToAdd,
+                () -> optimisticRetry.run("OrderService.addToCart", () -> addProducts(draftOf(email), productsToAdd)),
+                OrderDto::getId);
+    }
+
+    /**
+     * Adds products to a DRAFT order. Requests for flash-sale products first wait for their turn
+     * in {@link FlashSaleGate}, so only admitted ones reach the database.
+     */
     public OrderDto addProductsToOrder(Long orderId, Map<Long, Integer> productsToAdd) {
-        OrderDto draftOrderDto = findById(orderId);
-        if (draftOrderDto.getStatus() != OrderStatus.DRAFT) {
-            throw new IllegalStateException("Cannot add products unless order is DRAFT.");
+        return flashSaleGate.admitToCart(orderId, productsToAdd,
+                () -> optimisticRetry.run("OrderService.addProductsToOrder", () -> addProducts(
+                        orderRepository.findWithLinesById(orderId)
+                                .orElseThrow(() -> new IllegalArgumentException("Order not found")),
+                        productsToAdd)));
+    }
+
+    /** The user's DRAFT order with its lines; an empty one is created first if the user has none. */
+    private Order draftOf(String email) {
+        Optional<Order> draft = orderRepository.findWithLinesByUserEmailAndStatus(email, OrderStatus.DRAFT);
+        if (draft.isPresent()) {
+            return draft.get();
         }
+        User user = userRepository.findByEmail(email)
+                .orElseThrow(() -> new IllegalArgumentException("User not found"));
+        orderRepository.insertDraftIfAbsent(user.getId(), LocalDate.now());
+        return orderRepository.findWithLinesByUserEmailAndStatus(email, OrderStatus.DRAFT)
+                .orElseThrow(() -> new IllegalStateException("Draft order of user " + user.getId() + " was not created."));
+    }
 
-        Map<Long, Integer> lines = draftOrderDto.getRequestedQuantities();
-        if (lines == null) {
-            lines = new HashMap<>();
+    /**
+     * Applies the added quantities to a loaded draft. Only the added lines are checked, reserved and priced:
+     * the total moves by their difference, and Hibernate writes back just the lines that changed.
+     * The whole cart is priced again at checkout.
+     */
+    private OrderDto addProducts(Order order, Map<Long, Integer> productsToAdd) {
+        if (order.getStatus() != OrderStatus.DRAFT) {
+            throw new IllegalStateException("Cannot add products unless order is DRAFT.");
         }
+        Long orderId = order.getId();
+        Map<Long, Integer> lines = order.getRequestedQuantities();
 
         StringBuilder clampWarnings = new StringBuilder();
+        Map<Long, Product> products = loadProducts(productsToAdd.keySet());
+        Map<Long, Integer> shardedStock = shardedStock(products.values());
+        Map<Long, Integer> reservedStock = stockReservationService.reservedStock(productsToAdd.keySet());
+        Map<Long, Integer> heldByCart = stockReservationService.lockReservedBy(orderId, productsToAdd.keySet());
 
+        Map<Long, Integer> added = new HashMap<>();
         for (Map.Entry<Long, Integer> e : productsToAdd.entrySet()) {
             Long productId = e.getKey();
             int requestedQty = e.getValue();
@@ -313,37 +635,50 @@ public class OrderService {
                 throw new IllegalArgumentException(
                         "Quantity must be > 0 for product ID: " + productId);
             }
-            Product product = productRepository.findById(productId)
-                    .orElseThrow(() -> new IllegalArgumentException(
-                            "Product not found with ID: " + productId));
-            if (product.getQuantity() == 0) {
+            Product product = products.get(productId);
+            if (product.isDeleted()) {
+                throw new IllegalArgumentException("Product not found with ID: " + productId);
+            }
+            int stock = availableStock(product, shardedStock, reservedStock, heldByCart);
+            if (stock == 0) {
                 throw new IllegalArgumentException(
                         "Product '" + product.getName() + "' is out of stock.");
             }
-            int currentQtyInCart = lines.getOrDefault(productId, 0);
-            int newTotal = currentQtyInCart + requestedQty;
+            int newTotal = lines.getOrDefault(productId, 0) + requestedQty;
 
-            if (newTotal > product.getQuantity()) {
+            if (newTotal > stock) {
                 clampWarnings.append(
                         product.getName()
                 );
-                newTotal = product.getQuantity();
-            }
-
-           if (newTotal > 0) {
-                lines.put(productId, newTotal);
-            } else {
-                lines.remove(productId);
+                newTotal = stock;
             }
+            added.put(productId, newTotal);
         }
 
-        draftOrderDto.setRequestedQuantities(lines);
-    System.out.println("trying");
         if (!clampWarnings.isEmpty()) {
             throw new IllegalArgumentException("Some products are out of stock: " + clampWarnings + ". The Quantity will be set to the maximum we have.");
         }
+        checkAgeRestrictions(order.getUser(), added.keySet(), products);
+
+        List<Long> unavailable = stockReservationService.reserve(orderId, heldByCart, added);
+        if (!unavailable.isEmpty()) {
+            throw new IllegalStateException("Not enough stock left to reserve: " + unavailable.stream()
+                    .map(productId -> products.get(productId).getName())
+                    .collect(Collectors.joining(", ")));
+        }
+
+        double costDelta = 0.0;
+        for (Map.Entry<Long, Integer> line : added.entrySet()) {
+            int before = lines.getOrDefault(line.getKey(), 0);
+            if (line.getValue() != before) {
+                costDelta += priceOf(line.getKey(), products) * (line.getValue() - before);
+                lines.put(line.getKey(), line.getValue());
+            }
+        }
+        order.setTotalCost(order.getTotalCost() + costDelta);
 
-        return save(draftOrderDto);
+        Order saved = orderRepository.save(order);
+        return orderMapper.convertToDto(saved);
     }
 
     @Transactional
@@ -361,7 +696,8 @@ public class OrderService {
                     "Product ID " + productId + " not in cart.");
         }
         lines.remove(productId);
-        double cost = calculateTotalCost(order);
+        stockReservationService.release(orderId, productId);
+        double cost = calculateTotalCost(order, loadProductsMissingFromPriceTable(lines.keySet()));
         order.setTotalCost(cost);
 
         Order saved = orderRepository.save(order);
@@ -0,0 +1,58 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.repository.CatalogSyncRepository;
+import cz.cvut.fit.tjv.online_store.service.catalog.CatalogVersion;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+
+/**
+ * Gives committed catalog writes their delta-sync numbers. A write takes its changeSeq when its statement runs,
+ * not when it commits, so a transaction that commits late would leave a number behind that a client has already
+ * read past. The sequencer only sees writes once they have committed and runs one at a time across all nodes,
+ * so every number it hands out is above every number a client can have seen.
+ * <p>
+ * After every run the {@link CatalogVersion} of this node picks up the last number handed out, by any node.
+ */
+@Component
+public class ProductChangeSequencer {
+    private final CatalogSyncRepository catalogSyncRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final CatalogVersion catalogVersion;
+    private final int batchSize;
+
+    public ProductChangeSequencer(CatalogSyncRepository catalogSyncRepository,
+                                  TransactionTemplate transactionTemplate,
+                                  CatalogVersion catalogVersion,
+                                  @Value("${online-store.catalog.sync.batch-size:500}") int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Change sequencer batch size must be positive");
+        }
+        this.catalogSyncRepository = catalogSyncRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.catalogVersion = catalogVersion;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of product writes and tombstones numbered
+     */
+    @Scheduled(initialDelayString = "${online-store.catalog.sync.interval-ms:500}",
+            fixedDelayString = "${online-store.catalog.sync.interval-ms:500}")
+    public int sequence() {
+        long mark = catalogVersion.mark();
+        int numbered = 0;
+        while (true) {
+            CatalogSyncRepository.Numbered batch = transactionTemplate.execute(
+                    status -> catalogSyncRepository.numberPending(batchSize, Instant.now()));
+            numbered += batch.products() + batch.tombstones();
+            if (batch.products() < batchSize && batch.tombstones() < batchSize) {
+                catalogVersion.refresh(mark);
+                return numbered;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes the whole catalog to a stream straight from a forward-only cursor.
+ * Rows are serialised as they are fetched, so memory use does not grow with the catalog.
+ */
+@Service
+public class ProductExportService {
+    // The stock of a sharded product is the sum of its shards; the subquery only runs for those rows.
+    private static final String SELECT_SQL =
+            "SELECT p.id, p.name, p.price, CASE WHEN p.stockShards > 1"
+                    + " THEN (SELECT COALESCE(SUM(s.quantity), 0) FROM ProductStockShard s WHERE s.productId = p.id)"
+                    + " ELSE p.quantity END AS quantity, p.isRestricted, p.allowedAge"
+                    + " FROM Product p WHERE p.active = TRUE ORDER BY p.id";
+    private static final String CSV_HEADER = "id,name,price,quantity,isRestricted,allowedAge";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectMapper objectMapper;
+    private final int fetchSize;
+
+    public ProductExportService(DataSource dataSource,
+                                PlatformTransactionManager transactionManager,
+                                ObjectMapper objectMapper,
+                                @Value("${online-store.export.fetch-size:1000}") int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Export fetch size must be positive");
+        }
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        // PostgreSQL only uses a server-side cursor for the fetch size when autocommit is off.
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+    }
+
+    public void export(ProductExportFormat format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        switch (format) {
+            case JSON -> writer.write('[');
+            case CSV -> writer.write(CSV_HEADER + "\n");
+            default -> { }
+        }
+        // Send the opening bytes before the query runs so the client sees the response start at once.
+        writer.flush();
+
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(SELECT_SQL, new RowWriter(format, writer)));
+        } catch (UncheckedIOException e) {
+            // The client went away mid-export.
+            throw e.getCause();
+        }
+
+        if (format == ProductExportFormat.JSON) {
+            writer.write(']');
+        }
+        writer.flush();
+    }
+
+    private final class RowWriter implements RowCallbackHandler {
+        private final ProductExportFormat format;
+        private final Writer writer;
+        private long rows;
+
+        private RowWriter(ProductExportFormat format, Writer writer) {
+            this.format = format;
+            this.writer = writer;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            ProductDto product = new ProductDto(
+                    rs.getLong("id"),
+                    rs.getString("name"),
+                    rs.getDouble("price"),
+                    rs.getInt("quantity"),
+                    rs.getBoolean("isRestricted"),
+                    rs.getObject("allowedAge", Integer.class));
+            try {
+                switch (format) {
+                    case JSON -> {
+                        if (rows > 0) {
+                            writer.write(',');
+                        }
+                        writer.write(objectMapper.writeValueAsString(product));
+                    }
+                    case NDJSON -> writer.write(objectMapper.writeValueAsString(product) + "\n");
+                    case CSV -> writer.write(toCsvRow(product) + "\n");
+                }
+                if (++rows % fetchSize == 0) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static String toCsvRow(ProductDto product) {
+        return product.getId() + ","
+                + csvField(product.getName()) + ","
+                + product.getPrice() + ","
+                + product.getQuantity() + ","
+                + product.getIsRestricted() + ","
+                + (product.getAllowedAge() != null ? product.getAllowedAge() : "");
+    }
+
+    static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,340 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductImportReportDto;
+import cz.cvut.fit.tjv.online_store.domain.ChangeSequenceGenerator;
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductChangedEvent;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * Streams products from an NDJSON or CSV body into the database in JDBC batches.
+ * Only the current batch and a capped error list are held in memory, whatever the size of the upload.
+ */
+@Service
+public class ProductImportService {
+    static final int MAX_REPORTED_ERRORS = 1000;
+    static final List<String> CSV_COLUMNS = List.of("name", "price", "quantity", "isRestricted", "allowedAge");
+    private static final String PRICE_HISTORY_INSERT_SQL =
+            "INSERT INTO ProductPriceHistory (productId, price, validFrom) VALUES (?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    // Bypasses Hibernate: IDENTITY ids disable its insert batching.
+    private final String insertSql;
+    private final TransactionTemplate transactionTemplate;
+    private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int batchSize;
+
+    public ProductImportService(JdbcTemplate jdbcTemplate,
+                                TransactionTemplate transactionTemplate,
+                                ProductService productService,
+                                ObjectMapper objectMapper,
+                                ApplicationEventPublisher eventPublisher,
+                                EntityManagerFactory entityManagerFactory,
+                                @Value("${online-store.import.batch-size:500}") int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Import batch size must be positive");
+        }
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        this.jdbcTemplate = jdbcTemplate;
+        this.insertSql = "INSERT INTO Product (name, price, quantity, isRestricted, allowedAge, changeSeq, active, version, stockShards) "
+                + "VALUES (?, ?, ?, ?, ?, " + ChangeSequenceGenerator.nextValueSql(dialect) + ", TRUE, 0, 0)";
+        this.transactionTemplate = transactionTemplate;
+        this.productService = productService;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.batchSize = batchSize;
+    }
+
+    public ProductImportReportDto importProducts(InputStream body, ProductImportFormat format) throws IOException {
+        ImportProgress progress = new ImportProgress();
+        List<PendingRow> batch = new ArrayList<>(batchSize);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            Map<String, Integer> csvHeader = null;
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (format == ProductImportFormat.CSV && csvHeader == null) {
+                    csvHeader = parseCsvHeader(line);
+                    continue;
+                }
+
+                progress.processed++;
+                try {
+                    ProductDto product = (format == ProductImportFormat.CSV)
+                            ? parseCsvRow(line, csvHeader)
+                            : parseJsonRow(line);
+                    validateRow(product);
+                    batch.add(new PendingRow(lineNumber, product));
+                } catch (IllegalArgumentException e) {
+                    progress.fail(lineNumber, e.getMessage());
+                }
+
+                if (batch.size() == batchSize) {
+                    flush(batch, progress);
+                }
+            }
+        }
+        flush(batch, progress);
+
+        return new ProductImportReportDto(progress.processed, progress.imported, progress.failed,
+                progress.errors, progress.errorsTruncated);
+    }
+
+    private void validateRow(ProductDto product) {
+        if (product.getName() == null || product.getName().isBlank()) {
+            throw new IllegalArgumentException("Name is required");
+        }
+        if (product.getIsRestricted() == null) {
+            product.setIsRestricted(false);
+        }
+        productService.validateProductDto(product);
+    }
+
+    private void flush(List<PendingRow> batch, ImportProgress progress) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            publishInserted(transactionTemplate.execute(status -> insert(batch)), progress);
+        } catch (DataAccessException batchFailure) {
+            // The driver cannot tell which row broke the batch, so retry the rows one by one.
+            for (PendingRow row : batch) {
+                try {
+                    publishInserted(transactionTemplate.execute(status -> insert(List.of(row))), progress);
+                } catch (DataAccessException rowFailure) {
+                    progress.fail(row.line, "Database rejected row: " + rowFailure.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    private void publishInserted(List<Product> inserted, ImportProgress progress) {
+        progress.imported += inserted.size();
+        eventPublisher.publishEvent(ProductChangedEvent.created(inserted));
+    }
+
+    private List<Product> insert(List<PendingRow> rows) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(
+                connection -> connection.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ProductDto product = rows.get(i).product;
+                        ps.setString(1, product.getName());
+                        ps.setDouble(2, product.getPrice());
+                        ps.setInt(3, product.getQuantity());
+                        ps.setBoolean(4, product.getIsRestricted());
+                        if (product.getAllowedAge() != null) {
+                            ps.setInt(5, product.getAllowedAge());
+                        } else {
+                            ps.setNull(5, Types.INTEGER);
+                        }
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return rows.size();
+                    }
+                },
+                keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        List<Product> inserted = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            ProductDto row = rows.get(i).product;
+            inserted.add(Product.builder()
+                    .id(generatedId(keys.get(i)))
+                    .name(row.getName())
+                    .price(row.getPrice())
+                    .quantity(row.getQuantity())
+                    .isRestricted(row.getIsRestricted())
+                    .allowedAge(row.getAllowedAge())
+                    .active(true)
+                    .build());
+        }
+        recordPrices(inserted);
+        return inserted;
+    }
+
+    private void recordPrices(List<Product> inserted) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(PRICE_HISTORY_INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Product product = inserted.get(i);
+                ps.setLong(1, product.getId());
+                ps.setDouble(2, product.getPrice());
+                ps.setTimestamp(3, now);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return inserted.size();
+            }
+        });
+    }
+
+    private static Long generatedId(Map<String, Object> key) {
+        // PostgreSQL returns every column of the row, H2 only the identity; the column name case differs too.
+        for (Map.Entry<String, Object> column : key.entrySet()) {
+            if (column.getKey().equalsIgnoreCase("id")) {
+                return ((Number) column.getValue()).longValue();
+            }
+        }
+        return ((Number) key.values().iterator().next()).longValue();
+    }
+
+    private ProductDto parseJsonRow(String line) {
+        try {
+            return objectMapper.readValue(line, ProductDto.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private Map<String, Integer> parseCsvHeader(String line) {
+        List<String> columns = parseCsvLine(line);
+        Map<String, Integer> header = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            String column = columns.get(i).trim();
+            if (!CSV_COLUMNS.contains(column)) {
+                throw new IllegalArgumentException("Unknown CSV column: " + column);
+            }
+            header.put(column, i);
+        }
+        for (String required : List.of("name", "price", "quantity")) {
+            if (!header.containsKey(required)) {
+                throw new IllegalArgumentException("CSV header is missing column: " + required);
+            }
+        }
+        return header;
+    }
+
+    private ProductDto parseCsvRow(String line, Map<String, Integer> header) {
+        List<String> values = parseCsvLine(line);
+        if (values.size() != header.size()) {
+            throw new IllegalArgumentException("Expected " + header.size() + " columns but found " + values.size());
+        }
+        ProductDto product = new ProductDto();
+        product.setName(csvValue(values, header, "name"));
+        try {
+            String price = csvValue(values, header, "price");
+            String quantity = csvValue(values, header, "quantity");
+            String allowedAge = csvValue(values, header, "allowedAge");
+            product.setPrice(price != null ? Double.valueOf(price) : null);
+            product.setQuantity(quantity != null ? Integer.valueOf(quantity) : null);
+            product.setAllowedAge(allowedAge != null ? Integer.valueOf(allowedAge) : null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+        }
+        String restricted = csvValue(values, header, "isRestricted");
+        product.setIsRestricted(restricted != null ? Boolean.valueOf(restricted) : null);
+        return product;
+    }
+
+    private static String csvValue(List<String> values, Map<String, Integer> header, String column) {
+        Integer index = header.get(column);
+        if (index == null) {
+            return null;
+        }
+        String value = values.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Splits one CSV record (RFC 4180 quoting: fields may be quoted, quotes inside are doubled).
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        values.add(current.toString());
+        return values;
+    }
+
+    private static final class PendingRow {
+        private final long line;
+        private final ProductDto product;
+
+        private PendingRow(long line, ProductDto product) {
+            this.line = line;
+            this.product = product;
+        }
+    }
+
+    private static final class ImportProgress {
+        private long processed;
+        private long imported;
+        private long failed;
+        private final List<ProductImportReportDto.RowError> errors = new ArrayList<>();
+        private boolean errorsTruncated;
+
+        private void fail(long line, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new ProductImportReportDto.RowError(line, message));
+            } else {
+                errorsTruncated = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductChangedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Hard-deletes soft-deleted products once no order refers to them any more.
+ * Works in batches, each in its own short transaction, so it never holds many row locks at once.
+ */
+@Component
+public class ProductPurgeJob {
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int batchSize;
+
+    public ProductPurgeJob(ProductRepository productRepository,
+                           TransactionTemplate transactionTemplate,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${online-store.catalog.purge.batch-size:500}") int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Purge batch size must be positive");
+        }
+        this.productRepository = productRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of products removed
+     */
+    @Scheduled(initialDelayString = "${online-store.catalog.purge.interval-ms:3600000}",
+            fixedDelayString = "${online-store.catalog.purge.interval-ms:3600000}")
+    public int purge() {
+        int purged = 0;
+        while (true) {
+            Batch batch = transactionTemplate.execute(status -> {
+                List<Long> ids = productRepository.findPurgeableIds(batchSize);
+                if (ids.isEmpty()) {
+                    return new Batch(0, 0);
+                }
+                int deleted = productRepository.deletePurgeable(ids);
+                eventPublisher.publishEvent(ProductChangedEvent.removed(ids));
+                return new Batch(ids.size(), deleted);
+            });
+            purged += batch.deleted();
+            if (batch.selected() < batchSize) {
+                return purged;
+            }
+        }
+    }
+
+    private record Batch(int selected, int deleted) {
+    }
+}
@@ -1,23 +1,77 @@
 package cz.cvut.fit.tjv.online_store.service;
 
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductChangesDto;
 import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductPageDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductPriceDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.SparsePageDto;
 import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.domain.ProductPriceHistory;
+import cz.cvut.fit.tjv.online_store.domain.ProductStockShard;
+import cz.cvut.fit.tjv.online_store.domain.ProductTombstone;
+import cz.cvut.fit.tjv.online_store.repository.ProductFilter;
+import cz.cvut.fit.tjv.online_store.repository.ProductPriceHistoryRepository;
 import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductSort;
+import cz.cvut.fit.tjv.online_store.repository.ProductStockShardRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductTombstoneRepository;
+import cz.cvut.fit.tjv.online_store.repository.SparseFieldRepository;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductCatalogCache;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductChangedEvent;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductLookupCoalescer;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductSearchIndex;
 import cz.cvut.fit.tjv.online_store.service.mapper.ProductMapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class ProductService {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+    public static final int DEFAULT_SEARCH_SIZE = 10;
+    public static final int MAX_STOCK_SHARDS = 64;
+    /** Fields selectable with {@code ?fields=}, mapped to the Product attributes they are read from. */
+    static final Map<String, String> FIELDS = SparseFields.attributes("id", "name", "price", "quantity", "isRestricted", "allowedAge");
+
     private final ProductRepository productRepository;
+    private final ProductTombstoneRepository productTombstoneRepository;
+    private final ProductPriceHistoryRepository productPriceHistoryRepository;
+    private final ProductStockShardRepository productStockShardRepository;
     private final ProductMapper productMapper;
+    private final SparseFieldRepository sparseFieldRepository;
+    private final ProductCatalogCache productCatalogCache;
+    private final ProductSearchIndex productSearchIndex;
+    private final ProductLookupCoalescer productLookupCoalescer;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public ProductService(ProductRepository productRepository, ProductMapper productMapper) {
+    public ProductService(ProductRepository productRepository, ProductTombstoneRepository productTombstoneRepository,
+                          ProductPriceHistoryRepository productPriceHistoryRepository, ProductStockShardRepository productStockShardRepository,
+                          ProductMapper productMapper, SparseFieldRepository sparseFieldRepository,
+                          ProductCatalogCache productCatalogCache, ProductSearchIndex productSearchIndex,
+                          ProductLookupCoalescer productLookupCoalescer,
+                          ApplicationEventPublisher eventPublisher) {
         this.productRepository = productRepository;
+        this.productTombstoneRepository = productTombstoneRepository;
+        this.productPriceHistoryRepository = productPriceHistoryRepository;
+        this.productStockShardRepository = productStockShardRepository;
         this.productMapper = productMapper;
+        this.sparseFieldRepository = sparseFieldRepository;
+        this.productCatalogCache = productCatalogCache;
+        this.productSearchIndex = productSearchIndex;
+        this.productLookupCoalescer = productLookupCoalescer;
+        this.eventPublisher = eventPublisher;
     }
 
+    @Transactional
     public ProductDto save(ProductDto productDto) {
         if (productDto.getIsRestricted() == null) {
             productDto.setIsRestricted(false);
@@ -25,40 +79,339 @@ public class ProductService {
         validateProductDto(productDto);
         Product product = productMapper.convertToEntity(productDto);
         Product savedProduct = productRepository.save(product);
+        recordPriceIfChanged(savedProduct);
+        eventPublisher.publishEvent(ProductChangedEvent.changed(savedProduct));
         return productMapper.convertToDto(savedProduct);
     }
 
     public Iterable<ProductDto> findAll() {
-        List<Product> products = (List<Product>) productRepository.findAll();
-        return productMapper.convertManyToDto(products);
+        List<Product> products = productRepository.findByActiveTrue();
+        return toDtos(products);
+    }
+
+    public ProductPageDto findPage(ProductFilter filter, ProductSort sort, String cursor, Integer limit) {
+        PageQuery page = pageQuery(filter, sort, cursor, limit);
+
+        // One extra row tells us whether there is a next page without a COUNT query.
+        List<Product> products = productRepository.findPage(filter, page.sort(), page.afterPrice(), page.afterId(), page.size() + 1);
+        boolean hasMore = products.size() > page.size();
+        if (hasMore) {
+            products = products.subList(0, page.size());
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            Product last = products.get(products.size() - 1);
+            nextCursor = encodeCursor(last.getPrice(), last.getId(), page.sort());
+        }
+        return new ProductPageDto(toDtos(products), nextCursor, hasMore);
+    }
+
+    /**
+     * Sparse-fieldset variant of {@link #findPage}: only the requested columns (plus the cursor keys) are selected.
+     */
+    public SparsePageDto findPageFields(ProductFilter filter, ProductSort sort, String cursor, Integer limit, String fields) {
+        SparseFields selected = SparseFields.parse(fields, FIELDS);
+        PageQuery page = pageQuery(filter, sort, cursor, limit);
+
+        List<Map<String, Object>> rows = productRepository.findPageFields(filter, page.sort(), page.afterPrice(),
+                page.afterId(), page.size() + 1, selected.columnsIncluding("id", "price"));
+        boolean hasMore = rows.size() > page.size();
+        if (hasMore) {
+            rows = rows.subList(0, page.size());
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            Map<String, Object> last = rows.get(rows.size() - 1);
+            nextCursor = encodeCursor((Double) last.get("price"), (Long) last.get("id"), page.sort());
+        }
+        return new SparsePageDto(selected.strip(withShardedStock(selected, rows)), nextCursor, hasMore);
+    }
+
+    public List<Map<String, Object>> findAllFields(String fields) {
+        SparseFields selected = SparseFields.parse(fields, FIELDS);
+        List<Map<String, Object>> rows = sparseFieldRepository.findAll(Product.class, selected.columnsIncluding("id"), Map.of("active", true));
+        return selected.strip(withShardedStock(selected, rows));
+    }
+
+    private PageQuery pageQuery(ProductFilter filter, ProductSort sort, String cursor, Integer limit) {
+        int pageSize = (limit != null) ? limit : DEFAULT_PAGE_SIZE;
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        if (filter.getMinPrice() != null && filter.getMaxPrice() != null
+                && filter.getMinPrice() > filter.getMaxPrice()) {
+            throw new IllegalArgumentException("Minimum price must not be greater than maximum price");
+        }
+        ProductSort effectiveSort = (sort != null) ? sort : ProductSort.ID;
+
+        Double afterPrice = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            String[] parts = decodeCursor(cursor, effectiveSort);
+            try {
+                if (effectiveSort == ProductSort.PRICE) {
+                    afterPrice = Double.valueOf(parts[1]);
+                    afterId = Long.valueOf(parts[2]);
+                } else {
+                    afterId = Long.valueOf(parts[1]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+
+        return new PageQuery(effectiveSort, afterPrice, afterId, pageSize);
+    }
+
+    private record PageQuery(ProductSort sort, Double afterPrice, Long afterId, int size) {
+    }
+
+    public List<ProductDto> search(String query, Integer limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Search query is required");
+        }
+        int size = (limit != null) ? limit : DEFAULT_SEARCH_SIZE;
+        if (size <= 0 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        List<Long> ids = productSearchIndex.search(query, size);
+        Map<Long, Product> products = productCatalogCache.getAll(ids, productRepository::findAllById);
+        return ids.stream()
+                .map(products::get)
+                .filter(product -> product != null && !product.isDeleted())
+                .map(this::toDto)
+                .toList();
+    }
+
+    /**
+     * Returns products written and deleted after the given change number, oldest first.
+     * Clients keep {@code nextSince} and pass it back on the next poll. Change numbers are handed out in commit
+     * order by {@link ProductChangeSequencer}, so a write that commits later can never get a number below
+     * one a client has already read past; a write shows up here once it has been numbered.
+     */
+    public ProductChangesDto findChanges(Long since, Integer limit) {
+        long after = (since != null) ? since : 0L;
+        if (after < 0) {
+            throw new IllegalArgumentException("Since must not be negative");
+        }
+        int pageSize = (limit != null) ? limit : DEFAULT_PAGE_SIZE;
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        // Both lists are ordered by change number; merge them and keep the first pageSize entries.
+        // A deleted product is reported through its tombstone only.
+        List<Product> changed = productRepository.findByActiveTrueAndSyncSeqGreaterThanOrderBySyncSeqAsc(after, Limit.of(pageSize + 1));
+        List<ProductTombstone> removed = productTombstoneRepository.findBySyncSeqGreaterThanOrderBySyncSeqAsc(after, Limit.of(pageSize + 1));
+
+        List<Product> changedPage = new ArrayList<>();
+        List<Long> removedPage = new ArrayList<>();
+        long nextSince = after;
+        int c = 0;
+        int r = 0;
+        while (changedPage.size() + removedPage.size() < pageSize && (c < changed.size() || r < removed.size())) {
+            if (r >= removed.size() || (c < changed.size() && changed.get(c).getSyncSeq() < removed.get(r).getSyncSeq())) {
+                Product product = changed.get(c++);
+                changedPage.add(product);
+                nextSince = product.getSyncSeq();
+            } else {
+                ProductTombstone tombstone = removed.get(r++);
+                removedPage.add(tombstone.getProductId());
+                nextSince = tombstone.getSyncSeq();
+            }
+        }
+        boolean hasMore = c < changed.size() || r < removed.size();
+        return new ProductChangesDto(toDtos(changedPage), removedPage, nextSince, hasMore);
     }
 
     public ProductDto findById(Long id) {
-        Product product = productRepository.findById(id)
+        return productLookupCoalescer.load(id, this::loadById);
+    }
+
+    private ProductDto loadById(Long id) {
+        // The cache may hold deleted products for pricing old orders; the storefront must not see them.
+        Product product = productCatalogCache.get(id, productRepository::findById)
+                .filter(p -> !p.isDeleted())
                 .orElseThrow(() -> new IllegalArgumentException("Product not found"));
-        return productMapper.convertToDto(product);
+        return toDto(product);
     }
 
+    @Transactional
     public ProductDto update(Long id, ProductDto productDto) {
 
-        if (!productRepository.existsById(id)) {
-            throw new IllegalArgumentException("Product not found");
-        }
+        Product existing = productRepository.findById(id)
+                .filter(p -> !p.isDeleted())
+                .orElseThrow(() -> new IllegalArgumentException("Product not found"));
         validateProductDto(productDto);
         Product product = productMapper.convertToEntity(productDto);
         product.setId(id);
+        product.setActive(true);
+        // Written over the row as it was read here: a sale committed in between fails the update instead of being undone.
+        product.setVersion(existing.getVersion());
+        product.setStockShards(existing.getStockShards());
+        if (existing.isSharded()) {
+            // The new stock is spread over the shards again; the product row keeps none of it.
+            spreadOverShards(id, product.getQuantity(), existing.getStockShards());
+            product.setQuantity(0);
+        }
         Product updatedProduct = productRepository.save(product);
-        return productMapper.convertToDto(updatedProduct);
+        recordPriceIfChanged(updatedProduct);
+        eventPublisher.publishEvent(ProductChangedEvent.changed(withStock(updatedProduct, productDto.getQuantity())));
+        return toDto(updatedProduct);
+    }
+
+    /**
+     * Splits the stock of a hot product over the given number of shards, so that checkouts stop queueing on its row,
+     * or moves it back into the product row when {@code shards} is 1. Stock already taken is not affected.
+     */
+    @Transactional
+    public ProductDto setStockShards(Long id, int shards) {
+        if (shards < 1 || shards > MAX_STOCK_SHARDS) {
+            throw new IllegalArgumentException("Stock shards must be between 1 and " + MAX_STOCK_SHARDS);
+        }
+        // Row locks first, then the shards, so no checkout takes stock while it is being moved.
+        Product product = productRepository.findByIdInOrderByIdAsc(List.of(id)).stream()
+                .filter(p -> !p.isDeleted())
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Product not found"));
+        int stock = product.isSharded()
+                ? productStockShardRepository.findByProductIdOrderByShardAsc(id).stream().mapToInt(ProductStockShard::getQuantity).sum()
+                : product.getQuantity();
+
+        if (shards == 1) {
+            productStockShardRepository.deleteByProductId(id);
+            product.setQuantity(stock);
+            product.setStockShards(0);
+        } else {
+            spreadOverShards(id, stock, shards);
+            product.setQuantity(0);
+            product.setStockShards(shards);
+        }
+        Product saved = productRepository.save(product);
+        eventPublisher.publishEvent(ProductChangedEvent.changed(withStock(saved, stock)));
+        return toDto(saved);
+    }
+
+    // Replaces the shards of the product with the given number of new ones, the stock split as evenly as possible.
+    private void spreadOverShards(Long productId, int stock, int shards) {
+        productStockShardRepository.deleteByProductId(productId);
+        List<ProductStockShard> created = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            int quantity = stock / shards + (shard < stock % shards ? 1 : 0);
+            created.add(new ProductStockShard(null, productId, shard, quantity, null, null));
+        }
+        productStockShardRepository.saveAll(created);
+    }
+
+    /**
+     * Copy of the product for the catalog listeners that carries its stock, which for a sharded
+     * product is not in its quantity column.
+     */
+    private static Product withStock(Product product, int stock) {
+        return new Product(product.getId(), product.getName(), product.getPrice(), stock, product.getIsRestricted(),
+                product.getAllowedAge(), product.getChangeSeq(), product.getSyncSeq(), product.getActive(), product.getVersion(), product.getStockShards());
+    }
+
+    private ProductDto toDto(Product product) {
+        ProductDto dto = productMapper.convertToDto(product);
+        if (product.isSharded()) {
+            dto.setQuantity(productStockShardRepository.findShardedStock(List.of(product.getId())).getOrDefault(product.getId(), 0));
+        }
+        return dto;
     }
 
+    /**
+     * The quantity column of a sharded product does not hold its stock; the DTOs report the sum of its shards.
+     * Costs a query only if one of the products is sharded.
+     */
+    private List<ProductDto> toDtos(List<Product> products) {
+        List<ProductDto> dtos = productMapper.convertManyToDto(products);
+        List<Long> sharded = products.stream().filter(Product::isSharded).map(Product::getId).toList();
+        if (!sharded.isEmpty()) {
+            Map<Long, Integer> stock = productStockShardRepository.findShardedStock(sharded);
+            dtos.forEach(dto -> dto.setQuantity(stock.getOrDefault(dto.getId(), dto.getQuantity())));
+        }
+        return dtos;
+    }
+
+    // Sparse rows do not say which products are sharded, so the shards are summed for the whole page.
+    private List<Map<String, Object>> withShardedStock(SparseFields selected, List<Map<String, Object>> rows) {
+        if (selected.contains("quantity") && !rows.isEmpty()) {
+            Map<Long, Integer> stock = productStockShardRepository.findShardedStock(
+                    rows.stream().map(row -> (Long) row.get("id")).toList());
+            rows.forEach(row -> {
+                Integer sharded = stock.get((Long) row.get("id"));
+                if (sharded != null) {
+                    row.put("quantity", sharded);
+                }
+            });
+        }
+        return rows;
+    }
+
+    /**
+     * Soft-deletes the product: it disappears from the storefront, but orders referencing it keep resolving
+     * its price until {@link ProductPurgeJob} removes it once no order refers to it any more.
+     */
+    @Transactional
     public void delete(Long id) {
-        if (!productRepository.existsById(id)) {
-            throw new IllegalArgumentException("Product not found");
+        Product product = productRepository.findById(id)
+                .filter(p -> !p.isDeleted())
+                .orElseThrow(() -> new IllegalArgumentException("Product not found"));
+        product.setActive(false);
+        productRepository.save(product);
+        productTombstoneRepository.save(new ProductTombstone(null, id, null));
+        eventPublisher.publishEvent(ProductChangedEvent.removed(id));
+    }
+
+    /**
+     * Price the product had at the given instant (now if none is given), from the append-only price history.
+     * Also answers for deleted products, since orders and reports may still refer to them.
+     */
+    public ProductPriceDto findPriceAt(Long id, Instant at) {
+        Instant when = (at != null) ? at : Instant.now();
+        return productPriceHistoryRepository
+                .findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(id, when)
+                .map(entry -> new ProductPriceDto(entry.getProductId(), entry.getPrice(), entry.getValidFrom()))
+                .orElseThrow(() -> new IllegalArgumentException("Price not found for product " + id + " at " + when));
+    }
+
+    private void recordPriceIfChanged(Product product) {
+        Instant now = Instant.now();
+        boolean unchanged = productPriceHistoryRepository
+                .findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(product.getId(), now)
+                .filter(latest -> latest.getPrice().equals(product.getPrice()))
+                .isPresent();
+        if (!unchanged) {
+            productPriceHistoryRepository.save(new ProductPriceHistory(null, product.getId(), product.getPrice(), now));
+        }
+    }
+
+    private String encodeCursor(Double price, Long id, ProductSort sort) {
+        String raw = (sort == ProductSort.PRICE)
+                ? "price:" + price + ":" + id
+                : "id:" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decodeCursor(String cursor, ProductSort sort) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        String[] parts = raw.split(":");
+        int expectedParts = (sort == ProductSort.PRICE) ? 3 : 2;
+        if (parts.length != expectedParts || !parts[0].equals(sort.name().toLowerCase())) {
+            throw new IllegalArgumentException("Cursor does not match the requested sort order");
         }
-        productRepository.deleteById(id);
+        return parts;
     }
 
-    private void validateProductDto(ProductDto productDto) {
+    void validateProductDto(ProductDto productDto) {
         if (productDto.getPrice() == null || productDto.getPrice() <= 0) {
             throw new IllegalArgumentException("Price must be positive");
         }
@@ -0,0 +1,73 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives every user at most one DRAFT order (the cart) on PostgreSQL: cancels the drafts older races left next to
+ * a user's newest one, releasing what they reserved, and creates uk_orders_user_draft, which turns a second
+ * draft away from then on. Runs once per database, recorded in SchemaMigration, after schema-postgresql.sql
+ * and before the application serves requests.
+ */
+@Component
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "spring.sql.init.platform", havingValue = "postgresql")
+public class SingleDraftMigration implements InitializingBean {
+    static final String NAME = "single-draft-per-user";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final StockReservationService stockReservationService;
+
+    public SingleDraftMigration(NamedParameterJdbcTemplate jdbcTemplate,
+                                TransactionTemplate transactionTemplate,
+                                StockReservationService stockReservationService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.stockReservationService = stockReservationService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        migrate();
+    }
+
+    /**
+     * @return the number of drafts canceled, or -1 if the migration had already run
+     */
+    public int migrate() {
+        return transactionTemplate.execute(status -> {
+            // A node starting at the same time waits here until the first one commits, then finds the row.
+            int claimed = jdbcTemplate.update("INSERT INTO SchemaMigration (name, appliedAt) VALUES (:name, :now)"
+                    + " ON CONFLICT DO NOTHING", new MapSqlParameterSource()
+                    .addValue("name", NAME)
+                    .addValue("now", Timestamp.from(Instant.now())));
+            if (claimed == 0) {
+                return -1;
+            }
+            // No order is written elsewhere until the index is in place, so no new duplicate slips in.
+            jdbcTemplate.getJdbcTemplate().execute("LOCK TABLE orders IN SHARE ROW EXCLUSIVE MODE");
+            List<Long> stale = jdbcTemplate.queryForList("SELECT id FROM orders WHERE status = 'DRAFT'"
+                    + " AND id NOT IN (SELECT MAX(id) FROM orders WHERE status = 'DRAFT' GROUP BY user_id)"
+                    + " ORDER BY id", Map.of(), Long.class);
+            if (!stale.isEmpty()) {
+                stale.forEach(stockReservationService::release);
+                jdbcTemplate.update("UPDATE orders SET status = 'CANCELED', version = version + 1 WHERE id IN (:ids)",
+                        new MapSqlParameterSource("ids", stale));
+            }
+            jdbcTemplate.getJdbcTemplate().execute(
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uk_orders_user_draft ON orders (user_id) WHERE status = 'DRAFT'");
+            return stale.size();
+        });
+    }
+}
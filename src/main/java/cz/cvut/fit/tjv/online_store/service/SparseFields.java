@@ -0,0 +1,96 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import java.util.*;
+
+/**
+ * A parsed {@code ?fields=} parameter: the requested DTO fields and the entity attribute paths they are read from.
+ * Fields that are not plain columns (such as an order's lines) map to a {@code null} path and are filled in separately.
+ */
+public final class SparseFields {
+    private final Map<String, String> available;
+    private final Set<String> requested;
+
+    private SparseFields(Map<String, String> available, Set<String> requested) {
+        this.available = available;
+        this.requested = requested;
+    }
+
+    /**
+     * Available fields that are read from the entity attribute of the same name.
+     */
+    public static Map<String, String> attributes(String... fields) {
+        Map<String, String> available = new LinkedHashMap<>();
+        for (String field : fields) {
+            available.put(field, field);
+        }
+        return Collections.unmodifiableMap(available);
+    }
+
+    /**
+     * Available fields given as pairs of field name and attribute path ({@code null} for computed fields).
+     */
+    public static Map<String, String> paths(String... fieldsAndPaths) {
+        Map<String, String> available = new LinkedHashMap<>();
+        for (int i = 0; i < fieldsAndPaths.length; i += 2) {
+            available.put(fieldsAndPaths[i], fieldsAndPaths[i + 1]);
+        }
+        return Collections.unmodifiableMap(available);
+    }
+
+    public static SparseFields parse(String fields, Map<String, String> available) {
+        Set<String> requested = new LinkedHashSet<>();
+        if (fields != null) {
+            for (String field : fields.split(",")) {
+                String name = field.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                if (!available.containsKey(name)) {
+                    throw new IllegalArgumentException("Unknown field: " + name + ". Available fields: "
+                            + String.join(", ", available.keySet()));
+                }
+                requested.add(name);
+            }
+        }
+        if (requested.isEmpty()) {
+            throw new IllegalArgumentException("At least one field must be requested");
+        }
+        return new SparseFields(available, requested);
+    }
+
+    public boolean contains(String field) {
+        return requested.contains(field);
+    }
+
+    /**
+     * Columns to select: the requested ones plus those the caller needs itself (ids, sort keys).
+     */
+    public Map<String, String> columnsIncluding(String... internal) {
+        Map<String, String> columns = new LinkedHashMap<>();
+        for (String field : internal) {
+            columns.put(field, available.get(field));
+        }
+        for (String field : requested) {
+            String path = available.get(field);
+            if (path != null) {
+                columns.put(field, path);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Drops the internal columns again and orders each row as requested.
+     */
+    public List<Map<String, Object>> strip(List<Map<String, Object>> rows) {
+        List<Map<String, Object>> result = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            Map<String, Object> narrowed = new LinkedHashMap<>();
+            for (String field : requested) {
+                narrowed.put(field, row.get(field));
+            }
+            result.add(narrowed);
+        }
+        return result;
+    }
+}
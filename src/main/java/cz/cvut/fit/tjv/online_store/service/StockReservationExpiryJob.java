@@ -0,0 +1,47 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+
+/**
+ * Gives the stock of abandoned carts back. Each run reads only the reservations that are due, through the
+ * expiry index, and releases them in batches, each in its own short transaction.
+ */
+@Component
+public class StockReservationExpiryJob {
+    private final StockReservationService stockReservationService;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public StockReservationExpiryJob(StockReservationService stockReservationService,
+                                     TransactionTemplate transactionTemplate,
+                                     @Value("${online-store.cart.reservation.expiry-batch-size:500}") int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Reservation expiry batch size must be positive");
+        }
+        this.stockReservationService = stockReservationService;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of reservations released
+     */
+    @Scheduled(initialDelayString = "${online-store.cart.reservation.expiry-interval-ms:10000}",
+            fixedDelayString = "${online-store.cart.reservation.expiry-interval-ms:10000}")
+    public int expire() {
+        Instant now = Instant.now();
+        int released = 0;
+        while (true) {
+            Integer batch = transactionTemplate.execute(status -> stockReservationService.releaseExpired(now, batchSize));
+            released += batch;
+            if (batch < batchSize) {
+                return released;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.repository.StockReservationRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Stock held by DRAFT carts. Adding to a cart reserves the quantity for a limited time; the stock other carts
+ * can still get is the product's stock minus its reserved total. Reservations of abandoned carts are released
+ * by {@link StockReservationExpiryJob}. The flash-sale allocation of a product moves with its reservations.
+ */
+@Service
+public class StockReservationService {
+    private final StockReservationRepository stockReservationRepository;
+    private final FlashSaleGate flashSaleGate;
+    private final long ttlMs;
+
+    public StockReservationService(StockReservationRepository stockReservationRepository,
+                                   FlashSaleGate flashSaleGate,
+                                   @Value("${online-store.cart.reservation.ttl-ms:900000}") long ttlMs) {
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("Reservation TTL must be positive");
+        }
+        this.stockReservationRepository = stockReservationRepository;
+        this.flashSaleGate = flashSaleGate;
+        this.ttlMs = ttlMs;
+    }
+
+    /** Product id → quantity held by active reservations; products nobody reserved are left out. */
+    public Map<Long, Integer> reservedStock(Collection<Long> productIds) {
+        return stockReservationRepository.findReserved(productIds);
+    }
+
+    /** Product id → quantity the order itself holds. */
+    public Map<Long, Integer> reservedBy(Long orderId) {
+        return stockReservationRepository.findByOrder(orderId);
+    }
+
+    /**
+     * Sets what the order holds of each given product to the given quantity, 0 releasing it, and restarts
+     * the TTL of every reservation of the order. Nothing is held back if a product has too little stock left.
+     *
+     * @return ids of the products that could not be reserved; empty if everything was
+     */
+    @Transactional
+    public List<Long> reserve(Long orderId, Map<Long, Integer> quantities) {
+        return reserve(orderId, lockReservedBy(orderId, quantities.keySet()), quantities);
+    }
+
+    /**
+     * Share-locks the given products, then locks the reservations of the order and returns what it holds,
+     * product id → quantity. Meant for callers that look at them before {@link #reserve(Long, Map, Map)}
+     * in the same transaction.
+     *
+     * @param productIds the products the caller is going to reserve
+     */
+    @Transactional
+    public Map<Long, Integer> lockReservedBy(Long orderId, Collection<Long> productIds) {
+        // Product rows before reservation rows: a checkout of the same order takes them in that order too.
+        stockReservationRepository.lockProducts(new TreeSet<>(productIds));
+        return stockReservationRepository.lockByOrder(orderId);
+    }
+
+    /**
+     * {@link #reserve(Long, Map)} for a caller that has already locked the products and what the order holds
+     * with {@link #lockReservedBy(Long, Collection)} in the same transaction.
+     */
+    @Transactional
+    public List<Long> reserve(Long orderId, Map<Long, Integer> held, Map<Long, Integer> quantities) {
+        // A fixed number of statements whatever the number of lines: the totals and the lines go out as one batch each.
+        Instant expiresAt = Instant.now().plusMillis(ttlMs);
+        Map<Long, Integer> deltas = new TreeMap<>();
+        Map<Long, Integer> lines = new TreeMap<>();
+        Set<Long> unavailable = new TreeSet<>();
+        for (Map.Entry<Long, Integer> line : new TreeMap<>(quantities).entrySet()) {
+            Long productId = line.getKey();
+            int wanted = Math.max(line.getValue(), 0);
+            int holding = held.getOrDefault(productId, 0);
+            if (wanted > holding && !flashSaleGate.take(productId, wanted - holding)) {
+                unavailable.add(productId);
+                continue;
+            }
+            if (wanted < holding) {
+                flashSaleGate.giveBack(productId, holding - wanted);
+            }
+            if (wanted != holding) {
+                deltas.put(productId, wanted - holding);
+            }
+            lines.put(productId, wanted);
+        }
+        unavailable.addAll(stockReservationRepository.adjust(deltas));
+        if (!unavailable.isEmpty()) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return new ArrayList<>(unavailable);
+        }
+        stockReservationRepository.setLines(orderId, lines, expiresAt);
+        stockReservationRepository.extend(orderId, expiresAt);
+        return List.of();
+    }
+
+    /** Releases everything the order holds, e.g. because it is canceled or deleted. */
+    @Transactional
+    public void release(Long orderId) {
+        releaseForCheckout(orderId).forEach(flashSaleGate::giveBack);
+    }
+
+    /**
+     * Releases everything the order holds because it is being bought. Its flash-sale units stay taken;
+     * the caller gives back what it ends up not buying. The caller has write-locked the products beforehand.
+     *
+     * @return what the order held, product id → quantity
+     */
+    @Transactional
+    public Map<Long, Integer> releaseForCheckout(Long orderId) {
+        Map<Long, Integer> held = stockReservationRepository.lockByOrder(orderId);
+        held.forEach(stockReservationRepository::unreserve);
+        stockReservationRepository.deleteByOrder(orderId);
+        return held;
+    }
+
+    /** Releases what the order holds of one product. */
+    @Transactional
+    public void release(Long orderId, Long productId) {
+        Integer holding = stockReservationRepository.lockByOrder(orderId).get(productId);
+        if (holding != null) {
+            stockReservationRepository.unreserve(productId, holding);
+            stockReservationRepository.delete(orderId, productId);
+            flashSaleGate.giveBack(productId, holding);
+        }
+    }
+
+    /**
+     * Releases up to {@code limit} reservations that expired by {@code now}; see
+     * {@link StockReservationRepository#releaseExpired}.
+     *
+     * @return the number of reservations released
+     */
+    @Transactional
+    public int releaseExpired(Instant now, int limit) {
+        StockReservationRepository.Released released = stockReservationRepository.releaseExpired(now, limit);
+        released.quantities().forEach(flashSaleGate::giveBack);
+        return released.reservations();
+    }
+}
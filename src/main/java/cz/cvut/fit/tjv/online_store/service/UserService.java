@@ -5,6 +5,7 @@ import cz.cvut.fit.tjv.online_store.domain.*;
 import cz.cvut.fit.tjv.online_store.exception.ConflictException;
 import cz.cvut.fit.tjv.online_store.repository.BonusCardRepository;
 import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
+import cz.cvut.fit.tjv.online_store.repository.SparseFieldRepository;
 import cz.cvut.fit.tjv.online_store.repository.UserRepository;
 import cz.cvut.fit.tjv.online_store.service.mapper.UserMapper;
 import org.springframework.stereotype.Service;
@@ -13,23 +14,29 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 @Validated
 public class UserService implements CrudService<UserDto, Long> {
+    /** Fields selectable with {@code ?fields=}. The password hash is never offered. */
+    static final Map<String, String> FIELDS = SparseFields.attributes("id", "name", "surname", "email", "role", "birthDate");
+
     private final UserRepository userRepository;
     private final OrderRepository orderRepository;
     private final UserMapper userMapper;
     private final PasswordEncoder passwordEncoder;
     private final BonusCardRepository bonusCardRepository;
+    private final SparseFieldRepository sparseFieldRepository;
 
-    public UserService(UserRepository userRepository, OrderRepository orderRepository, UserMapper userMapper, PasswordEncoder passwordEncoder, BonusCardRepository bonusCardRepository) {
+    public UserService(UserRepository userRepository, OrderRepository orderRepository, UserMapper userMapper, PasswordEncoder passwordEncoder, BonusCardRepository bonusCardRepository, SparseFieldRepository sparseFieldRepository) {
         this.userRepository = userRepository;
         this.orderRepository = orderRepository;
         this.userMapper = userMapper;
         this.passwordEncoder = passwordEncoder;
         this.bonusCardRepository = bonusCardRepository;
+        this.sparseFieldRepository = sparseFieldRepository;
     }
 
     @Override
@@ -49,6 +56,11 @@ public class UserService implements CrudService<UserDto, Long> {
         return userMapper.convertManyToDto(users);
     }
 
+    public List<Map<String, Object>> findAllFields(String fields) {
+        SparseFields selected = SparseFields.parse(fields, FIELDS);
+        return sparseFieldRepository.findAll(User.class, selected.columnsIncluding());
+    }
+
     @Override
     public UserDto findById(Long id) {
         User user = userRepository.findById(id)
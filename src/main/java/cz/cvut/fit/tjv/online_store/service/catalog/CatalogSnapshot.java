@@ -0,0 +1,219 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.domain.ProductTombstone;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductTombstoneRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the products held by {@link ProductCatalogCache} on local disk, so a restarted node starts warm.
+ * The cache is written periodically (and on shutdown) as a compact binary file stamped with the highest
+ * change number it reflects. On startup the file is memory-mapped and only the rows changed or removed
+ * after their snapshotted change number are read from the database before the entries go back into the cache.
+ */
+@Component
+@ConditionalOnProperty(name = "online-store.catalog.snapshot.enabled", havingValue = "true", matchIfMissing = true)
+public class CatalogSnapshot {
+    private static final int MAGIC = 0x50435331; // "PCS1"
+    private static final int FORMAT_VERSION = 2;
+    private static final int REFRESH_CHUNK_SIZE = 1000;
+
+    private static final byte NOT_RESTRICTED = 0;
+    private static final byte RESTRICTED = 1;
+    private static final byte RESTRICTION_UNKNOWN = 2;
+    private static final int NO_AGE = -1;
+    // id, change number, price, quantity, restriction, age, shards and name length
+    private static final int MIN_ENTRY_BYTES = 41;
+
+    private final ProductCatalogCache productCatalogCache;
+    private final ProductRepository productRepository;
+    private final ProductTombstoneRepository productTombstoneRepository;
+    private final Path path;
+
+    // Until the old snapshot has been read, writing would replace it with a cold cache.
+    private volatile boolean restored;
+
+    public CatalogSnapshot(ProductCatalogCache productCatalogCache,
+                           ProductRepository productRepository,
+                           ProductTombstoneRepository productTombstoneRepository,
+                           @Value("${online-store.catalog.snapshot.path:data/catalog.snapshot}") Path path) {
+        this.productCatalogCache = productCatalogCache;
+        this.productRepository = productRepository;
+        this.productTombstoneRepository = productTombstoneRepository;
+        this.path = path;
+    }
+
+    /**
+     * Loads the snapshot, brings it up to date and puts it into the cache.
+     * A missing, unreadable or foreign file is treated like no snapshot: the node simply starts cold.
+     *
+     * @return the number of products put into the cache
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public int restore() {
+        try {
+            List<Product> products = read().orElse(List.of());
+            return products.isEmpty() ? 0 : productCatalogCache.warm(() -> refresh(products));
+        } finally {
+            restored = true;
+        }
+    }
+
+    @Scheduled(initialDelayString = "${online-store.catalog.snapshot.interval-ms:60000}",
+            fixedDelayString = "${online-store.catalog.snapshot.interval-ms:60000}")
+    public void write() {
+        if (!restored) {
+            return;
+        }
+        // Deleted products are only cached for pricing old orders; they are not worth a warm start.
+        List<Product> products = productCatalogCache.snapshot().stream()
+                .filter(product -> !product.isDeleted())
+                .toList();
+        long stamp = products.stream().mapToLong(CatalogSnapshot::changeSeqOf).max().orElse(0L);
+        try {
+            Path directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeLong(stamp);
+                    out.writeInt(products.size());
+                    for (Product product : products) {
+                        writeProduct(out, product);
+                    }
+                }
+                // Readers see either the previous snapshot or the complete new one.
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write catalog snapshot to " + path, e);
+        }
+    }
+
+    @EventListener(ContextClosedEvent.class)
+    public void writeOnShutdown() {
+        write();
+    }
+
+    Optional<List<Product>> read() {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 20 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return Optional.empty();
+            }
+            buffer.getLong(); // stamp; each entry carries its own change number
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / MIN_ENTRY_BYTES) {
+                return Optional.empty();
+            }
+            List<Product> products = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                products.add(readProduct(buffer));
+            }
+            return Optional.of(products);
+        } catch (IOException | BufferUnderflowException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Replaces snapshotted products that changed since their change number and drops removed ones, keeping
+     * the recency order. Entries are grouped by change number, so each query only asks for rows newer than
+     * the oldest entry of its group.
+     */
+    List<Product> refresh(List<Product> products) {
+        Map<Long, Product> byId = new LinkedHashMap<>();
+        products.forEach(product -> byId.put(product.getId(), product));
+
+        List<Product> byChangeSeq = new ArrayList<>(byId.values());
+        byChangeSeq.sort(Comparator.comparingLong(CatalogSnapshot::changeSeqOf));
+        for (int from = 0; from < byChangeSeq.size(); from += REFRESH_CHUNK_SIZE) {
+            List<Product> chunk = byChangeSeq.subList(from, Math.min(from + REFRESH_CHUNK_SIZE, byChangeSeq.size()));
+            List<Long> ids = chunk.stream().map(Product::getId).toList();
+
+            for (Product current : productRepository.findByIdInAndChangeSeqGreaterThan(ids, changeSeqOf(chunk.get(0)))) {
+                Product snapshotted = byId.get(current.getId());
+                if (snapshotted != null && changeSeqOf(current) > changeSeqOf(snapshotted)) {
+                    byId.replace(current.getId(), current);
+                }
+            }
+            // Ids are never reused, so any tombstone means the product is gone.
+            for (ProductTombstone tombstone : productTombstoneRepository.findByProductIdIn(ids)) {
+                byId.remove(tombstone.getProductId());
+            }
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    private static void writeProduct(DataOutputStream out, Product product) throws IOException {
+        byte[] name = product.getName().getBytes(StandardCharsets.UTF_8);
+        out.writeLong(product.getId());
+        out.writeLong(changeSeqOf(product));
+        out.writeDouble(product.getPrice());
+        out.writeInt(product.getQuantity());
+        out.writeByte(product.getIsRestricted() == null ? RESTRICTION_UNKNOWN
+                : product.getIsRestricted() ? RESTRICTED : NOT_RESTRICTED);
+        out.writeInt(product.getAllowedAge() != null ? product.getAllowedAge() : NO_AGE);
+        out.writeInt(product.getStockShards() != null ? product.getStockShards() : 0);
+        out.writeInt(name.length);
+        out.write(name);
+    }
+
+    private static Product readProduct(ByteBuffer buffer) {
+        long id = buffer.getLong();
+        long changeSeq = buffer.getLong();
+        double price = buffer.getDouble();
+        int quantity = buffer.getInt();
+        byte restricted = buffer.get();
+        int allowedAge = buffer.getInt();
+        int stockShards = buffer.getInt();
+        int nameLength = buffer.getInt();
+        // A corrupt length must not allocate; the file is then treated like no snapshot.
+        if (nameLength < 0 || nameLength > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        return new Product(id, new String(name, StandardCharsets.UTF_8), price, quantity,
+                restricted == RESTRICTION_UNKNOWN ? null : restricted == RESTRICTED,
+                allowedAge == NO_AGE ? null : allowedAge,
+                changeSeq, null, true, null, stockShards);
+    }
+
+    private static long changeSeqOf(Product product) {
+        return (product.getChangeSeq() != null) ? product.getChangeSeq() : 0L;
+    }
+}
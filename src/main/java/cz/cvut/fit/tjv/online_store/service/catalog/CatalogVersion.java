@@ -0,0 +1,88 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.repository.CatalogSyncRepository;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the product catalog, used as the ETag of product responses. It is kept in memory, so answering a
+ * request, a 304 included, never touches the database.
+ * <p>
+ * The base of the version is the last number the change sequencer handed out, read once per sequencer run on
+ * this node. Every node reads the same number, so once all writes are numbered every node hands out the same
+ * ETag, and a restart does not change it. Writes committed on this node since the last run are counted on top,
+ * together with an id of this node run, so the ETag changes right away and never matches one another node
+ * built from different data. Writes from other nodes show up once the next run here has read their numbers.
+ * <p>
+ * The ETag is weak: JSON, CBOR and Smile bodies of the same data share it, and they are equivalent but not
+ * byte-for-byte equal.
+ */
+@Component
+public class CatalogVersion {
+    private final CatalogSyncRepository catalogSyncRepository;
+    private final String nodeId = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+    private final AtomicLong localWrites = new AtomicLong();
+    private volatile Synced synced;
+
+    public CatalogVersion(CatalogSyncRepository catalogSyncRepository) {
+        this.catalogSyncRepository = catalogSyncRepository;
+    }
+
+    public Validators current() {
+        Synced base = synced;
+        if (base == null) {
+            // Only until the first sequencer run on this node.
+            refresh(localWrites.get());
+            base = synced;
+        }
+        long writes = localWrites.get();
+        if (writes == base.localWrites()) {
+            long lastModified = (base.numberedAt() != null) ? base.numberedAt() : -1;
+            return new Validators("W/\"" + base.syncSeq() + "\"", lastModified);
+        }
+        // Last-Modified is only known once every committed write is numbered.
+        return new Validators("W/\"" + base.syncSeq() + "-" + nodeId + "-" + writes + "\"", -1);
+    }
+
+    /**
+     * Marks the start of a sequencer run: every write counted so far has committed, so the run numbers it.
+     *
+     * @return the mark to pass to {@link #refresh(long)} once the run is done
+     */
+    public long mark() {
+        return localWrites.get();
+    }
+
+    /**
+     * Reads the last number handed out, which covers every local write up to the given mark.
+     */
+    public void refresh(long mark) {
+        CatalogSyncRepository.State state = catalogSyncRepository.readState();
+        Long numberedAt = (state.numberedAt() != null) ? state.numberedAt().toEpochMilli() : null;
+        synced = new Synced(state.syncSeq(), numberedAt, mark);
+    }
+
+    /**
+     * Runs after the other catalog listeners, so a response tagged with the new version
+     * can never have been built from a cache that still held the old data.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onProductChanged(ProductChangedEvent event) {
+        localWrites.incrementAndGet();
+    }
+
+    /**
+     * @param lastModified epoch millis, or -1 when there is none to send
+     */
+    public record Validators(String etag, long lastModified) {
+    }
+
+    private record Synced(long syncSeq, Long numberedAt, long localWrites) {
+    }
+}
@@ -0,0 +1,197 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.CatalogCacheStatsDto;
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of products in front of ProductRepository.
+ * Entries are detached copies, so callers can never modify what other readers see.
+ */
+@Component
+public class ProductCatalogCache {
+
+    private final int maxSize;
+    private final Map<Long, Product> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Bumped on every write. A load that started before a write must not be cached, because it may have read the old row.
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    public ProductCatalogCache(@Value("${online-store.catalog.cache.max-size:10000}") int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Catalog cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Product> eldest) {
+                if (size() > ProductCatalogCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Optional<Product> get(Long id, Function<Long, Optional<Product>> loader) {
+        Product cached;
+        synchronized (entries) {
+            cached = entries.get(id);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return Optional.of(copyOf(cached));
+        }
+        misses.incrementAndGet();
+
+        long generation = writeGeneration.get();
+        Optional<Product> loaded = loader.apply(id);
+        loaded.ifPresent(product -> putIfUnchanged(product, generation));
+        return loaded.map(ProductCatalogCache::copyOf);
+    }
+
+    /**
+     * Returns the cached products and loads all missing ones with a single call to the loader.
+     * Ids the loader does not return are simply absent from the result.
+     */
+    public Map<Long, Product> getAll(Collection<Long> ids, Function<Collection<Long>, Iterable<Product>> loader) {
+        Map<Long, Product> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        synchronized (entries) {
+            for (Long id : ids) {
+                Product cached = entries.get(id);
+                if (cached != null) {
+                    result.put(id, copyOf(cached));
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+        hits.addAndGet(result.size());
+        if (missing.isEmpty()) {
+            return result;
+        }
+        misses.addAndGet(missing.size());
+
+        long generation = writeGeneration.get();
+        for (Product product : loader.apply(missing)) {
+            putIfUnchanged(product, generation);
+            result.put(product.getId(), copyOf(product));
+        }
+        return result;
+    }
+
+    /**
+     * Caches the products returned by the loader; the last one becomes the most recently used.
+     * Nothing is cached if a write happened while the loader ran, since it may have read older rows.
+     *
+     * @return the number of products cached
+     */
+    public int warm(Supplier<? extends Collection<Product>> loader) {
+        long generation = writeGeneration.get();
+        List<Product> copies = loader.get().stream().map(ProductCatalogCache::copyOf).toList();
+        // Older entries would only be evicted again by the newer ones.
+        List<Product> kept = copies.subList(Math.max(0, copies.size() - maxSize), copies.size());
+        synchronized (entries) {
+            if (writeGeneration.get() != generation) {
+                return 0;
+            }
+            kept.forEach(product -> entries.put(product.getId(), product));
+        }
+        return kept.size();
+    }
+
+    /**
+     * Copies of the cached products, from the least to the most recently used.
+     */
+    public List<Product> snapshot() {
+        synchronized (entries) {
+            return entries.values().stream().map(ProductCatalogCache::copyOf).toList();
+        }
+    }
+
+    public void put(Product product) {
+        writeGeneration.incrementAndGet();
+        Product copy = copyOf(product);
+        synchronized (entries) {
+            entries.put(copy.getId(), copy);
+        }
+    }
+
+    public void evict(Long id) {
+        writeGeneration.incrementAndGet();
+        synchronized (entries) {
+            entries.remove(id);
+        }
+    }
+
+    public void clear() {
+        writeGeneration.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (event.isCreated()) {
+            // New rows cannot be cached yet; filling the LRU with a bulk import would only push out hot entries.
+            writeGeneration.incrementAndGet();
+        } else {
+            event.getChanged().forEach(this::put);
+        }
+        event.getRemovedIds().forEach(this::evict);
+    }
+
+    public CatalogCacheStatsDto stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new CatalogCacheStatsDto(maxSize, size, hits.get(), misses.get(), evictions.get());
+    }
+
+    private void putIfUnchanged(Product product, long generation) {
+        Product copy = copyOf(product);
+        synchronized (entries) {
+            if (writeGeneration.get() == generation) {
+                entries.put(copy.getId(), copy);
+            }
+        }
+    }
+
+    static Product copyOf(Product product) {
+        return Product.builder()
+                .id(product.getId())
+                .name(product.getName())
+                .price(product.getPrice())
+                .quantity(product.getQuantity())
+                .isRestricted(product.getIsRestricted())
+                .allowedAge(product.getAllowedAge())
+                .changeSeq(product.getChangeSeq())
+                .syncSeq(product.getSyncSeq())
+                .active(product.getActive())
+                .stockShards(product.getStockShards())
+                .build();
+    }
+}
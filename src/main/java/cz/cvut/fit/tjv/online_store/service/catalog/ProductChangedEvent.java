@@ -0,0 +1,45 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Published by every code path that writes products. Listeners keeping in-process catalog
+ * structures apply it after the surrounding transaction commits.
+ */
+@Getter
+public class ProductChangedEvent {
+    private final List<Product> changed;
+    private final List<Long> removedIds;
+    /** True when every changed product is newly inserted, so no listener can hold an older copy of it. */
+    private final boolean created;
+
+    private ProductChangedEvent(List<Product> changed, List<Long> removedIds, boolean created) {
+        this.changed = changed;
+        this.removedIds = removedIds;
+        this.created = created;
+    }
+
+    public static ProductChangedEvent created(Collection<Product> products) {
+        return new ProductChangedEvent(List.copyOf(products), List.of(), true);
+    }
+
+    public static ProductChangedEvent changed(Collection<Product> products) {
+        return new ProductChangedEvent(List.copyOf(products), List.of(), false);
+    }
+
+    public static ProductChangedEvent changed(Product product) {
+        return new ProductChangedEvent(List.of(product), List.of(), false);
+    }
+
+    public static ProductChangedEvent removed(Long productId) {
+        return new ProductChangedEvent(List.of(), List.of(productId), false);
+    }
+
+    public static ProductChangedEvent removed(Collection<Long> productIds) {
+        return new ProductChangedEvent(List.of(), List.copyOf(productIds), false);
+    }
+}
@@ -0,0 +1,92 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.LookupCoalescingStatsDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Single-flight for product lookups: concurrent requests for the same id share one load and one mapped DTO.
+ * The first caller loads, the others wait for its result at most the configured time and then load on their own.
+ */
+@Component
+public class ProductLookupCoalescer {
+
+    private final ConcurrentHashMap<Long, CompletableFuture<ProductDto>> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public ProductLookupCoalescer(@Value("${online-store.catalog.lookup-coalescing.timeout-ms:2000}") long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Lookup coalescing timeout must be positive");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public ProductDto load(Long id, Function<Long, ProductDto> loader) {
+        CompletableFuture<ProductDto> own = new CompletableFuture<>();
+        CompletableFuture<ProductDto> running = inFlight.putIfAbsent(id, own);
+        if (running == null) {
+            return lead(id, own, loader);
+        }
+
+        try {
+            ProductDto shared = running.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            collapsed.incrementAndGet();
+            return shared;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            loads.incrementAndGet();
+            return loader.apply(id);
+        } catch (ExecutionException e) {
+            // The shared load failed (e.g. product not found); every waiter gets the same answer.
+            collapsed.incrementAndGet();
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Loading product " + id + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for product " + id, e);
+        }
+    }
+
+    private ProductDto lead(Long id, CompletableFuture<ProductDto> own, Function<Long, ProductDto> loader) {
+        loads.incrementAndGet();
+        try {
+            ProductDto loaded = loader.apply(id);
+            own.complete(loaded);
+            return loaded;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(id, own);
+        }
+    }
+
+    /**
+     * A write makes running loads stale; later callers must not join them.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        event.getChanged().forEach(product -> inFlight.remove(product.getId()));
+        event.getRemovedIds().forEach(inFlight::remove);
+    }
+
+    public LookupCoalescingStatsDto stats() {
+        return new LookupCoalescingStatsDto(inFlight.size(), loads.get(), collapsed.get(), timeouts.get());
+    }
+}
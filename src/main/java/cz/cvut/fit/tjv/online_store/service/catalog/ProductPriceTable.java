@@ -0,0 +1,257 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.PriceTableStatsDto;
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.repository.ProductFilter;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductSort;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Off-heap, id-indexed columns with the numbers pricing and age checks need: price, stock,
+ * allowed age and the change number of the row they were copied from.
+ * Each column is one {@link MemorySegment}, so millions of products cost no heap objects and no GC work.
+ * Readers never block: they read optimistically and retry under the read lock only if a write overlapped.
+ */
+@Component
+public class ProductPriceTable {
+    public static final double NO_PRICE = Double.NaN;
+    public static final int NOT_PRESENT = -1;
+    /** Stored allowed age of a product without an age restriction. */
+    public static final int NO_AGE_LIMIT = 0;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    private static final byte ABSENT = 0;
+    private static final byte PRESENT = 1;
+    // Ids are never reused, so a removed product must not be brought back by a load that read it earlier.
+    private static final byte REMOVED = 2;
+
+    private final ProductRepository productRepository;
+    private final long maxCapacity;
+    private final StampedLock lock = new StampedLock();
+
+    private volatile Columns columns;
+    private long size; // guarded by the write lock
+
+    public ProductPriceTable(ProductRepository productRepository,
+                             @Value("${online-store.catalog.price-table.max-id:20000000}") long maxId) {
+        if (maxId <= 0) {
+            throw new IllegalArgumentException("Price table max id must be positive");
+        }
+        this.productRepository = productRepository;
+        this.maxCapacity = maxId + 1;
+        this.columns = new Columns(Math.min(INITIAL_CAPACITY, maxCapacity));
+    }
+
+    /**
+     * Copies every product into the table. Rows changed by events while the load runs keep their newer values.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        Long afterId = null;
+        List<Product> page;
+        do {
+            page = productRepository.findPage(new ProductFilter(), ProductSort.ID, null, afterId, LOAD_PAGE_SIZE);
+            long stamp = lock.writeLock();
+            try {
+                for (Product product : page) {
+                    write(product, true);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == LOAD_PAGE_SIZE);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        long stamp = lock.writeLock();
+        try {
+            event.getChanged().forEach(product -> write(product, false));
+            event.getRemovedIds().forEach(this::remove);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean contains(long id) {
+        return quantity(id) != NOT_PRESENT;
+    }
+
+    /** Price of the product, or {@link #NO_PRICE} when the table does not hold it. */
+    public double price(long id) {
+        long stamp = lock.tryOptimisticRead();
+        double price = readPrice(columns, id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                price = readPrice(columns, id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return price;
+    }
+
+    /** Stock of the product, or {@link #NOT_PRESENT} when the table does not hold it. */
+    public int quantity(long id) {
+        return readInt(id, true);
+    }
+
+    /**
+     * Minimum customer age for the product, {@link #NO_AGE_LIMIT} if it has none,
+     * or {@link #NOT_PRESENT} when the table does not hold it.
+     */
+    public int allowedAge(long id) {
+        return readInt(id, false);
+    }
+
+    public PriceTableStatsDto stats() {
+        long stamp = lock.readLock();
+        try {
+            return new PriceTableStatsDto(size, columns.capacity, maxCapacity - 1, columns.offHeapBytes());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int readInt(long id, boolean quantity) {
+        long stamp = lock.tryOptimisticRead();
+        int value = readInt(columns, id, quantity);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = readInt(columns, id, quantity);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    private static double readPrice(Columns c, long id) {
+        if (!c.isPresent(id)) {
+            return NO_PRICE;
+        }
+        return c.price.getAtIndex(ValueLayout.JAVA_DOUBLE, id);
+    }
+
+    private static int readInt(Columns c, long id, boolean quantity) {
+        if (!c.isPresent(id)) {
+            return NOT_PRESENT;
+        }
+        return quantity
+                ? c.quantity.getAtIndex(ValueLayout.JAVA_INT, id)
+                : c.allowedAge.getAtIndex(ValueLayout.JAVA_INT, id);
+    }
+
+    // Caller holds the write lock.
+    private void write(Product product, boolean fromLoad) {
+        long id = product.getId();
+        if (id < 0 || id >= maxCapacity) {
+            return;
+        }
+        Columns c = ensureCapacity(id);
+        byte state = c.state.get(ValueLayout.JAVA_BYTE, id);
+        long changeSeq = (product.getChangeSeq() != null) ? product.getChangeSeq() : 0L;
+        if (state == REMOVED) {
+            return;
+        }
+        // Events come after commit and always win; a load only fills gaps or replaces older rows.
+        if (fromLoad && state == PRESENT && changeSeq <= c.changeSeq.getAtIndex(ValueLayout.JAVA_LONG, id)) {
+            return;
+        }
+        c.price.setAtIndex(ValueLayout.JAVA_DOUBLE, id, product.getPrice());
+        c.quantity.setAtIndex(ValueLayout.JAVA_INT, id, product.getQuantity());
+        c.allowedAge.setAtIndex(ValueLayout.JAVA_INT, id,
+                (product.getAllowedAge() != null) ? product.getAllowedAge() : NO_AGE_LIMIT);
+        c.changeSeq.setAtIndex(ValueLayout.JAVA_LONG, id, changeSeq);
+        if (state == ABSENT) {
+            c.state.set(ValueLayout.JAVA_BYTE, id, PRESENT);
+            size++;
+        }
+    }
+
+    // Caller holds the write lock.
+    private void remove(Long id) {
+        if (id < 0 || id >= maxCapacity) {
+            return;
+        }
+        Columns c = ensureCapacity(id);
+        if (c.state.get(ValueLayout.JAVA_BYTE, id) == PRESENT) {
+            size--;
+        }
+        c.state.set(ValueLayout.JAVA_BYTE, id, REMOVED);
+    }
+
+    // Caller holds the write lock.
+    private Columns ensureCapacity(long id) {
+        Columns c = columns;
+        if (id < c.capacity) {
+            return c;
+        }
+        long capacity = c.capacity;
+        while (capacity <= id) {
+            capacity *= 2;
+        }
+        Columns grown = new Columns(Math.min(capacity, maxCapacity));
+        grown.copyFrom(c);
+        columns = grown;
+        return grown;
+    }
+
+    /**
+     * One generation of the columns. Segments come from an automatic arena, so a replaced
+     * generation is freed once no reader refers to it any more.
+     */
+    private static final class Columns {
+        private final long capacity;
+        private final MemorySegment price;
+        private final MemorySegment quantity;
+        private final MemorySegment allowedAge;
+        private final MemorySegment changeSeq;
+        private final MemorySegment state;
+
+        private Columns(long capacity) {
+            Arena arena = Arena.ofAuto();
+            this.capacity = capacity;
+            this.price = arena.allocate(ValueLayout.JAVA_DOUBLE, capacity);
+            this.quantity = arena.allocate(ValueLayout.JAVA_INT, capacity);
+            this.allowedAge = arena.allocate(ValueLayout.JAVA_INT, capacity);
+            this.changeSeq = arena.allocate(ValueLayout.JAVA_LONG, capacity);
+            this.state = arena.allocate(ValueLayout.JAVA_BYTE, capacity);
+        }
+
+        private boolean isPresent(long id) {
+            return id >= 0 && id < capacity && state.get(ValueLayout.JAVA_BYTE, id) == PRESENT;
+        }
+
+        private void copyFrom(Columns other) {
+            price.copyFrom(other.price);
+            quantity.copyFrom(other.quantity);
+            allowedAge.copyFrom(other.allowedAge);
+            changeSeq.copyFrom(other.changeSeq);
+            state.copyFrom(other.state);
+        }
+
+        private long offHeapBytes() {
+            return price.byteSize() + quantity.byteSize() + allowedAge.byteSize()
+                    + changeSeq.byteSize() + state.byteSize();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.repository.ProductFilter;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductSort;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory inverted index over product names.
+ * Whole tokens serve exact and prefix (autocomplete) matches, character trigrams find
+ * candidates for typo-tolerant matching, which are then confirmed by edit distance.
+ */
+@Component
+public class ProductSearchIndex {
+    private static final int GRAM_SIZE = 3;
+    private static final int REBUILD_PAGE_SIZE = 1000;
+    private static final double MIN_GRAM_OVERLAP = 0.3;
+
+    private static final double EXACT_SCORE = 3.0;
+    private static final double PREFIX_SCORE = 2.0;
+    private static final double FUZZY_SCORE = 1.0;
+
+    private final ProductRepository productRepository;
+
+    private volatile Postings postings = new Postings();
+    private final Object writeLock = new Object();
+    // Changes that arrive while a rebuild is running; replayed onto the rebuilt postings. Guarded by writeLock.
+    private List<ProductChangedEvent> changesDuringRebuild;
+
+    public ProductSearchIndex(ProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    /**
+     * Rebuilds the index from the database. Pages are read with the keyset query and
+     * tokenized in parallel while the next page is being fetched.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        synchronized (writeLock) {
+            changesDuringRebuild = new ArrayList<>();
+        }
+        Postings next = new Postings();
+        try {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            Long afterId = null;
+            List<Product> page;
+            do {
+                page = productRepository.findPage(new ProductFilter(), ProductSort.ID, null, afterId, REBUILD_PAGE_SIZE);
+                if (!page.isEmpty()) {
+                    List<Product> batch = page;
+                    tasks.add(CompletableFuture.runAsync(() -> batch.forEach(p -> next.add(p.getId(), p.getName()))));
+                    afterId = page.get(page.size() - 1).getId();
+                }
+            } while (page.size() == REBUILD_PAGE_SIZE);
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+
+            synchronized (writeLock) {
+                changesDuringRebuild.forEach(event -> apply(next, event));
+                postings = next;
+            }
+        } finally {
+            synchronized (writeLock) {
+                changesDuringRebuild = null;
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        synchronized (writeLock) {
+            apply(postings, event);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(event);
+            }
+        }
+    }
+
+    public int size() {
+        return postings.tokensById.size();
+    }
+
+    /**
+     * Returns ids of matching products, best match first. Every query token has to match
+     * the name exactly, as a prefix of one of its words, or within a small edit distance.
+     */
+    public List<Long> search(String query, int limit) {
+        Postings current = postings;
+        List<String> queryTokens = tokenize(query);
+        if (queryTokens.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, Double> scores = null;
+        for (String token : queryTokens) {
+            Map<Long, Double> tokenScores = scoreToken(current, token);
+            if (scores == null) {
+                scores = tokenScores;
+            } else {
+                scores.keySet().retainAll(tokenScores.keySet());
+                for (Map.Entry<Long, Double> e : scores.entrySet()) {
+                    e.setValue(e.getValue() + tokenScores.get(e.getKey()));
+                }
+            }
+            if (scores.isEmpty()) {
+                return List.of();
+            }
+        }
+
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.<Long, Double>comparingByKey()))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private Map<Long, Double> scoreToken(Postings current, String token) {
+        Map<Long, Double> scores = new HashMap<>();
+
+        Map<String, Set<Long>> prefixed = current.idsByToken.subMap(token, true, token + Character.MAX_VALUE, false);
+        for (Map.Entry<String, Set<Long>> e : prefixed.entrySet()) {
+            String indexed = e.getKey();
+            double score = indexed.equals(token)
+                    ? EXACT_SCORE
+                    : PREFIX_SCORE - 0.5 * (indexed.length() - token.length()) / indexed.length();
+            for (Long id : e.getValue()) {
+                scores.merge(id, score, Math::max);
+            }
+        }
+
+        if (token.length() < GRAM_SIZE) {
+            return scores;
+        }
+        List<String> queryGrams = grams(token);
+        Map<Long, Integer> overlap = new HashMap<>();
+        for (String gram : queryGrams) {
+            Set<Long> ids = current.idsByGram.get(gram);
+            if (ids != null) {
+                for (Long id : ids) {
+                    overlap.merge(id, 1, Integer::sum);
+                }
+            }
+        }
+        int maxEdits = token.length() <= 4 ? 1 : 2;
+        for (Map.Entry<Long, Integer> e : overlap.entrySet()) {
+            Long id = e.getKey();
+            if (scores.containsKey(id) || (double) e.getValue() / queryGrams.size() < MIN_GRAM_OVERLAP) {
+                continue;
+            }
+            List<String> nameTokens = current.tokensById.get(id);
+            if (nameTokens == null) {
+                continue;
+            }
+            int distance = Integer.MAX_VALUE;
+            for (String nameToken : nameTokens) {
+                distance = Math.min(distance, editDistance(token, nameToken, maxEdits));
+                // A typo inside a word that is still being typed.
+                if (nameToken.length() > token.length()) {
+                    distance = Math.min(distance,
+                            editDistance(token, nameToken.substring(0, token.length()), maxEdits));
+                }
+            }
+            if (distance <= maxEdits) {
+                scores.put(id, FUZZY_SCORE - 0.25 * distance);
+            }
+        }
+        return scores;
+    }
+
+    private static void apply(Postings target, ProductChangedEvent event) {
+        for (Product product : event.getChanged()) {
+            target.add(product.getId(), product.getName());
+        }
+        for (Long id : event.getRemovedIds()) {
+            target.remove(id);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null) {
+            return List.of();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        return Arrays.stream(normalized.split("[^\\p{Alnum}]+"))
+                .filter(token -> !token.isEmpty())
+                .distinct()
+                .toList();
+    }
+
+    static List<String> grams(String token) {
+        String padded = "$" + token + "$";
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + GRAM_SIZE <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + GRAM_SIZE));
+        }
+        return grams;
+    }
+
+    /**
+     * Levenshtein distance, or {@code max + 1} as soon as it is known to exceed {@code max}.
+     */
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    private static final class Postings {
+        private final Map<Long, List<String>> tokensById = new ConcurrentHashMap<>();
+        private final NavigableMap<String, Set<Long>> idsByToken = new ConcurrentSkipListMap<>();
+        private final Map<String, Set<Long>> idsByGram = new ConcurrentHashMap<>();
+
+        void add(Long id, String name) {
+            List<String> previous = tokensById.get(id);
+            if (previous != null) {
+                unlink(id, previous);
+            }
+            List<String> tokens = tokenize(name);
+            for (String token : tokens) {
+                idsByToken.computeIfAbsent(token, k -> ConcurrentHashMap.newKeySet()).add(id);
+                for (String gram : grams(token)) {
+                    idsByGram.computeIfAbsent(gram, k -> ConcurrentHashMap.newKeySet()).add(id);
+                }
+            }
+            tokensById.put(id, tokens);
+        }
+
+        void remove(Long id) {
+            List<String> previous = tokensById.remove(id);
+            if (previous != null) {
+                unlink(id, previous);
+            }
+        }
+
+        private void unlink(Long id, List<String> tokens) {
+            for (String token : tokens) {
+                removePosting(idsByToken, token, id);
+                for (String gram : grams(token)) {
+                    removePosting(idsByGram, gram, id);
+                }
+            }
+        }
+
+        private static void removePosting(Map<String, Set<Long>> postings, String key, Long id) {
+            postings.computeIfPresent(key, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+}
@@ -0,0 +1,5 @@
+-- Products created before the price history was kept get their current price as an entry valid since the epoch.
+INSERT INTO ProductPriceHistory (productId, price, validFrom)
+SELECT p.id, p.price, TIMESTAMP WITH TIME ZONE '1970-01-01 00:00:00+00'
+FROM Product p
+WHERE NOT EXISTS (SELECT 1 FROM ProductPriceHistory h WHERE h.productId = p.id);
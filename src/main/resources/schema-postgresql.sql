@@ -0,0 +1,19 @@
+-- Runs after Hibernate has created or updated the tables (spring.jpa.defer-datasource-initialization).
+-- Indexes that JPA cannot express live here.
+
+-- Storefront queries only read active products, so their indexes leave soft-deleted rows out.
+DROP INDEX IF EXISTS idx_product_price_id;
+DROP INDEX IF EXISTS idx_product_restricted_age;
+CREATE INDEX IF NOT EXISTS idx_product_active_id ON Product (id) WHERE active;
+CREATE INDEX IF NOT EXISTS idx_product_active_price_id ON Product (price, id) WHERE active;
+CREATE INDEX IF NOT EXISTS idx_product_active_restricted_age ON Product (isRestricted, allowedAge) WHERE active;
+
+-- The purge job looks for deleted products and checks that no order line refers to them.
+CREATE INDEX IF NOT EXISTS idx_product_deleted ON Product (id) WHERE NOT active;
+CREATE INDEX IF NOT EXISTS idx_order_requested_quantities_product ON order_requested_quantities (product_id);
+
+-- uk_orders_user_draft, one DRAFT order per user, is created by SingleDraftMigration once old duplicates are gone.
+
+-- The change sequencer looks for committed writes that still wait for their delta-sync number.
+CREATE INDEX IF NOT EXISTS idx_product_sync_pending ON Product (id) WHERE syncSeq IS NULL OR syncSeq < changeSeq;
+CREATE INDEX IF NOT EXISTS idx_product_tombstone_sync_pending ON ProductTombstone (changeSeq) WHERE syncSeq IS NULL;
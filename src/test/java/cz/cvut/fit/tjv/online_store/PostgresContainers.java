@@ -0,0 +1,15 @@
+package cz.cvut.fit.tjv.online_store;
+
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+/**
+ * PostgreSQL for tests whose point is how the real database locks and indexes, which H2 does not reproduce.
+ * Import it with {@code @ImportTestcontainers(PostgresContainers.class)}, activate the {@code test-postgres}
+ * profile after {@code test}, and mark the class {@code @Testcontainers(disabledWithoutDocker = true)}.
+ */
+public interface PostgresContainers {
+
+    @ServiceConnection
+    PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+}
@@ -0,0 +1,63 @@
+package cz.cvut.fit.tjv.online_store.configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bytes on the wire and serialisation time of a 100k-product list in JSON, CBOR and Smile.
+ * Excluded from the regular test run; start it with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class PayloadEncodingBenchmark {
+    private static final int PRODUCTS = 100_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    @Test
+    void compareEncodings() throws Exception {
+        List<ProductDto> products = new ArrayList<>(PRODUCTS);
+        for (long id = 1; id <= PRODUCTS; id++) {
+            products.add(new ProductDto(id, "Product number " + id, 10.0 + id % 1000, (int) (id % 50),
+                    id % 7 == 0, id % 7 == 0 ? 18 : null));
+        }
+
+        Result json = measure("JSON", Jackson2ObjectMapperBuilder.json().build(), products);
+        Result cbor = measure("CBOR", Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build(), products);
+        Result smile = measure("Smile", Jackson2ObjectMapperBuilder.json().factory(new SmileFactory()).build(), products);
+
+        System.out.printf("%-6s %12s %10s %14s%n", "format", "bytes", "vs JSON", "ms/serialise");
+        for (Result result : List.of(json, cbor, smile)) {
+            System.out.printf("%-6s %12d %9.0f%% %14.1f%n", result.format, result.bytes,
+                    100.0 * result.bytes / json.bytes, result.millis);
+        }
+
+        assertTrue(cbor.bytes < json.bytes);
+        assertTrue(smile.bytes < json.bytes);
+    }
+
+    private static Result measure(String format, ObjectMapper mapper, List<ProductDto> products) throws Exception {
+        byte[] encoded = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            encoded = mapper.writeValueAsBytes(products);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            encoded = mapper.writeValueAsBytes(products);
+        }
+        double millis = (System.nanoTime() - start) / 1_000_000.0 / MEASURED_ROUNDS;
+        return new Result(format, encoded.length, millis);
+    }
+
+    private record Result(String format, int bytes, double millis) {
+    }
+}
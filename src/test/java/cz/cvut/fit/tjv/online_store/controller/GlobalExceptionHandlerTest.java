@@ -1,6 +1,7 @@
 package cz.cvut.fit.tjv.online_store.controller;
 
 import cz.cvut.fit.tjv.online_store.exception.ConflictException;
+import cz.cvut.fit.tjv.online_store.exception.TooManyRequestsException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.MediaType;
@@ -67,6 +68,23 @@ class GlobalExceptionHandlerTest {
                 .andExpect(jsonPath("$.message", is("Illegal state occurred")));
     }
 
+    @Test
+    void shouldHandleOptimisticLockingFailureAsConflict() throws Exception {
+        mockMvc.perform(get("/test/optimistic-lock"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.error", is("Conflict")))
+                .andExpect(jsonPath("$.message").isNotEmpty());
+    }
+
+    @Test
+    void shouldHandleTooManyRequestsWithRetryAfter() throws Exception {
+        mockMvc.perform(get("/test/too-many-requests"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"))
+                .andExpect(jsonPath("$.error", is("Too Many Requests")))
+                .andExpect(jsonPath("$.message").isNotEmpty());
+    }
+
     @Test
     void shouldHandleAccessDeniedException() throws Exception {
         mockMvc.perform(get("/test/access-denied"))
@@ -112,6 +130,16 @@ class GlobalExceptionHandlerTest {
             throw new IllegalStateException("Illegal state occurred");
         }
 
+        @GetMapping("/optimistic-lock")
+        public void triggerOptimisticLockingFailure() {
+            throw new org.springframework.dao.OptimisticLockingFailureException("Row was updated by another transaction");
+        }
+
+        @GetMapping("/too-many-requests")
+        public void triggerTooManyRequests() {
+            throw new TooManyRequestsException("Flash sale is busy", 2);
+        }
+
         @GetMapping("/access-denied")
         public void triggerAccessDeniedException() {
             throw new org.springframework.security.access.AccessDeniedException("Access is denied");
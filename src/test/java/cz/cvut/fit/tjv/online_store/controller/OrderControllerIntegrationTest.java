@@ -59,7 +59,8 @@ class OrderControllerIntegrationTest {
     @Test
     void shouldCreateOrderWithoutBonusesIfNoBonusCardExists() throws Exception {
         User user = userRepository.save(new User(null, "John", "Doe", "john.doe@example.com", "password", LocalDate.of(2000, 1, 1), Role.CUSTOMER));
-        Product product = productRepository.save(new Product(null, "Product1", 100.0, 10, false, null));
+        Product product = productRepository.save(Product.builder()
+                .name("Product1").price(100.0).quantity(10).isRestricted(false).build());
 
         String orderJson = String.format("""
             {
@@ -124,7 +125,8 @@ class OrderControllerIntegrationTest {
     @Test
     void shouldApplyBonusCardAndAddCashback() throws Exception {
         User user = userRepository.save(new User(null, "John", "Doe", "john.doe@example.com", "password", LocalDate.of(2000, 1, 1), Role.CUSTOMER));
-        Product product = productRepository.save(new Product(null, "Product1", 100.0, 10, false, null));
+        Product product = productRepository.save(Product.builder()
+                .name("Product1").price(100.0).quantity(10).isRestricted(false).build());
         BonusCard bonusCard = new BonusCard();
         bonusCard.setUser(user);
         bonusCard.setBalance(50.0);
@@ -153,11 +155,69 @@ class OrderControllerIntegrationTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.status").value("PROCESSING"))
                 .andExpect(jsonPath("$.totalCost").value(150.0)) // Check cost after applying bonus card
+                .andExpect(jsonPath("$.unitPrices['" + product.getId() + "']").value(100.0))
                 .andExpect(jsonPath("$.id").value(orderId));
         BonusCard updatedBonusCard = bonusCardRepository.findByUserId(user.getId())
                 .orElseThrow(() -> new IllegalStateException("Bonus card not found"));
         assertEquals(7.5, updatedBonusCard.getBalance(), 0.01); // Allow a small delta for floating-point comparison
     }
 
+    @WithMockUser(username = "admin", roles = {"ADMINISTRATOR"})
+    @Test
+    void shouldReturnOnlyRequestedOrderFields() throws Exception {
+        User user = userRepository.save(new User(null, "John", "Doe", "john.doe@example.com", "password", Role.CUSTOMER));
+        Product product = productRepository.save(Product.builder()
+                .name("Product1").price(100.0).quantity(10).isRestricted(false).build());
+        Map<Long, Integer> requestedQuantities = new HashMap<>();
+        requestedQuantities.put(product.getId(), 3);
+        Order order = orderRepository.save(
+                new Order(null, user, requestedQuantities, LocalDate.now(), 300.0, OrderStatus.PROCESSING));
+
+        mockMvc.perform(get("/orders").param("fields", "userId,totalCost"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].userId").value(user.getId()))
+                .andExpect(jsonPath("$[0].totalCost").value(300.0))
+                .andExpect(jsonPath("$[0].id").doesNotExist())
+                .andExpect(jsonPath("$[0].requestedQuantities").doesNotExist());
+
+        mockMvc.perform(get("/orders").param("fields", "id,requestedQuantities"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(order.getId()))
+                .andExpect(jsonPath("$[0].requestedQuantities['" + product.getId() + "']").value(3))
+                .andExpect(jsonPath("$[0].status").doesNotExist());
+    }
+
+    @WithMockUser(username = "admin", roles = {"ADMINISTRATOR"})
+    @Test
+    void shouldRejectUnknownOrderField() throws Exception {
+        mockMvc.perform(get("/orders").param("fields", "id,password"))
+                .andExpect(status().isBadRequest());
+    }
 
-}
\ No newline at end of file
+    @WithMockUser(username = "john.doe@example.com", roles = {"ADMINISTRATOR"})
+    @Test
+    void shouldKeepPricingCartAfterProductWasDeleted() throws Exception {
+        User user = userRepository.save(new User(null, "John", "Doe", "john.doe@example.com", "password", LocalDate.of(2000, 1, 1), Role.CUSTOMER));
+        Product deleted = productRepository.save(Product.builder()
+                .name("Deleted").price(100.0).quantity(10).isRestricted(false).build());
+        Product kept = productRepository.save(Product.builder()
+                .name("Kept").price(30.0).quantity(10).isRestricted(false).build());
+        Map<Long, Integer> lines = new HashMap<>();
+        lines.put(deleted.getId(), 1);
+        lines.put(kept.getId(), 2);
+        Order order = orderRepository.save(new Order(null, user, lines, LocalDate.now(), 160.0, OrderStatus.DRAFT));
+
+        mockMvc.perform(delete("/products/{id}", deleted.getId()))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/products/{id}", deleted.getId()))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(delete("/orders/{orderId}/products/{productId}", order.getId(), kept.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalCost").value(100.0));
+        mockMvc.perform(post("/orders/add-to-cart")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(String.format("{\"%d\": 1}", deleted.getId())))
+                .andExpect(status().isNotFound());
+    }
+}
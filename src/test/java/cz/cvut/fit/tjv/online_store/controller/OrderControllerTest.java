@@ -1,14 +1,17 @@
 package cz.cvut.fit.tjv.online_store.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.cvut.fit.tjv.online_store.controller.dto.OrderDto;
 import cz.cvut.fit.tjv.online_store.domain.OrderStatus;
 import cz.cvut.fit.tjv.online_store.exception.ConflictException;
+import cz.cvut.fit.tjv.online_store.service.IdempotencyService;
 import cz.cvut.fit.tjv.online_store.service.OrderService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
@@ -27,6 +30,9 @@ class OrderControllerTest {
     @Mock
     private OrderService orderService;
 
+    @Spy
+    private IdempotencyService idempotencyService = new IdempotencyService(null, new ObjectMapper(), 1000, 0, 1000, 500);
+
     @InjectMocks
     private OrderController orderController;
 
@@ -1,7 +1,17 @@
 package cz.cvut.fit.tjv.online_store.controller;
 
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductChangesDto;
 import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductImportReportDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductPageDto;
+import cz.cvut.fit.tjv.online_store.repository.ProductFilter;
+import cz.cvut.fit.tjv.online_store.repository.ProductSort;
+import cz.cvut.fit.tjv.online_store.service.ProductExportFormat;
+import cz.cvut.fit.tjv.online_store.service.ProductExportService;
+import cz.cvut.fit.tjv.online_store.service.ProductImportFormat;
+import cz.cvut.fit.tjv.online_store.service.ProductImportService;
 import cz.cvut.fit.tjv.online_store.service.ProductService;
+import cz.cvut.fit.tjv.online_store.service.catalog.CatalogVersion;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -10,19 +20,36 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.request.WebRequest;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 class ProductControllerTest {
+    private static final String ETAG = "W/\"7\"";
 
     @Mock
     private ProductService productService;
 
+    @Mock
+    private ProductImportService productImportService;
+
+    @Mock
+    private ProductExportService productExportService;
+
+    @Mock
+    private CatalogVersion catalogVersion;
+
     @InjectMocks
     private ProductController productController;
 
@@ -31,6 +58,7 @@ class ProductControllerTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(catalogVersion.current()).thenReturn(new CatalogVersion.Validators(ETAG, 1_700_000_000_000L));
         mockMvc = MockMvcBuilders.standaloneSetup(productController)
                 .build();
     }
@@ -42,7 +70,7 @@ class ProductControllerTest {
 
         when(productService.findAll()).thenReturn(Arrays.asList(product1, product2));
 
-        mockMvc.perform(get("/products"))
+        mockMvc.perform(get("/products").param("unpaged", "true"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].id").value(1))
                 .andExpect(jsonPath("$[0].name").value("Product1"))
@@ -52,6 +80,79 @@ class ProductControllerTest {
         verify(productService, times(1)).findAll();
     }
 
+    @Test
+    void testGetProductsPage() throws Exception {
+        ProductDto product1 = new ProductDto(1L, "Product1", 100.0, 10, false, null);
+        ProductPageDto page = new ProductPageDto(List.of(product1), "next", true);
+
+        when(productService.findPage(any(ProductFilter.class), eq(ProductSort.PRICE), eq("abc"), eq(1)))
+                .thenReturn(page);
+
+        mockMvc.perform(get("/products")
+                        .param("cursor", "abc")
+                        .param("limit", "1")
+                        .param("sort", "price")
+                        .param("minPrice", "50")
+                        .param("isRestricted", "false"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id").value(1))
+                .andExpect(jsonPath("$.nextCursor").value("next"))
+                .andExpect(jsonPath("$.hasMore").value(true));
+
+        verify(productService, times(1)).findPage(
+                argThat(filter -> filter.getMinPrice() == 50.0 && Boolean.FALSE.equals(filter.getIsRestricted())),
+                eq(ProductSort.PRICE), eq("abc"), eq(1));
+        verify(productService, never()).findAll();
+    }
+
+    @Test
+    void testGetProductByIdSendsETagAndLastModified() throws Exception {
+        when(productService.findById(1L)).thenReturn(new ProductDto(1L, "Product1", 100.0, 10, false, null));
+
+        mockMvc.perform(get("/products/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", ETAG))
+                .andExpect(header().string("Vary", "Accept"))
+                .andExpect(header().exists("Last-Modified"))
+                .andExpect(header().string("Cache-Control", "no-cache"));
+    }
+
+    @Test
+    void testConditionalGetReturnsNotModifiedWithoutLoadingProducts() throws Exception {
+        mockMvc.perform(get("/products").param("unpaged", "true")
+                        .header("If-None-Match", ETAG))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("Vary", "Accept"));
+        mockMvc.perform(get("/products").header("If-None-Match", ETAG))
+                .andExpect(status().isNotModified());
+
+        verifyNoInteractions(productService);
+    }
+
+    @Test
+    void testConditionalGetReturnsFreshDataAfterCatalogChange() throws Exception {
+        when(catalogVersion.current()).thenReturn(new CatalogVersion.Validators("W/\"7-5e1f2a9c-1\"", -1));
+        when(productService.findById(1L)).thenReturn(new ProductDto(1L, "Product1", 100.0, 10, false, null));
+
+        mockMvc.perform(get("/products/1").header("If-None-Match", ETAG))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(1));
+    }
+
+    @Test
+    void testSearchProducts() throws Exception {
+        ProductDto product = new ProductDto(1L, "Laptop", 20000.0, 2, false, null);
+
+        when(productService.search("lapt", 5)).thenReturn(List.of(product));
+
+        mockMvc.perform(get("/products/search").param("q", "lapt").param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(jsonPath("$[0].name").value("Laptop"));
+
+        verify(productService, times(1)).search("lapt", 5);
+    }
+
     @Test
     void testGetProductById() throws Exception {
         ProductDto product = new ProductDto(1L, "Product1", 100.0, 10, false, 18);
@@ -133,4 +234,62 @@ class ProductControllerTest {
 
         verify(productService, times(1)).delete(1L);
     }
-}
\ No newline at end of file
+
+    @Test
+    @WithMockUser(username = "admin", roles = {"ADMINISTRATOR"})
+    void testImportProducts() throws Exception {
+        ProductImportReportDto report = new ProductImportReportDto(2, 1, 1,
+                List.of(new ProductImportReportDto.RowError(3, "Price must be positive")), false);
+        when(productImportService.importProducts(any(InputStream.class), eq(ProductImportFormat.CSV))).thenReturn(report);
+
+        mockMvc.perform(post("/products/import")
+                        .contentType("text/csv")
+                        .content("name,price,quantity\nBread,30,10\nBroken,-1,1\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(1))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.errors[0].line").value(3));
+
+        verify(productImportService, times(1)).importProducts(any(InputStream.class), eq(ProductImportFormat.CSV));
+    }
+
+    @Test
+    void testExportProductsAsCsv() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(1);
+            out.write("id,name\n1,Bread\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(productExportService).export(eq(ProductExportFormat.CSV), any(OutputStream.class));
+
+        MvcResult result = mockMvc.perform(get("/products/export").param("format", "csv"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "text/csv"))
+                .andExpect(header().exists("ETag"))
+                .andExpect(content().string("id,name\n1,Bread\n"));
+    }
+
+    @Test
+    void testExportProducts_UnknownFormat() {
+        assertThrows(IllegalArgumentException.class,
+                () -> productController.exportProducts("xml", mock(WebRequest.class)));
+
+        verifyNoInteractions(productExportService);
+    }
+
+    @Test
+    void testGetProductChanges() throws Exception {
+        ProductChangesDto changes = new ProductChangesDto(
+                List.of(new ProductDto(1L, "Product1", 100.0, 9, false, null)), List.of(5L), 42L, false);
+        when(productService.findChanges(40L, null)).thenReturn(changes);
+
+        mockMvc.perform(get("/products/changes").param("since", "40"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changed[0].quantity").value(9))
+                .andExpect(jsonPath("$.removedIds[0]").value(5))
+                .andExpect(jsonPath("$.nextSince").value(42));
+    }
+}
@@ -91,4 +91,17 @@ class OrderRepositoryTest {
         boolean result = orderRepository.existsByUserIdAndStatusIn(newUser.getId(), statusesToCheck);
         assertFalse(result, "New user has no orders, so should return false for any status check.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testBuiltOrderStartsWithEmptyUnitPrices() {
+        Order order = Order.builder()
+                .user(testUser)
+                .requestedQuantities(Map.of())
+                .status(OrderStatus.DRAFT)
+                .build();
+
+        assertNotNull(order.getUnitPrices(), "Builder should default unit prices to an empty map, like the constructors.");
+        order.getUnitPrices().put(1L, 10.0);
+        assertEquals(Map.of(1L, 10.0), orderRepository.save(order).getUnitPrices());
+    }
+}
@@ -0,0 +1,58 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.ProductPriceHistory;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class ProductPriceHistoryRepositoryTest {
+
+    private static final Instant MONDAY = Instant.parse("2024-12-02T00:00:00Z");
+    private static final Instant WEDNESDAY = Instant.parse("2024-12-04T00:00:00Z");
+
+    @Autowired
+    private ProductPriceHistoryRepository productPriceHistoryRepository;
+
+    @BeforeEach
+    void setUp() {
+        productPriceHistoryRepository.deleteAll();
+        productPriceHistoryRepository.save(new ProductPriceHistory(null, 1L, 100.0, MONDAY));
+        productPriceHistoryRepository.save(new ProductPriceHistory(null, 1L, 80.0, WEDNESDAY));
+        productPriceHistoryRepository.save(new ProductPriceHistory(null, 2L, 5.0, MONDAY));
+    }
+
+    @Test
+    void testFindAsOf_ShouldReturnPriceInForceAtThatInstant() {
+        assertEquals(100.0, priceAt(1L, MONDAY));
+        assertEquals(100.0, priceAt(1L, Instant.parse("2024-12-03T12:00:00Z")));
+        assertEquals(80.0, priceAt(1L, WEDNESDAY));
+        assertEquals(5.0, priceAt(2L, WEDNESDAY));
+        assertTrue(productPriceHistoryRepository
+                .findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(1L, MONDAY.minusSeconds(1))
+                .isEmpty());
+    }
+
+    @Test
+    void testFindAsOf_ShouldPreferLaterWriteWithinSameInstant() {
+        productPriceHistoryRepository.save(new ProductPriceHistory(null, 1L, 75.0, WEDNESDAY));
+
+        assertEquals(75.0, priceAt(1L, WEDNESDAY));
+    }
+
+    private double priceAt(Long productId, Instant at) {
+        return productPriceHistoryRepository
+                .findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(productId, at)
+                .orElseThrow()
+                .getPrice();
+    }
+}
@@ -0,0 +1,130 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class ProductRepositoryTest {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Product cheap;
+    private Product middle;
+    private Product expensive;
+    private Product restricted;
+
+    @BeforeEach
+    void setUp() {
+        productRepository.deleteAll();
+        cheap = productRepository.save(Product.builder()
+                .name("Bread").price(30.0).quantity(10).isRestricted(false).build());
+        expensive = productRepository.save(Product.builder()
+                .name("Laptop").price(20000.0).quantity(2).isRestricted(false).build());
+        middle = productRepository.save(Product.builder()
+                .name("Book").price(300.0).quantity(5).isRestricted(false).build());
+        restricted = productRepository.save(Product.builder()
+                .name("Whisky").price(900.0).quantity(3).isRestricted(true).allowedAge(18).build());
+    }
+
+    @Test
+    void testFindPageById_ShouldContinueAfterCursor() {
+        List<Product> firstPage = productRepository.findPage(new ProductFilter(), ProductSort.ID, null, null, 2);
+        assertEquals(List.of(cheap.getId(), expensive.getId()), firstPage.stream().map(Product::getId).toList());
+
+        List<Product> secondPage = productRepository.findPage(
+                new ProductFilter(), ProductSort.ID, null, expensive.getId(), 2);
+        assertEquals(List.of(middle.getId(), restricted.getId()), secondPage.stream().map(Product::getId).toList());
+    }
+
+    @Test
+    void testFindPageByPrice_ShouldOrderByPriceThenId() {
+        List<Product> firstPage = productRepository.findPage(new ProductFilter(), ProductSort.PRICE, null, null, 2);
+        assertEquals(List.of(cheap.getId(), middle.getId()), firstPage.stream().map(Product::getId).toList());
+
+        List<Product> secondPage = productRepository.findPage(
+                new ProductFilter(), ProductSort.PRICE, middle.getPrice(), middle.getId(), 10);
+        assertEquals(List.of(restricted.getId(), expensive.getId()), secondPage.stream().map(Product::getId).toList());
+    }
+
+    @Test
+    void testFindPage_ShouldApplyFilters() {
+        ProductFilter priceRange = ProductFilter.builder().minPrice(100.0).maxPrice(1000.0).build();
+        assertEquals(List.of(middle.getId(), restricted.getId()),
+                productRepository.findPage(priceRange, ProductSort.PRICE, null, null, 10)
+                        .stream().map(Product::getId).toList());
+
+        ProductFilter onlyRestricted = ProductFilter.builder().isRestricted(true).build();
+        assertEquals(List.of(restricted.getId()),
+                productRepository.findPage(onlyRestricted, ProductSort.ID, null, null, 10)
+                        .stream().map(Product::getId).toList());
+
+        ProductFilter forMinors = ProductFilter.builder().maxAllowedAge(15).build();
+        assertFalse(productRepository.findPage(forMinors, ProductSort.ID, null, null, 10)
+                .stream().anyMatch(p -> p.getId().equals(restricted.getId())));
+    }
+
+    @Test
+    void testFindPageFields_ShouldSelectOnlyRequestedColumns() {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("id", "id");
+        columns.put("price", "price");
+        columns.put("name", "name");
+
+        List<Map<String, Object>> firstPage = productRepository.findPageFields(
+                new ProductFilter(), ProductSort.PRICE, null, null, 2, columns);
+        assertEquals(List.of(
+                Map.of("id", cheap.getId(), "price", 30.0, "name", "Bread"),
+                Map.of("id", middle.getId(), "price", 300.0, "name", "Book")), firstPage);
+
+        ProductFilter onlyRestricted = ProductFilter.builder().isRestricted(true).build();
+        List<Map<String, Object>> filtered = productRepository.findPageFields(
+                onlyRestricted, ProductSort.PRICE, middle.getPrice(), middle.getId(), 10, columns);
+        assertEquals(List.of(restricted.getId()), filtered.stream().map(row -> row.get("id")).toList());
+    }
+
+    @Test
+    void testQueries_ShouldSkipDeletedProducts() {
+        middle.setActive(false);
+        entityManager.flush();
+
+        assertEquals(List.of(cheap.getId(), restricted.getId(), expensive.getId()),
+                productRepository.findPage(new ProductFilter(), ProductSort.PRICE, null, null, 10)
+                        .stream().map(Product::getId).toList());
+        assertFalse(productRepository.findByActiveTrue().contains(middle));
+        assertFalse(productRepository.existsByIdAndActiveTrue(middle.getId()));
+        assertEquals(List.of(middle.getId()), productRepository.findPurgeableIds(10));
+    }
+
+    @Test
+    void testChangeSeq_ShouldBeAssignedOnInsertAndBumpedOnUpdate() {
+        assertNotNull(cheap.getChangeSeq());
+        assertTrue(restricted.getChangeSeq() > cheap.getChangeSeq());
+
+        long before = restricted.getChangeSeq();
+        cheap.setQuantity(9);
+        entityManager.flush();
+
+        assertTrue(cheap.getChangeSeq() > before);
+        assertEquals(List.of(cheap.getId()),
+                productRepository.findByIdInAndChangeSeqGreaterThan(List.of(cheap.getId(), restricted.getId()), before)
+                        .stream().map(Product::getId).toList());
+    }
+}
@@ -0,0 +1,180 @@
+package cz.cvut.fit.tjv.online_store.repository;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.service.ProductService;
+import cz.cvut.fit.tjv.online_store.service.StockReservationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not @Transactional: every decrement has to commit on its own, as concurrent checkouts do.
+@SpringBootTest
+@ActiveProfiles("test")
+class ProductStockRepositoryTest {
+
+    @Autowired
+    private ProductStockRepository productStockRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductStockShardRepository productStockShardRepository;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final List<Product> created = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM StockReservation");
+        jdbcTemplate.update("DELETE FROM ProductReservedStock");
+        productStockShardRepository.deleteAll();
+        productRepository.deleteAllById(created.stream().map(Product::getId).toList());
+    }
+
+    @Test
+    void testDecrementAll_ShouldReportRemainingStockAndBumpChangeSeq() {
+        Product bread = create("Stock Bread", 5);
+        Product milk = create("Stock Milk", 3);
+
+        List<StockDecrement> results = productStockRepository.decrementAll(Map.of(milk.getId(), 3, bread.getId(), 2));
+
+        assertEquals(List.of(bread.getId(), milk.getId()), results.stream().map(StockDecrement::productId).toList());
+        assertTrue(results.stream().allMatch(StockDecrement::fulfilled));
+        assertEquals(3, results.get(0).remaining());
+        assertEquals(0, results.get(1).remaining());
+        assertTrue(results.get(0).changeSeq() > bread.getChangeSeq());
+        assertEquals(3, stockOf(bread));
+    }
+
+    @Test
+    void testDecrementAll_ShouldTakeNothingWhenOneLineCannotBeFulfilled() {
+        Product bread = create("Stock Bread", 5);
+        Product milk = create("Stock Milk", 1);
+
+        List<StockDecrement> results = productStockRepository.decrementAll(Map.of(bread.getId(), 2, milk.getId(), 2));
+
+        assertTrue(results.get(0).fulfilled());
+        assertFalse(results.get(1).fulfilled());
+        assertEquals(5, stockOf(bread));
+        assertEquals(1, stockOf(milk));
+    }
+
+    @Test
+    void testDecrementAll_ShouldNeverOversellUnderConcurrentCheckouts() throws Exception {
+        Product bread = create("Stock Bread", 5);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> checkouts = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                checkouts.add(() -> productStockRepository.decrementAll(Map.of(bread.getId(), 1)).get(0).fulfilled());
+            }
+            int fulfilled = 0;
+            for (Future<Boolean> result : executor.invokeAll(checkouts)) {
+                fulfilled += result.get() ? 1 : 0;
+            }
+
+            assertEquals(5, fulfilled);
+            assertEquals(0, stockOf(bread));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testDecrementAll_ShouldTakeAcrossShardsWhenOneShardRunsLow() {
+        Product hot = create("Stock Hot", 10);
+        productService.setStockShards(hot.getId(), 4);
+
+        // Shards hold 3, 3, 2 and 2, so 7 cannot come from any single one.
+        List<StockDecrement> results = productStockRepository.decrementAll(Map.of(hot.getId(), 7), Map.of(hot.getId(), 4));
+
+        assertTrue(results.get(0).fulfilled());
+        assertEquals(3, results.get(0).remaining());
+        assertEquals(3, productService.findById(hot.getId()).getQuantity());
+        assertEquals(0, stockOf(hot));
+
+        productService.setStockShards(hot.getId(), 1);
+        assertEquals(3, stockOf(hot));
+        assertEquals(0, productStockShardRepository.count());
+    }
+
+    @Test
+    void testDecrementAll_ShouldNeverOversellShardedStockUnderConcurrentCheckouts() throws Exception {
+        Product hot = create("Stock Hot", 20);
+        productService.setStockShards(hot.getId(), 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> checkouts = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                checkouts.add(() -> productStockRepository.decrementAll(Map.of(hot.getId(), 1), Map.of(hot.getId(), 4))
+                        .get(0).fulfilled());
+            }
+            int fulfilled = 0;
+            for (Future<Boolean> result : executor.invokeAll(checkouts)) {
+                fulfilled += result.get() ? 1 : 0;
+            }
+
+            assertEquals(20, fulfilled);
+            assertEquals(0, productService.findById(hot.getId()).getQuantity());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testDecrementAll_ShouldNotSellStockOtherCartsHaveReserved() {
+        Product bread = create("Stock Bread", 5);
+        stockReservationService.reserve(9101L, Map.of(bread.getId(), 4));
+
+        assertFalse(productStockRepository.decrementAll(Map.of(bread.getId(), 2)).get(0).fulfilled());
+        assertTrue(productStockRepository.decrementAll(Map.of(bread.getId(), 1)).get(0).fulfilled());
+        assertEquals(4, stockOf(bread));
+    }
+
+    @Test
+    void testDecrementAll_ShouldNotSellShardedStockOtherCartsHaveReserved() {
+        Product hot = create("Stock Hot", 10);
+        productService.setStockShards(hot.getId(), 4);
+        stockReservationService.reserve(9101L, Map.of(hot.getId(), 8));
+
+        // Shards hold 3, 3, 2 and 2: any shard covers 2, but only 2 are not reserved.
+        assertFalse(productStockRepository.decrementAll(Map.of(hot.getId(), 3), Map.of(hot.getId(), 4)).get(0).fulfilled());
+        assertTrue(productStockRepository.decrementAll(Map.of(hot.getId(), 2), Map.of(hot.getId(), 4)).get(0).fulfilled());
+        assertFalse(productStockRepository.decrementAll(Map.of(hot.getId(), 1), Map.of(hot.getId(), 4)).get(0).fulfilled());
+        assertEquals(8, jdbcTemplate.queryForObject("SELECT SUM(quantity) FROM ProductStockShard WHERE productId = ?",
+                Integer.class, hot.getId()));
+    }
+
+    private Product create(String name, int quantity) {
+        Product product = productRepository.save(Product.builder()
+                .name(name).price(10.0).quantity(quantity).isRestricted(false).build());
+        created.add(product);
+        return product;
+    }
+
+    private int stockOf(Product product) {
+        return productRepository.findById(product.getId()).orElseThrow().getQuantity();
+    }
+}
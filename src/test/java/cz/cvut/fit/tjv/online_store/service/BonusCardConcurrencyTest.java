@@ -0,0 +1,81 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.domain.BonusCard;
+import cz.cvut.fit.tjv.online_store.domain.Role;
+import cz.cvut.fit.tjv.online_store.domain.User;
+import cz.cvut.fit.tjv.online_store.exception.ConflictException;
+import cz.cvut.fit.tjv.online_store.repository.BonusCardRepository;
+import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not @Transactional: every balance change has to commit on its own, as concurrent requests do.
+@SpringBootTest
+@ActiveProfiles("test")
+class BonusCardConcurrencyTest {
+
+    @Autowired
+    private BonusCardService bonusCardService;
+
+    @Autowired
+    private BonusCardRepository bonusCardRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private BonusCard card;
+    private User user;
+
+    @AfterEach
+    void tearDown() {
+        bonusCardRepository.deleteById(card.getId());
+        userRepository.deleteById(user.getId());
+    }
+
+    @Test
+    void shouldNotLoseConcurrentBalanceChanges() throws Exception {
+        user = userRepository.save(new User(null, "Ann", "Lee", "ann.lee@example.com", "password",
+                LocalDate.of(1990, 1, 1), Role.CUSTOMER));
+        card = bonusCardRepository.save(new BonusCard(null, user, 0.0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        int applied = 0;
+        try {
+            List<Callable<Void>> additions = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                additions.add(() -> {
+                    bonusCardService.addBalance(card.getId(), 10.0);
+                    return null;
+                });
+            }
+            for (Future<Void> addition : executor.invokeAll(additions)) {
+                try {
+                    addition.get();
+                    applied++;
+                } catch (ExecutionException e) {
+                    // Gave up after its retries; it must then not have changed the balance either.
+                    assertInstanceOf(ConflictException.class, e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(applied > 0);
+        assertEquals(applied * 10.0, bonusCardRepository.findById(card.getId()).orElseThrow().getBalance());
+    }
+}
@@ -11,6 +11,9 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
 import java.util.Optional;
@@ -29,6 +32,10 @@ class BonusCardServiceTest {
     @Mock
     private BonusCardMapper bonusCardMapper;
 
+    @Spy
+    private OptimisticRetry optimisticRetry =
+            new OptimisticRetry(new TransactionTemplate(mock(PlatformTransactionManager.class)), 3, 0, 0, 0.2, 10);
+
     @InjectMocks
     private BonusCardService bonusCardService;
 
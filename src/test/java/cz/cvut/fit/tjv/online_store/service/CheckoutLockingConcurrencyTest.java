@@ -0,0 +1,121 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.domain.*;
+import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not @Transactional: every confirmation commits on its own. The own database gives H2 a lock timeout
+// long enough that only a real deadlock, not a queue of waiters, can fail a confirmation.
+// On H2 this only shows that confirmations take stock in product id order and never oversell. H2 has no deadlock
+// detector and its row locks are not PostgreSQL's, so it cannot prove that PostgreSQL never deadlocks on these
+// orders; CheckoutLockingPostgresConcurrencyTest runs the same scenario there when Docker is available.
+@SpringBootTest(properties = {
+        "online-store.checkout.locking=pessimistic",
+        "spring.datasource.url=jdbc:h2:mem:checkout-locking;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000"
+})
+@ActiveProfiles("test")
+class CheckoutLockingConcurrencyTest {
+    private static final int PRODUCTS = 6;
+    private static final int STOCK = 40;
+    private static final int ORDERS = 300;
+    private static final int LINES_PER_ORDER = 3;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private final List<Long> orderIds = new ArrayList<>();
+    private final List<Product> products = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        orderRepository.deleteAllById(orderIds);
+        productRepository.deleteAllById(products.stream().map(Product::getId).toList());
+        userRepository.deleteAll(users);
+    }
+
+    @Test
+    void shouldConfirmOverlappingCartsWithoutDeadlocksOrOverselling() throws Exception {
+        for (int i = 0; i < PRODUCTS; i++) {
+            products.add(productRepository.save(Product.builder()
+                    .name("Product " + i).price(10.0).quantity(STOCK).isRestricted(false).build()));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < ORDERS; i++) {
+            // One cart per user, as the checkout sees them in production.
+            User user = userRepository.save(new User(null, "Ann", "Lee " + i, "ann.lee" + i + "@example.com", "password",
+                    LocalDate.of(1990, 1, 1), Role.CUSTOMER));
+            users.add(user);
+            List<Product> shuffled = new ArrayList<>(products);
+            Collections.shuffle(shuffled, random);
+            Map<Long, Integer> lines = new HashMap<>();
+            for (Product product : shuffled.subList(0, LINES_PER_ORDER)) {
+                lines.put(product.getId(), 1 + random.nextInt(2));
+            }
+            orderIds.add(orderRepository.save(new Order(null, user, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT)).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Throwable> failures = new ArrayList<>();
+        try {
+            List<Callable<Void>> confirmations = orderIds.stream()
+                    .<Callable<Void>>map(id -> () -> {
+                        orderService.updateStatus(id, OrderStatus.PROCESSING);
+                        return null;
+                    })
+                    .toList();
+            for (Future<Void> confirmation : executor.invokeAll(confirmations)) {
+                try {
+                    confirmation.get();
+                } catch (ExecutionException e) {
+                    // Demand exceeds stock on purpose: clamped orders are confirmed and reported with warnings.
+                    boolean clamped = e.getCause() instanceof IllegalArgumentException
+                            && e.getCause().getMessage().startsWith("Warnings");
+                    if (!clamped) {
+                        failures.add(e.getCause());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(List.of(), failures);
+        Map<Long, Integer> sold = new HashMap<>();
+        for (Object[] line : orderRepository.findRequestedQuantities(orderIds)) {
+            sold.merge((Long) line[1], (Integer) line[2], Integer::sum);
+        }
+        for (Product product : products) {
+            int left = productRepository.findById(product.getId()).orElseThrow().getQuantity();
+            assertTrue(left >= 0);
+            assertEquals(STOCK - left, sold.getOrDefault(product.getId(), 0), "sold vs taken for " + product.getName());
+        }
+        assertTrue(orderIds.stream().allMatch(id ->
+                orderRepository.findById(id).orElseThrow().getStatus() == OrderStatus.PROCESSING));
+    }
+}
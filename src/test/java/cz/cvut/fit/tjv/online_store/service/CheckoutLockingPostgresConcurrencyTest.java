@@ -0,0 +1,16 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.PostgresContainers;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.context.ImportTestcontainers;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+// The same overlapping checkouts on PostgreSQL, whose deadlock detector fails one of two transactions that wait
+// on each other's row locks. Skipped where Docker is not available.
+@SpringBootTest(properties = "online-store.checkout.locking=pessimistic")
+@ActiveProfiles({"test", "test-postgres"})
+@Testcontainers(disabledWithoutDocker = true)
+@ImportTestcontainers(PostgresContainers.class)
+class CheckoutLockingPostgresConcurrencyTest extends CheckoutLockingConcurrencyTest {
+}
@@ -0,0 +1,102 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.domain.*;
+import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not @Transactional: the pipeline runs the checkouts on its own thread and commits them there. A group of two
+// and a long linger put both checkouts into one transaction.
+@SpringBootTest(properties = {
+        "online-store.checkout.pipeline.enabled=true",
+        "online-store.checkout.pipeline.batch-size=2",
+        "online-store.checkout.pipeline.linger-ms=10000",
+        "spring.datasource.url=jdbc:h2:mem:checkout-pipeline;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000"
+})
+@ActiveProfiles("test")
+class CheckoutPipelineIntegrationTest {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private final List<Long> orderIds = new ArrayList<>();
+    private final List<Product> products = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        orderRepository.deleteAllById(orderIds);
+        productRepository.deleteAllById(products.stream().map(Product::getId).toList());
+        userRepository.deleteAll(users);
+    }
+
+    @Test
+    void shouldClampASecondCheckoutOfTheGroupToWhatTheFirstLeft() throws Exception {
+        Product bread = productRepository.save(Product.builder()
+                .name("Bread").price(10.0).quantity(5).isRestricted(false).build());
+        products.add(bread);
+        for (int i = 0; i < 2; i++) {
+            User user = userRepository.save(new User(null, "Ann", "Lee " + i, "ann.lee" + i + "@example.com", "password",
+                    LocalDate.of(1990, 1, 1), Role.CUSTOMER));
+            users.add(user);
+            Map<Long, Integer> lines = new HashMap<>(Map.of(bread.getId(), 3));
+            orderIds.add(orderRepository.save(new Order(null, user, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT)).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<String> warnings = new ArrayList<>();
+        try {
+            List<Future<?>> confirmations = orderIds.stream()
+                    .<Future<?>>map(id -> executor.submit(() -> orderService.updateStatus(id, OrderStatus.PROCESSING)))
+                    .toList();
+            for (Future<?> confirmation : confirmations) {
+                try {
+                    confirmation.get(30, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    // The checkout that runs second sees what the first one took in the same transaction.
+                    assertInstanceOf(IllegalArgumentException.class, e.getCause());
+                    warnings.add(e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(List.of("Warnings: [Clamped product 'Bread' from 3 to 2]"), warnings);
+        assertEquals(0, productRepository.findById(bread.getId()).orElseThrow().getQuantity());
+        int sold = 0;
+        for (Object[] line : orderRepository.findRequestedQuantities(orderIds)) {
+            sold += (Integer) line[2];
+        }
+        assertEquals(5, sold);
+        assertTrue(orderIds.stream().allMatch(id ->
+                orderRepository.findById(id).orElseThrow().getStatus() == OrderStatus.PROCESSING));
+    }
+}
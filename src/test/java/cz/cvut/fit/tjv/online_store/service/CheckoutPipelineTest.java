@@ -0,0 +1,169 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CheckoutPipelineTest {
+
+    private final CountingTransactionManager transactionManager = new CountingTransactionManager();
+    private final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    private final OptimisticRetry optimisticRetry = new OptimisticRetry(transactionTemplate, 3, 0, 0, 0.2, 10);
+    private final ProductRepository productRepository = mock(ProductRepository.class);
+    private final ExecutorService callers = Executors.newFixedThreadPool(4);
+    private CheckoutPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        // A long linger, so that every caller of a test lands in the same group.
+        pipeline = new CheckoutPipeline(transactionTemplate, optimisticRetry, productRepository, true, 4, 2000, 1, 100);
+        pipeline.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.stop();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void shouldCommitConcurrentCheckoutsTogether() throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String order = "order-" + i;
+            results.add(callers.submit(() -> pipeline.submit("checkout", Set::of, () -> order)));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("order-" + i, results.get(i).get());
+        }
+        assertEquals(1, transactionManager.commits.get());
+    }
+
+    @Test
+    void shouldFailOnlyTheCheckoutThatCouldNotBeFulfilled() throws Exception {
+        CountDownLatch firstRan = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        results.add(callers.submit(() -> pipeline.submit("checkout", Set::of, () -> {
+            firstRan.countDown();
+            return "order-0";
+        })));
+        results.add(callers.submit(() -> pipeline.submit("checkout", Set::of, () -> {
+            throw new IllegalStateException("Not enough stock left for: Bread (3 requested)");
+        })));
+        results.add(callers.submit(() -> pipeline.submit("checkout", Set::of, () -> "order-2")));
+        results.add(callers.submit(() -> pipeline.submit("checkout", Set::of, () -> "order-3")));
+
+        assertEquals("order-0", results.get(0).get());
+        Exception e = assertThrows(Exception.class, () -> results.get(1).get());
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals("Not enough stock left for: Bread (3 requested)", e.getCause().getMessage());
+        assertEquals("order-2", results.get(2).get());
+        assertEquals("order-3", results.get(3).get());
+        assertEquals(0, firstRan.getCount());
+        // The group is rolled back once for the failed checkout and committed once without it.
+        assertEquals(1, transactionManager.rollbacks.get());
+        assertEquals(1, transactionManager.commits.get());
+    }
+
+    @Test
+    void shouldLockTheProductsOfTheWholeGroupInIdOrderFirst() throws Exception {
+        List<Long> lockedFirst = new ArrayList<>();
+        AtomicInteger checkoutsBeforeLocking = new AtomicInteger(-1);
+        AtomicInteger checkoutsRun = new AtomicInteger();
+        when(productRepository.findByIdInOrderByIdAsc(any())).thenAnswer(invocation -> {
+            lockedFirst.addAll(invocation.getArgument(0));
+            checkoutsBeforeLocking.set(checkoutsRun.get());
+            return List.of();
+        });
+        List<Future<Integer>> results = new ArrayList<>();
+        List<Set<Long>> productIds = List.of(Set.of(9L, 2L), Set.of(5L), Set.of(2L, 7L), Set.of(1L));
+        for (Set<Long> ids : productIds) {
+            results.add(callers.submit(() -> pipeline.submit("checkout", () -> ids, checkoutsRun::incrementAndGet)));
+        }
+
+        for (Future<Integer> result : results) {
+            result.get();
+        }
+        assertEquals(List.of(1L, 2L, 5L, 7L, 9L), lockedFirst);
+        assertEquals(0, checkoutsBeforeLocking.get());
+        assertEquals(1, transactionManager.commits.get());
+    }
+
+    @Test
+    void shouldRunACheckoutThatLostALockAgainAlone() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<Future<String>> results = new ArrayList<>();
+        results.add(callers.submit(() -> pipeline.submit("checkout", Set::of, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new CannotAcquireLockException("deadlock detected");
+            }
+            return "order-0";
+        })));
+        for (int i = 1; i < 4; i++) {
+            String order = "order-" + i;
+            results.add(callers.submit(() -> pipeline.submit("checkout", Set::of, () -> order)));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("order-" + i, results.get(i).get());
+        }
+        assertEquals(2, attempts.get());
+        // Rolled back once for the lost lock, then the rest of the group and the rerun commit.
+        assertEquals(1, transactionManager.rollbacks.get());
+        assertEquals(2, transactionManager.commits.get());
+    }
+
+    @Test
+    void shouldRunRightAwayWhenDisabled() {
+        CheckoutPipeline disabled = new CheckoutPipeline(transactionTemplate, optimisticRetry, productRepository, false, 4, 2000, 1, 100);
+        disabled.start();
+
+        assertEquals("done", disabled.submit("checkout", Set::of, () -> "done"));
+        assertEquals(1, transactionManager.commits.get());
+    }
+
+    private static class CountingTransactionManager extends AbstractPlatformTransactionManager {
+        private final AtomicInteger commits = new AtomicInteger();
+        private final AtomicInteger rollbacks = new AtomicInteger();
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            commits.incrementAndGet();
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+            rollbacks.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.FlashSaleStatsDto;
+import cz.cvut.fit.tjv.online_store.exception.TooManyRequestsException;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlashSaleGateTest {
+
+    @Test
+    void shouldLetRequestsForOtherProductsStraightThrough() {
+        FlashSaleGate gate = new FlashSaleGate(0);
+        gate.start(1L, 0, 1);
+
+        assertEquals("added", gate.admitToCart(10L, Map.of(2L, 5), () -> "added"));
+        assertEquals("confirmed", gate.admitToCheckout(10L, () -> "confirmed"));
+        assertEquals(0, gate.stats().get(0).getAdmitted());
+    }
+
+    @Test
+    void shouldAnswerSoldOutWithoutRunningTheAction() {
+        FlashSaleGate gate = new FlashSaleGate(1000);
+        gate.start(1L, 3, 1000);
+        AtomicInteger runs = new AtomicInteger();
+
+        assertTrue(gate.admitToCart(10L, Map.of(1L, 2), () -> gate.take(1L, 2)));
+        assertFalse(gate.admitToCart(11L, Map.of(1L, 2), () -> gate.take(1L, 2)));
+        assertTrue(gate.admitToCart(12L, Map.of(1L, 1), () -> gate.take(1L, 1)));
+        IllegalStateException soldOut = assertThrows(IllegalStateException.class,
+                () -> gate.admitToCart(13L, Map.of(1L, 1), runs::incrementAndGet));
+
+        assertEquals("Product ID 1 is sold out.", soldOut.getMessage());
+        assertEquals(0, runs.get());
+        FlashSaleStatsDto stats = gate.stats().get(0);
+        assertEquals(0, stats.getAllocationLeft());
+        assertEquals(3, stats.getAdmitted());
+        assertEquals(2, stats.getSoldOut());
+    }
+
+    @Test
+    void shouldGiveTheAllocationBackWhenTheReservationRollsBack() {
+        FlashSaleGate gate = new FlashSaleGate(1000);
+        gate.start(1L, 3, 1000);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            assertTrue(gate.take(1L, 2));
+            assertEquals(1, gate.stats().get(0).getAllocationLeft());
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(3, gate.stats().get(0).getAllocationLeft());
+    }
+
+    @Test
+    void shouldGiveReleasedUnitsBackOnlyOnceTheReleaseCommits() {
+        FlashSaleGate gate = new FlashSaleGate(1000);
+        gate.start(1L, 3, 1000);
+        assertTrue(gate.take(1L, 3));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            gate.giveBack(1L, 2);
+            assertEquals(0, gate.stats().get(0).getAllocationLeft());
+            TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(2, gate.stats().get(0).getAllocationLeft());
+        assertFalse(gate.take(1L, 3));
+        gate.giveBack(2L, 5);
+        assertEquals(1, gate.stats().size());
+    }
+
+    @Test
+    void shouldTurnAwayRequestsThatWouldWaitTooLong() {
+        FlashSaleGate gate = new FlashSaleGate(0);
+        gate.start(1L, 100, 1);
+        AtomicInteger runs = new AtomicInteger();
+
+        gate.admitToCart(10L, Map.of(1L, 1), runs::incrementAndGet);
+        assertThrows(TooManyRequestsException.class, () -> gate.admitToCart(11L, Map.of(1L, 1), runs::incrementAndGet));
+
+        assertEquals(1, runs.get());
+        assertEquals(100, gate.stats().get(0).getAllocationLeft());
+        assertEquals(1, gate.stats().get(0).getQueueFull());
+    }
+
+    @Test
+    void shouldAdmitQueuedRequestsAtTheConfiguredRate() {
+        FlashSaleGate gate = new FlashSaleGate(1000);
+        gate.start(1L, 100, 100);
+
+        long start = System.nanoTime();
+        for (long orderId = 1; orderId <= 6; orderId++) {
+            gate.admitToCart(orderId, Map.of(1L, 1), () -> null);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Six requests at 100 per second: the last one starts five intervals after the first.
+        assertTrue(elapsedMs >= 45, "admitted after " + elapsedMs + " ms");
+        assertEquals(6, gate.stats().get(0).getAdmitted());
+    }
+
+    @Test
+    void shouldQueueTheCheckoutOfACartHoldingAFlashSaleProduct() {
+        FlashSaleGate gate = new FlashSaleGate(1000);
+        gate.start(1L, 10, 1000);
+
+        gate.admitToCart(10L, Map.of(1L, 1, 2L, 1), () -> null);
+        gate.admitToCheckout(10L, () -> null);
+        gate.admitToCheckout(10L, () -> null);
+
+        assertEquals(2, gate.stats().get(0).getAdmitted());
+    }
+}
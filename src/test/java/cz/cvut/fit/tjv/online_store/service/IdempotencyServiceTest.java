@@ -0,0 +1,204 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.OrderDto;
+import cz.cvut.fit.tjv.online_store.domain.OrderStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not @Transactional: claims have to be visible to other threads, as they are to other requests.
+@SpringBootTest
+@ActiveProfiles("test")
+class IdempotencyServiceTest {
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM IdempotencyRecord");
+    }
+
+    @Test
+    void shouldReturnTheStoredResponseForARepeatedKey() {
+        OrderDto first = idempotencyService.execute("add-to-cart:john@example.com", "key-1", Map.of(1L, 2),
+                OrderDto.class, this::order);
+        OrderDto repeated = idempotencyService.execute("add-to-cart:john@example.com", "key-1", Map.of(1L, 2),
+                OrderDto.class, this::order);
+
+        assertEquals(1, runs.get());
+        assertEquals(first.getId(), repeated.getId());
+        assertEquals(first.getDateOfCreation(), repeated.getDateOfCreation());
+        assertEquals(Map.of(1L, 2), repeated.getRequestedQuantities());
+        assertEquals(OrderStatus.DRAFT, repeated.getStatus());
+    }
+
+    @Test
+    void shouldKeepKeysOfDifferentScopesApart() {
+        idempotencyService.execute("add-to-cart:john@example.com", "key-1", Map.of(1L, 2), OrderDto.class, this::order);
+        idempotencyService.execute("add-to-cart:jane@example.com", "key-1", Map.of(1L, 2), OrderDto.class, this::order);
+
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void shouldRejectAKeyReusedForADifferentRequest() {
+        idempotencyService.execute("add-to-cart:john@example.com", "key-1", Map.of(1L, 2), OrderDto.class, this::order);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> idempotencyService.execute(
+                "add-to-cart:john@example.com", "key-1", Map.of(1L, 3), OrderDto.class, this::order));
+        assertEquals("Idempotency-Key key-1 was already used for a different request", e.getMessage());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void shouldRunAgainAfterAFailedRequest() {
+        assertThrows(IllegalArgumentException.class, () -> idempotencyService.execute(
+                "confirm:1", "key-1", 1L, OrderDto.class, () -> {
+                    runs.incrementAndGet();
+                    throw new IllegalArgumentException("Product 'Bread' is out of stock.");
+                }));
+
+        idempotencyService.execute("confirm:1", "key-1", 1L, OrderDto.class, this::order);
+
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void shouldLetAConcurrentDuplicateWaitForTheFirstRequest() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<OrderDto> first = executor.submit(() -> idempotencyService.execute(
+                    "confirm:1", "key-1", 1L, OrderDto.class, () -> {
+                        firstStarted.countDown();
+                        await(release);
+                        return order();
+                    }));
+            assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            Future<OrderDto> duplicate = executor.submit(() -> idempotencyService.execute(
+                    "confirm:1", "key-1", 1L, OrderDto.class, this::order));
+
+            Thread.sleep(100);
+            assertFalse(duplicate.isDone());
+            release.countDown();
+
+            assertEquals(first.get(5, TimeUnit.SECONDS).getId(), duplicate.get(5, TimeUnit.SECONDS).getId());
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldNotTakeOverAClaimOfARequestStillRunningOnThisNode() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<OrderDto> first = executor.submit(() -> idempotencyService.execute(
+                    "confirm:1", "key-1", 1L, OrderDto.class, () -> {
+                        firstStarted.countDown();
+                        await(release);
+                        return order();
+                    }));
+            assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            // As if the request had waited in a queue for longer than the stale time without a renewal.
+            backdateClaim("confirm:1:key-1");
+            Future<OrderDto> duplicate = executor.submit(() -> idempotencyService.execute(
+                    "confirm:1", "key-1", 1L, OrderDto.class, this::order));
+
+            Thread.sleep(100);
+            assertFalse(duplicate.isDone());
+            release.countDown();
+
+            assertEquals(first.get(5, TimeUnit.SECONDS).getId(), duplicate.get(5, TimeUnit.SECONDS).getId());
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldRenewTheClaimsOfRunningRequests() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<OrderDto> first = executor.submit(() -> idempotencyService.execute(
+                    "confirm:1", "key-1", 1L, OrderDto.class, () -> {
+                        firstStarted.countDown();
+                        await(release);
+                        return order();
+                    }));
+            assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            backdateClaim("confirm:1:key-1");
+
+            assertEquals(1, idempotencyService.renewRunning());
+            Timestamp claimed = jdbcTemplate.queryForObject(
+                    "SELECT createdAt FROM IdempotencyRecord WHERE idempotencyKey = ?", Timestamp.class, "confirm:1:key-1");
+            assertTrue(claimed.toInstant().isAfter(Instant.now().minusSeconds(60)));
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            assertEquals(0, idempotencyService.renewRunning());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldPurgeOnlyExpiredRecords() {
+        idempotencyService.execute("confirm:1", "key-1", 1L, OrderDto.class, this::order);
+        idempotencyService.execute("confirm:2", "key-2", 2L, OrderDto.class, this::order);
+        jdbcTemplate.update("UPDATE IdempotencyRecord SET expiresAt = ? WHERE idempotencyKey = ?",
+                Timestamp.from(Instant.now().minusSeconds(1)), "confirm:1:key-1");
+
+        assertEquals(1, idempotencyService.purgeExpired());
+
+        idempotencyService.execute("confirm:1", "key-1", 1L, OrderDto.class, this::order);
+        idempotencyService.execute("confirm:2", "key-2", 2L, OrderDto.class, this::order);
+        assertEquals(3, runs.get());
+    }
+
+    private void backdateClaim(String recordKey) {
+        jdbcTemplate.update("UPDATE IdempotencyRecord SET createdAt = ? WHERE idempotencyKey = ?",
+                Timestamp.from(Instant.now().minusSeconds(3600)), recordKey);
+    }
+
+    private OrderDto order() {
+        int run = runs.incrementAndGet();
+        return new OrderDto((long) run, 1L, Map.of(1L, 2), LocalDate.of(2025, 1, 15), 100.0, OrderStatus.DRAFT, List.of());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.RetryStatsDto;
+import cz.cvut.fit.tjv.online_store.exception.ConflictException;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class OptimisticRetryTest {
+
+    private final TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+    @Test
+    void shouldRetryUntilTheActionNoLongerConflicts() {
+        OptimisticRetry retry = new OptimisticRetry(transactionTemplate, 4, 0, 1, 0.2, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retry.run("op", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new OptimisticLockingFailureException("stale");
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        RetryStatsDto stats = retry.stats().get(0);
+        assertEquals(1, stats.getCalls());
+        assertEquals(2, stats.getConflicts());
+        assertEquals(2, stats.getRetries());
+        assertEquals(0, stats.getExhausted());
+    }
+
+    @Test
+    void shouldGiveUpWithConflictAfterLastAttempt() {
+        OptimisticRetry retry = new OptimisticRetry(transactionTemplate, 3, 0, 0, 0.2, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ConflictException.class, () -> retry.run("op", () -> {
+            attempts.incrementAndGet();
+            throw new OptimisticLockingFailureException("stale");
+        }));
+
+        assertEquals(3, attempts.get());
+        assertEquals(1, retry.stats().get(0).getExhausted());
+    }
+
+    @Test
+    void shouldStopRetryingWhenBudgetIsSpent() {
+        OptimisticRetry retry = new OptimisticRetry(transactionTemplate, 5, 0, 0, 0.0, 1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ConflictException.class, () -> retry.run("op", () -> {
+            attempts.incrementAndGet();
+            throw new OptimisticLockingFailureException("stale");
+        }));
+
+        // One retry paid from the budget, then no more.
+        assertEquals(2, attempts.get());
+        assertEquals(1, retry.stats().get(0).getBudgetDenied());
+    }
+
+    @Test
+    void shouldNotRetryOtherFailures() {
+        OptimisticRetry retry = new OptimisticRetry(transactionTemplate, 3, 0, 0, 0.2, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalArgumentException.class, () -> retry.run("op", () -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("Amount must be greater than 0");
+        }));
+
+        assertEquals(1, attempts.get());
+        assertEquals(0, retry.stats().get(0).getConflicts());
+    }
+
+    @Test
+    void shouldLeaveRetryingToTheOwnerOfARunningTransaction() {
+        OptimisticRetry retry = new OptimisticRetry(transactionTemplate, 3, 0, 0, 0.2, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertThrows(OptimisticLockingFailureException.class, () -> retry.run("op", () -> {
+                attempts.incrementAndGet();
+                throw new OptimisticLockingFailureException("stale");
+            }));
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        assertEquals(1, attempts.get());
+    }
+}
@@ -3,11 +3,18 @@ package cz.cvut.fit.tjv.online_store.service;
 import cz.cvut.fit.tjv.online_store.controller.dto.OrderDto;
 import cz.cvut.fit.tjv.online_store.domain.*;
 import cz.cvut.fit.tjv.online_store.repository.*;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductCatalogCache;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductChangedEvent;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductPriceTable;
 import cz.cvut.fit.tjv.online_store.service.mapper.OrderMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -23,6 +30,12 @@ class OrderServiceTest {
     @Mock
     private ProductRepository productRepository;
     @Mock
+    private ProductStockRepository productStockRepository;
+    @Mock
+    private ProductStockShardRepository productStockShardRepository;
+    @Mock
+    private StockReservationService stockReservationService;
+    @Mock
     private UserRepository userRepository;
     @Mock
     private BonusCardRepository bonusCardRepository;
@@ -30,6 +43,21 @@ class OrderServiceTest {
     private BonusCardService bonusCardService;
     @Mock
     private OrderMapper orderMapper;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Spy
+    private ProductCatalogCache productCatalogCache = new ProductCatalogCache(100);
+    @Spy
+    private ProductPriceTable productPriceTable = new ProductPriceTable(null, 1000);
+    @Spy
+    private OptimisticRetry optimisticRetry =
+            new OptimisticRetry(new TransactionTemplate(mock(PlatformTransactionManager.class)), 3, 0, 0, 0.2, 10);
+    @Spy
+    private FlashSaleGate flashSaleGate = new FlashSaleGate(0);
+    @Spy
+    private CheckoutPipeline checkoutPipeline = new CheckoutPipeline(
+            new TransactionTemplate(mock(PlatformTransactionManager.class)), optimisticRetry,
+            mock(ProductRepository.class), false, 32, 0, 1, 100);
 
     @InjectMocks
     private OrderService orderService;
@@ -49,14 +77,7 @@ class OrderServiceTest {
                 "raw_pass",
                 LocalDate.of(1999, 11, 11)
         );
-        testProduct = new Product(
-                1L,
-                "Product1",
-                50.0,
-                10,
-                false,
-                null
-        );
+        testProduct = Product.builder().id(1L).name("Product1").price(50.0).quantity(10).isRestricted(false).build();
         testBonusCard = new BonusCard(
                 1L,
                 testUser,
@@ -88,7 +109,7 @@ class OrderServiceTest {
                 List.of(1L)
         );
         when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
-        when(productRepository.findById(1L)).thenReturn(Optional.of(testProduct));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
         when(orderRepository.findById(1L)).thenReturn(Optional.of(existingDraft));
         when(orderRepository.save(any(Order.class))).thenReturn(existingDraft);
         when(orderMapper.convertToDto(existingDraft)).thenReturn(newDto);
@@ -98,6 +119,38 @@ class OrderServiceTest {
         assertEquals(Integer.valueOf(3), existingDraft.getRequestedQuantities().get(1L));
         verify(orderRepository).save(existingDraft);
     }
+    @Test
+    void testSaveOrder_ReservesNewQuantitiesAndReleasesDroppedLines() {
+        Order existingDraft = new Order(1L, testUser, new HashMap<>(Map.of(1L, 2, 2L, 1)), LocalDate.now(), 120.0,
+                OrderStatus.DRAFT, 0.0);
+        OrderDto newDto = new OrderDto(1L, 1L, Map.of(1L, 3, 2L, 0), LocalDate.now(), null, OrderStatus.DRAFT, List.of());
+        Map<Long, Integer> held = Map.of(1L, 2, 2L, 1);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
+        when(orderRepository.findById(1L)).thenReturn(Optional.of(existingDraft));
+        when(orderRepository.save(existingDraft)).thenReturn(existingDraft);
+        when(stockReservationService.lockReservedBy(eq(1L), any())).thenReturn(held);
+
+        orderService.save(newDto);
+
+        verify(stockReservationService).reserve(1L, held, Map.of(1L, 3, 2L, 0));
+    }
+
+    @Test
+    void testSaveOrder_FailsWhenStockCannotBeReserved() {
+        OrderDto newDto = new OrderDto(1L, 1L, Map.of(1L, 3), LocalDate.now(), null, OrderStatus.DRAFT, List.of());
+        Order existingDraft = new Order(1L, testUser, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
+        when(orderRepository.findById(1L)).thenReturn(Optional.of(existingDraft));
+        when(orderRepository.save(existingDraft)).thenReturn(existingDraft);
+        when(stockReservationService.reserve(eq(1L), anyMap(), anyMap())).thenReturn(List.of(1L));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> orderService.save(newDto));
+        assertEquals("Not enough stock left to reserve product IDs: [1]", e.getMessage());
+        verify(orderMapper, never()).convertToDto(any(Order.class));
+    }
+
     @Test
     void testSaveOrder_WithBonusCardDeduction() {
         Map<Long, Integer> requestedQuantities = Map.of(1L, 2);
@@ -121,17 +174,229 @@ class OrderServiceTest {
         );
         when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
         when(bonusCardRepository.findByUserId(1L)).thenReturn(Optional.of(testBonusCard));
-        when(productRepository.findById(1L)).thenReturn(Optional.of(testProduct));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
         when(orderMapper.convertToEntity(any(OrderDto.class))).thenReturn(domainOrder);
         when(orderRepository.save(any(Order.class))).thenReturn(domainOrder);
         when(orderMapper.convertToDto(domainOrder)).thenReturn(inputDto);
         OrderDto result = orderService.save(inputDto);
         assertNotNull(result);
         assertEquals(70.0, result.getTotalCost(), "Incorrect total cost returned");
-        verify(productRepository, times(2)).findById(1L);
+        verify(productRepository, times(1)).findAllById(any());
+        verify(productRepository, never()).findById(anyLong());
         verify(orderRepository).save(any(Order.class));
     }
 
+    @Test
+    void testConfirmOrder_LoadsProductsOnceAndWritesStockInOneBatch() {
+        Product secondProduct = Product.builder()
+                .id(2L).name("Product2").price(20.0).quantity(5).isRestricted(false).build();
+        Map<Long, Integer> lines = new HashMap<>(Map.of(1L, 2, 2L, 1));
+        Order draft = new Order(1L, testUser, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+
+        when(orderRepository.findById(1L)).thenReturn(Optional.of(draft));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct, secondProduct));
+        when(productStockRepository.decrementAll(Map.of(1L, 2, 2L, 1), Map.of())).thenReturn(List.of(
+                new StockDecrement(1L, 2, true, 8, 20L),
+                new StockDecrement(2L, 1, true, 4, 21L)));
+        when(bonusCardRepository.findByUserId(1L)).thenReturn(Optional.empty());
+        when(orderRepository.save(draft)).thenReturn(draft);
+        when(orderMapper.convertToDto(draft)).thenReturn(new OrderDto());
+
+        orderService.updateStatus(1L, OrderStatus.PROCESSING);
+
+        assertEquals(120.0, draft.getTotalCost());
+        verify(productRepository, times(1)).findAllById(any());
+        verify(productStockRepository, times(1)).decrementAll(anyMap(), anyMap());
+        verify(productRepository, never()).findById(anyLong());
+        verify(productRepository, never()).saveAll(anyList());
+        verify(eventPublisher).publishEvent(argThat((ProductChangedEvent event) ->
+                event.getChanged().stream().map(Product::getQuantity).toList().equals(List.of(8, 4))));
+    }
+
+    @Test
+    void testConfirmOrder_RejectsWhenStockWasTakenConcurrently() {
+        Map<Long, Integer> lines = new HashMap<>(Map.of(1L, 2));
+        Order draft = new Order(1L, testUser, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+
+        when(orderRepository.findById(1L)).thenReturn(Optional.of(draft));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
+        when(productStockRepository.decrementAll(Map.of(1L, 2), Map.of()))
+                .thenReturn(List.of(new StockDecrement(1L, 2, false, null, null)));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> orderService.updateStatus(1L, OrderStatus.PROCESSING));
+        assertEquals("Not enough stock left for: Product1 (2 requested)", e.getMessage());
+        verify(orderRepository, never()).save(any(Order.class));
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+    }
+
+    @Test
+    void testConfirmOrder_ReleasesOwnReservationsAndClampsToStockOtherCartsHold() {
+        Map<Long, Integer> lines = new HashMap<>(Map.of(1L, 9));
+        Order draft = new Order(1L, testUser, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+
+        flashSaleGate.start(1L, 0, 1000);
+        when(orderRepository.findById(1L)).thenReturn(Optional.of(draft));
+        when(stockReservationService.releaseForCheckout(1L)).thenReturn(Map.of(1L, 9));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
+        when(stockReservationService.reservedStock(any())).thenReturn(Map.of(1L, 4));
+        when(productStockRepository.decrementAll(Map.of(1L, 6), Map.of()))
+                .thenReturn(List.of(new StockDecrement(1L, 6, true, 4, 20L)));
+        when(bonusCardRepository.findByUserId(1L)).thenReturn(Optional.empty());
+        when(orderRepository.save(draft)).thenReturn(draft);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> orderService.updateStatus(1L, OrderStatus.PROCESSING));
+        assertEquals("Warnings: [Clamped product 'Product1' from 9 to 6]", e.getMessage());
+        InOrder inOrder = inOrder(stockReservationService);
+        inOrder.verify(stockReservationService).releaseForCheckout(1L);
+        inOrder.verify(stockReservationService).reservedStock(any());
+        verify(orderRepository).save(draft);
+        // The three flash-sale units clamped away go back to the allocation.
+        assertEquals(3, flashSaleGate.stats().get(0).getAllocationLeft());
+    }
+
+    @Test
+    void testAddProductsToOrder_RejectsWhenStockCannotBeReserved() {
+        Order draft = new Order(1L, testUser, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+
+        when(orderRepository.findWithLinesById(1L)).thenReturn(Optional.of(draft));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
+        when(stockReservationService.reserve(1L, Map.of(), Map.of(1L, 3))).thenReturn(List.of(1L));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> orderService.addProductsToOrder(1L, Map.of(1L, 3)));
+        assertEquals("Not enough stock left to reserve: Product1", e.getMessage());
+        verify(orderRepository, never()).save(any(Order.class));
+    }
+
+    @Test
+    void testAddToCart_ChangesOnlyTheAddedLinesOfTheLoadedDraft() {
+        Map<Long, Integer> lines = new HashMap<>(Map.of(2L, 1));
+        Order draft = new Order(1L, testUser, lines, LocalDate.now(), 30.0, OrderStatus.DRAFT, 0.0);
+        OrderDto draftDto = new OrderDto(1L, 1L, lines, LocalDate.now(), 130.0, OrderStatus.DRAFT, List.of());
+
+        when(orderRepository.findWithLinesByUserEmailAndStatus("john.doe@example.com", OrderStatus.DRAFT))
+                .thenReturn(Optional.of(draft));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
+        when(orderRepository.save(draft)).thenReturn(draft);
+        when(orderMapper.convertToDto(draft)).thenReturn(draftDto);
+
+        assertEquals(draftDto, orderService.addToCart("john.doe@example.com", Map.of(1L, 2)));
+        assertEquals(Map.of(1L, 2, 2L, 1), draft.getRequestedQuantities());
+        assertEquals(130.0, draft.getTotalCost());
+        verify(stockReservationService).reserve(1L, Map.of(), Map.of(1L, 2));
+        verify(productRepository).findAllById(List.of(1L));
+        verify(orderRepository, never()).findById(anyLong());
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void testAddToCart_CreatesTheDraftOfAUserWithoutOne() {
+        Order draft = new Order(2L, testUser, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+
+        when(orderRepository.findWithLinesByUserEmailAndStatus("john.doe@example.com", OrderStatus.DRAFT))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(draft));
+        when(userRepository.findByEmail("john.doe@example.com")).thenReturn(Optional.of(testUser));
+        when(productRepository.findAllById(any())).thenReturn(List.of(testProduct));
+        when(orderRepository.save(draft)).thenReturn(draft);
+
+        orderService.addToCart("john.doe@example.com", Map.of(1L, 1));
+
+        verify(orderRepository).insertDraftIfAbsent(1L, LocalDate.now());
+        assertEquals(Map.of(1L, 1), draft.getRequestedQuantities());
+        assertEquals(50.0, draft.getTotalCost());
+    }
+
+    @Test
+    void testGetOrCreateDraftOrder_ReturnsTheExistingDraftWithoutInserting() {
+        Order draft = new Order(1L, testUser, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+        OrderDto draftDto = new OrderDto(1L, 1L, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.DRAFT, List.of());
+
+        when(orderRepository.findByUserIdAndStatus(1L, OrderStatus.DRAFT)).thenReturn(Optional.of(draft));
+        when(orderMapper.convertToDto(draft)).thenReturn(draftDto);
+
+        assertEquals(draftDto, orderService.getOrCreateDraftOrder(1L));
+        verify(orderRepository, never()).insertDraftIfAbsent(anyLong(), any());
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void testGetOrCreateDraftOrder_InsertsTheDraftAndReadsItBack() {
+        Order draft = new Order(2L, testUser, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.DRAFT, 0.0);
+        OrderDto draftDto = new OrderDto(2L, 1L, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.DRAFT, List.of());
+
+        when(orderRepository.findByUserIdAndStatus(1L, OrderStatus.DRAFT))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(draft));
+        when(orderMapper.convertToDto(draft)).thenReturn(draftDto);
+
+        assertEquals(draftDto, orderService.getOrCreateDraftOrder(1L));
+        verify(orderRepository).insertDraftIfAbsent(1L, LocalDate.now());
+        verify(orderRepository, never()).save(any(Order.class));
+    }
+
+    @Test
+    void testGetOrCreateDraftOrder_RejectsUnknownUser() {
+        when(orderRepository.findByUserIdAndStatus(99L, OrderStatus.DRAFT)).thenReturn(Optional.empty());
+        when(orderRepository.insertDraftIfAbsent(eq(99L), any()))
+                .thenThrow(new DataIntegrityViolationException("FK_orders_user"));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> orderService.getOrCreateDraftOrder(99L));
+        assertEquals("User not found with ID: 99", e.getMessage());
+    }
+
+    @Test
+    void testUpdateStatus_RejectsSecondDraftTurnedAwayByTheDatabase() {
+        Order canceled = new Order(2L, testUser, new HashMap<>(), LocalDate.now(), 0.0, OrderStatus.CANCELED, 0.0);
+
+        when(orderRepository.findById(2L)).thenReturn(Optional.of(canceled));
+        when(orderRepository.save(canceled)).thenThrow(new DataIntegrityViolationException("uk_orders_user_draft"));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> orderService.updateStatus(2L, OrderStatus.DRAFT));
+        assertEquals("User already has another DRAFT order. Cannot have two DRAFT orders at once.", e.getMessage());
+        verify(orderRepository, never()).existsByUserIdAndStatusIn(anyLong(), anyList());
+    }
+
+    @Test
+    void testSaveOrder_PricesFromPriceTableWithoutLoadingProducts() {
+        productPriceTable.onProductChanged(ProductChangedEvent.changed(Product.builder()
+                .id(1L).name("Product1").price(40.0).quantity(10).isRestricted(false).build()));
+        Map<Long, Integer> requestedQuantities = new HashMap<>(Map.of(1L, 2));
+        OrderDto inputDto = new OrderDto(null, 1L, requestedQuantities, null, null, OrderStatus.DRAFT, List.of());
+        Order domainOrder = new Order(null, testUser, requestedQuantities, null, null, OrderStatus.DRAFT, 0.0);
+
+        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(orderMapper.convertToEntity(inputDto)).thenReturn(domainOrder);
+        when(orderRepository.save(domainOrder)).thenReturn(domainOrder);
+        when(orderMapper.convertToDto(domainOrder)).thenReturn(inputDto);
+
+        orderService.save(inputDto);
+
+        assertEquals(80.0, domainOrder.getTotalCost());
+        verify(productRepository, never()).findAllById(any());
+    }
+
+    @Test
+    void testSaveOrder_AgeCheckUsesPriceTable() {
+        productPriceTable.onProductChanged(ProductChangedEvent.changed(Product.builder()
+                .id(1L).name("Whisky").price(40.0).quantity(10).isRestricted(true).allowedAge(99).build()));
+        Map<Long, Integer> requestedQuantities = new HashMap<>(Map.of(1L, 1));
+        OrderDto inputDto = new OrderDto(null, 1L, requestedQuantities, null, null, OrderStatus.DRAFT, List.of());
+        Order domainOrder = new Order(null, testUser, requestedQuantities, null, null, OrderStatus.DRAFT, 0.0);
+
+        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(orderMapper.convertToEntity(inputDto)).thenReturn(domainOrder);
+        when(productRepository.findAllById(any())).thenReturn(List.of(Product.builder()
+                .id(1L).name("Whisky").price(40.0).quantity(10).isRestricted(true).allowedAge(99).build()));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> orderService.save(inputDto));
+        assertEquals("User is too young to buy Whisky", e.getMessage());
+    }
+
     @Test
     void testFindById_Success() {
         Order order = new Order(
@@ -182,6 +447,7 @@ class OrderServiceTest {
 
         assertDoesNotThrow(() -> orderService.delete(1L));
         verify(orderRepository).existsById(1L);
+        verify(stockReservationService).release(1L);
         verify(orderRepository).deleteById(1L);
     }
 
@@ -0,0 +1,222 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductChangesDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import cz.cvut.fit.tjv.online_store.domain.Order;
+import cz.cvut.fit.tjv.online_store.domain.OrderStatus;
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.domain.Role;
+import cz.cvut.fit.tjv.online_store.domain.User;
+import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductStockRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductStockShardRepository;
+import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import cz.cvut.fit.tjv.online_store.service.catalog.CatalogVersion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not @Transactional: the two writers commit on their own, in the opposite order to the one they took
+// their change numbers in. The own database keeps other tests' products out of the change feed.
+@SpringBootTest(properties =
+        "spring.datasource.url=jdbc:h2:mem:change-sequencer;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000")
+@ActiveProfiles("test")
+class ProductChangeSequencerTest {
+
+    @Autowired
+    private ProductChangeSequencer productChangeSequencer;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductStockRepository productStockRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductStockShardRepository productStockShardRepository;
+
+    private final List<Product> products = new ArrayList<>();
+    private final List<Long> orderIds = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        orderRepository.deleteAllById(orderIds);
+        productStockShardRepository.deleteAll();
+        productRepository.deleteAllById(products.stream().map(Product::getId).toList());
+        userRepository.deleteAll(users);
+    }
+
+    @Test
+    void shouldNotLoseAWriteThatCommitsAfterALaterOne() throws Exception {
+        Product slow = productRepository.save(Product.builder()
+                .name("Slow").price(10.0).quantity(5).isRestricted(false).build());
+        Product fast = productRepository.save(Product.builder()
+                .name("Fast").price(10.0).quantity(5).isRestricted(false).build());
+        products.add(slow);
+        products.add(fast);
+        productChangeSequencer.sequence();
+        long since = productService.findChanges(0L, 100).getNextSince();
+
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // The slow writer takes its change number first and commits last.
+            Future<?> slowWriter = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                productStockRepository.decrementAll(Map.of(slow.getId(), 1));
+                written.countDown();
+                try {
+                    assertTrue(commit.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            assertTrue(written.await(10, TimeUnit.SECONDS));
+            productStockRepository.decrementAll(Map.of(fast.getId(), 1));
+
+            productChangeSequencer.sequence();
+            ProductChangesDto first = productService.findChanges(since, 100);
+            assertEquals(List.of(fast.getId()), first.getChanged().stream().map(ProductDto::getId).toList());
+
+            commit.countDown();
+            slowWriter.get(10, TimeUnit.SECONDS);
+            Product slowCommitted = productRepository.findById(slow.getId()).orElseThrow();
+            // Paging by change number would have skipped the slow write: it is below what the client has read.
+            assertTrue(slowCommitted.getChangeSeq() < first.getNextSince());
+
+            productChangeSequencer.sequence();
+            ProductChangesDto second = productService.findChanges(first.getNextSince(), 100);
+            assertEquals(List.of(slow.getId()), second.getChanged().stream().map(ProductDto::getId).toList());
+            assertEquals(4, second.getChanged().get(0).getQuantity());
+        } finally {
+            commit.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldChangeTheCatalogVersionOnCommitAndAgainOnceNumbered() {
+        Product product = productRepository.save(Product.builder()
+                .name("Product").price(10.0).quantity(5).isRestricted(false).build());
+        products.add(product);
+        productChangeSequencer.sequence();
+        CatalogVersion.Validators synced = catalogVersion.current();
+        assertTrue(synced.lastModified() >= 0);
+
+        productService.update(product.getId(), new ProductDto(null, "Product", 12.0, 5, false, null));
+        CatalogVersion.Validators committed = catalogVersion.current();
+        assertNotEquals(synced.etag(), committed.etag());
+        assertEquals(-1, committed.lastModified());
+
+        productChangeSequencer.sequence();
+        CatalogVersion.Validators numbered = catalogVersion.current();
+        assertNotEquals(committed.etag(), numbered.etag());
+        assertNotEquals(synced.etag(), numbered.etag());
+        assertTrue(numbered.lastModified() >= synced.lastModified());
+        assertEquals(numbered, catalogVersion.current());
+    }
+
+    @Test
+    void shouldPickUpWritesOfOtherNodesOnTheNextRun() {
+        Product product = productRepository.save(Product.builder()
+                .name("Product").price(10.0).quantity(5).isRestricted(false).build());
+        products.add(product);
+        productChangeSequencer.sequence();
+        CatalogVersion.Validators synced = catalogVersion.current();
+
+        // No event on this node, as for a write committed by another one.
+        productStockRepository.decrementAll(Map.of(product.getId(), 1));
+        assertEquals(synced, catalogVersion.current());
+
+        productChangeSequencer.sequence();
+        assertNotEquals(synced.etag(), catalogVersion.current().etag());
+    }
+
+    @Test
+    void shouldReportAShardedCheckoutInTheVersionAndTheChangeFeed() {
+        Product hot = productRepository.save(Product.builder()
+                .name("Hot").price(10.0).quantity(10).isRestricted(false).build());
+        products.add(hot);
+        productService.setStockShards(hot.getId(), 4);
+        User user = userRepository.save(new User(null, "Ann", "Lee", "ann.lee@example.com", "password",
+                LocalDate.of(1990, 1, 1), Role.CUSTOMER));
+        users.add(user);
+        Map<Long, Integer> lines = new HashMap<>(Map.of(hot.getId(), 2));
+        orderIds.add(orderRepository.save(new Order(null, user, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT)).getId());
+        productChangeSequencer.sequence();
+        long since = productService.findChanges(0L, 100).getNextSince();
+        CatalogVersion.Validators synced = catalogVersion.current();
+
+        // Takes stock from the shards only; the product row is not written.
+        long productChangeSeq = productRepository.findById(hot.getId()).orElseThrow().getChangeSeq();
+        orderService.updateStatus(orderIds.get(0), OrderStatus.PROCESSING);
+        assertEquals(productChangeSeq, productRepository.findById(hot.getId()).orElseThrow().getChangeSeq());
+        CatalogVersion.Validators committed = catalogVersion.current();
+        assertNotEquals(synced.etag(), committed.etag());
+
+        productChangeSequencer.sequence();
+        assertNotEquals(committed.etag(), catalogVersion.current().etag());
+        ProductChangesDto changes = productService.findChanges(since, 100);
+        assertEquals(List.of(hot.getId()), changes.getChanged().stream().map(ProductDto::getId).toList());
+        assertEquals(8, changes.getChanged().get(0).getQuantity());
+
+        // Numbered once: the next run finds nothing left to report.
+        productChangeSequencer.sequence();
+        assertEquals(List.of(), productService.findChanges(changes.getNextSince(), 100).getChanged());
+    }
+
+    @Test
+    void shouldPickUpAShardedCheckoutOfAnotherNode() {
+        Product hot = productRepository.save(Product.builder()
+                .name("Hot").price(10.0).quantity(10).isRestricted(false).build());
+        products.add(hot);
+        productService.setStockShards(hot.getId(), 4);
+        productChangeSequencer.sequence();
+        long since = productService.findChanges(0L, 100).getNextSince();
+        CatalogVersion.Validators synced = catalogVersion.current();
+
+        // No event on this node, as for a checkout confirmed by another one.
+        productStockRepository.decrementAll(Map.of(hot.getId(), 1), Map.of(hot.getId(), 4));
+        productChangeSequencer.sequence();
+        assertNotEquals(synced.etag(), catalogVersion.current().etag());
+        ProductChangesDto changes = productService.findChanges(since, 100);
+        assertEquals(List.of(hot.getId()), changes.getChanged().stream().map(ProductDto::getId).toList());
+        assertEquals(9, changes.getChanged().get(0).getQuantity());
+    }
+}
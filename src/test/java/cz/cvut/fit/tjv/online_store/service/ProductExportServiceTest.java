@@ -0,0 +1,85 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "online-store.export.fetch-size=1")
+@ActiveProfiles("test")
+class ProductExportServiceTest {
+
+    @Autowired
+    private ProductExportService productExportService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private Product chair;
+    private Product wine;
+
+    @BeforeEach
+    void setUp() {
+        chair = productRepository.save(Product.builder()
+                .name("Export Chair, oak").price(1200.0).quantity(3).isRestricted(false).build());
+        wine = productRepository.save(Product.builder()
+                .name("Export Wine").price(250.0).quantity(4).isRestricted(true).allowedAge(18).build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        productRepository.deleteAll(List.of(chair, wine));
+    }
+
+    @Test
+    void testExportNdjson_ShouldWriteOneProductPerLine() throws Exception {
+        List<String> lines = export(ProductExportFormat.NDJSON).lines()
+                .filter(line -> line.contains("Export "))
+                .toList();
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"id\":" + chair.getId()));
+        assertTrue(lines.get(1).contains("\"allowedAge\":18"));
+    }
+
+    @Test
+    void testExportJson_ShouldWriteArray() throws Exception {
+        String json = export(ProductExportFormat.JSON);
+
+        assertTrue(json.startsWith("["));
+        assertTrue(json.endsWith("]"));
+        assertTrue(json.contains("\"name\":\"Export Wine\""));
+    }
+
+    @Test
+    void testExportCsv_ShouldQuoteFieldsWithCommas() throws Exception {
+        String csv = export(ProductExportFormat.CSV);
+
+        assertTrue(csv.startsWith("id,name,price,quantity,isRestricted,allowedAge\n"));
+        assertTrue(csv.contains(chair.getId() + ",\"Export Chair, oak\",1200.0,3,false,\n"));
+    }
+
+    @Test
+    void testToCsvRow_ShouldEscapeQuotes() {
+        ProductDto product = new ProductDto(7L, "The \"Best\" lamp", 10.0, 1, true, 18);
+
+        assertEquals("7,\"The \"\"Best\"\" lamp\",10.0,1,true,18", ProductExportService.toCsvRow(product));
+    }
+
+    private String export(ProductExportFormat format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        productExportService.export(format, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
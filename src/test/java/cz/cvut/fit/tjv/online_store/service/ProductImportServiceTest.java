@@ -0,0 +1,111 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductImportReportDto;
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.repository.ProductPriceHistoryRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "online-store.import.batch-size=2")
+@ActiveProfiles("test")
+class ProductImportServiceTest {
+
+    @Autowired
+    private ProductImportService productImportService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductPriceHistoryRepository productPriceHistoryRepository;
+
+    @AfterEach
+    void tearDown() {
+        productRepository.deleteAll(importedProducts());
+    }
+
+    @Test
+    void testImportNdjson_ShouldInsertValidRowsAndReportInvalidOnes() throws Exception {
+        String body = """
+                {"name":"Import Bread","price":30.0,"quantity":10}
+                {"name":"Import Wine","price":250.0,"quantity":4,"allowedAge":18}
+
+                {"name":"Import Broken","price":-1.0,"quantity":1}
+                not json
+                {"name":"Import Milk","price":25.0,"quantity":6}
+                """;
+
+        ProductImportReportDto report = productImportService.importProducts(stream(body), ProductImportFormat.NDJSON);
+
+        assertEquals(5, report.getProcessed());
+        assertEquals(3, report.getImported());
+        assertEquals(2, report.getFailed());
+        assertEquals(List.of(4L, 5L), report.getErrors().stream().map(ProductImportReportDto.RowError::getLine).toList());
+        assertEquals("Price must be positive", report.getErrors().get(0).getMessage());
+
+        List<Product> imported = importedProducts();
+        assertEquals(3, imported.size());
+        Product wine = imported.stream().filter(p -> p.getName().equals("Import Wine")).findFirst().orElseThrow();
+        assertTrue(wine.getIsRestricted());
+        assertEquals(18, wine.getAllowedAge());
+        assertEquals(250.0, productPriceHistoryRepository
+                .findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(wine.getId(), Instant.now())
+                .orElseThrow()
+                .getPrice());
+    }
+
+    @Test
+    void testImportCsv_ShouldHonourHeaderOrderAndQuotes() throws Exception {
+        String body = """
+                quantity,name,price,allowedAge
+                3,"Import Chair, oak",1200,
+                2,"Import ""Best"" Table",abc,
+                """;
+
+        ProductImportReportDto report = productImportService.importProducts(stream(body), ProductImportFormat.CSV);
+
+        assertEquals(2, report.getProcessed());
+        assertEquals(1, report.getImported());
+        assertEquals(3L, report.getErrors().get(0).getLine());
+
+        Product chair = importedProducts().get(0);
+        assertEquals("Import Chair, oak", chair.getName());
+        assertEquals(1200.0, chair.getPrice());
+        assertFalse(chair.getIsRestricted());
+        assertNull(chair.getAllowedAge());
+    }
+
+    @Test
+    void testImportCsv_ShouldRejectUnknownColumn() {
+        assertThrows(IllegalArgumentException.class, () -> productImportService.importProducts(
+                stream("name,price,quantity,colour\n"), ProductImportFormat.CSV));
+    }
+
+    @Test
+    void testParseCsvLine_ShouldUnescapeDoubledQuotes() {
+        assertEquals(List.of("a", "b \"c\"", ""), ProductImportService.parseCsvLine("a,\"b \"\"c\"\"\","));
+    }
+
+    private List<Product> importedProducts() {
+        return StreamSupport.stream(productRepository.findAll().spliterator(), false)
+                .filter(p -> p.getName().startsWith("Import "))
+                .toList();
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,73 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.domain.*;
+import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "online-store.catalog.purge.batch-size=1")
+@ActiveProfiles("test")
+@Transactional
+class ProductPurgeJobTest {
+
+    @Autowired
+    private ProductPurgeJob productPurgeJob;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @BeforeEach
+    void setUp() {
+        orderRepository.deleteAll();
+        productRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void shouldPurgeOnlyDeletedProductsNoOrderRefersTo() {
+        User user = userRepository.save(new User(null, "John", "Doe", "john.doe@example.com", "password", Role.CUSTOMER));
+        Product ordered = productRepository.save(Product.builder()
+                .name("Ordered").price(100.0).quantity(10).isRestricted(false).build());
+        Product unused = productRepository.save(Product.builder()
+                .name("Unused").price(50.0).quantity(10).isRestricted(false).build());
+        Product alsoUnused = productRepository.save(Product.builder()
+                .name("Also unused").price(20.0).quantity(10).isRestricted(false).build());
+        Product live = productRepository.save(Product.builder()
+                .name("Live").price(10.0).quantity(10).isRestricted(false).build());
+        Map<Long, Integer> lines = new HashMap<>();
+        lines.put(ordered.getId(), 1);
+        orderRepository.save(new Order(null, user, lines, LocalDate.now(), 100.0, OrderStatus.PROCESSING));
+
+        productService.delete(ordered.getId());
+        productService.delete(unused.getId());
+        productService.delete(alsoUnused.getId());
+
+        assertEquals(2, productPurgeJob.purge());
+        assertTrue(productRepository.existsById(ordered.getId()));
+        assertTrue(productRepository.existsById(live.getId()));
+        assertFalse(productRepository.existsById(unused.getId()));
+        assertFalse(productRepository.existsById(alsoUnused.getId()));
+        assertEquals(0, productPurgeJob.purge());
+    }
+}
@@ -1,15 +1,35 @@
 package cz.cvut.fit.tjv.online_store.service;
 
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductChangesDto;
 import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductPageDto;
 import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.domain.ProductPriceHistory;
+import cz.cvut.fit.tjv.online_store.domain.ProductTombstone;
+import cz.cvut.fit.tjv.online_store.repository.ProductFilter;
+import cz.cvut.fit.tjv.online_store.repository.ProductPriceHistoryRepository;
 import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductSort;
+import cz.cvut.fit.tjv.online_store.repository.ProductStockShardRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductTombstoneRepository;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductCatalogCache;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductChangedEvent;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductLookupCoalescer;
+import cz.cvut.fit.tjv.online_store.service.catalog.ProductSearchIndex;
 import cz.cvut.fit.tjv.online_store.service.mapper.ProductMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -20,9 +40,30 @@ class ProductServiceTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private ProductTombstoneRepository productTombstoneRepository;
+
+    @Mock
+    private ProductPriceHistoryRepository productPriceHistoryRepository;
+
+    @Mock
+    private ProductStockShardRepository productStockShardRepository;
+
     @Mock
     private ProductMapper productMapper;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private ProductSearchIndex productSearchIndex;
+
+    @Spy
+    private ProductCatalogCache productCatalogCache = new ProductCatalogCache(100);
+
+    @Spy
+    private ProductLookupCoalescer productLookupCoalescer = new ProductLookupCoalescer(1000);
+
     @InjectMocks
     private ProductService productService;
 
@@ -33,7 +74,8 @@ class ProductServiceTest {
 
     @Test
     void shouldFindProductByIdSuccessfully() {
-        Product product = new Product(1L, "Product1", 100.0, 10, false, null);
+        Product product = Product.builder()
+                .id(1L).name("Product1").price(100.0).quantity(10).isRestricted(false).build();
         ProductDto productDto = new ProductDto(1L, "Product1", 100.0, 10, false, null);
 
         when(productRepository.findById(1L)).thenReturn(Optional.of(product));
@@ -47,6 +89,23 @@ class ProductServiceTest {
         verify(productMapper).convertToDto(product);
     }
 
+    @Test
+    void shouldServeRepeatedLookupsFromCache() {
+        Product product = Product.builder()
+                .id(1L).name("Product1").price(100.0).quantity(10).isRestricted(false).build();
+        ProductDto productDto = new ProductDto(1L, "Product1", 100.0, 10, false, null);
+
+        when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+        when(productMapper.convertToDto(product)).thenReturn(productDto);
+
+        productService.findById(1L);
+        productService.findById(1L);
+
+        verify(productRepository, times(1)).findById(1L);
+        assertEquals(1, productCatalogCache.stats().getHits());
+        assertEquals(1, productCatalogCache.stats().getMisses());
+    }
+
     @Test
     void shouldThrowExceptionWhenProductNotFound() {
         when(productRepository.findById(1L)).thenReturn(Optional.empty());
@@ -63,7 +122,8 @@ class ProductServiceTest {
 
     @Test
     void shouldSaveProductSuccessfully() {
-        Product productEntity = new Product(1L, "Product1", 100.0, 10, false, null);
+        Product productEntity = Product.builder()
+                .id(1L).name("Product1").price(100.0).quantity(10).isRestricted(false).build();
         ProductDto productDto = new ProductDto(1L, "Product1", 100.0, 10, false, null);
 
         when(productMapper.convertToEntity(productDto)).thenReturn(productEntity);
@@ -85,9 +145,12 @@ class ProductServiceTest {
         ProductDto updatedProductDto =
                 new ProductDto(productId, "UpdatedProduct", 150.0, 5, false, null);
         Product updatedProductEntity =
-                new Product(productId, "UpdatedProduct", 150.0, 5, false, null);
+                Product.builder().id(productId).name("UpdatedProduct").price(150.0).quantity(5).isRestricted(false).build();
 
-        when(productRepository.existsById(productId)).thenReturn(true);
+        when(productRepository.findById(productId))
+                .thenReturn(Optional.of(Product.builder()
+                        .id(productId).name("Product").price(100.0).quantity(10).isRestricted(false)
+                        .changeSeq(4L).version(3L).build()));
         when(productMapper.convertToEntity(updatedProductDto)).thenReturn(updatedProductEntity);
         when(productRepository.save(updatedProductEntity)).thenReturn(updatedProductEntity);
         when(productMapper.convertToDto(updatedProductEntity)).thenReturn(updatedProductDto);
@@ -99,8 +162,9 @@ class ProductServiceTest {
         assertEquals(150.0, result.getPrice());
         assertEquals(5, result.getQuantity());
         assertFalse(result.getIsRestricted());
+        assertEquals(3L, updatedProductEntity.getVersion());
 
-        verify(productRepository, times(1)).existsById(productId);
+        verify(productRepository, times(1)).findById(productId);
         verify(productMapper, times(1)).convertToEntity(updatedProductDto);
         verify(productRepository, times(1)).save(updatedProductEntity);
         verify(productMapper, times(1)).convertToDto(updatedProductEntity);
@@ -112,7 +176,7 @@ class ProductServiceTest {
         ProductDto updatedProductDto =
                 new ProductDto(productId, "UpdatedProduct", 150.0, 5, false, null);
 
-        when(productRepository.existsById(productId)).thenReturn(false);
+        when(productRepository.findById(productId)).thenReturn(Optional.empty());
 
         IllegalArgumentException exception = assertThrows(
                 IllegalArgumentException.class,
@@ -120,28 +184,112 @@ class ProductServiceTest {
         );
         assertEquals("Product not found", exception.getMessage());
 
-        verify(productRepository).existsById(productId);
+        verify(productRepository).findById(productId);
         verifyNoInteractions(productMapper);
         verifyNoMoreInteractions(productRepository);
     }
 
     @Test
-    void shouldDeleteProductSuccessfully() {
+    void shouldReportStockOfShardedProductAsSumOfItsShards() {
+        Product hot = new Product(1L, "Hot", 10.0, 0, false, null, 1L, null, true, 0L, 4);
+        Product plain = Product.builder().id(2L).name("Plain").price(10.0).quantity(7).isRestricted(false).build();
+        when(productRepository.findByActiveTrue()).thenReturn(List.of(hot, plain));
+        when(productMapper.convertManyToDto(List.of(hot, plain))).thenReturn(List.of(
+                new ProductDto(1L, "Hot", 10.0, 0, false, null),
+                new ProductDto(2L, "Plain", 10.0, 7, false, null)));
+        when(productStockShardRepository.findShardedStock(List.of(1L))).thenReturn(Map.of(1L, 37));
+
+        List<ProductDto> result = (List<ProductDto>) productService.findAll();
+
+        assertEquals(37, result.get(0).getQuantity());
+        assertEquals(7, result.get(1).getQuantity());
+    }
+
+    @Test
+    void shouldRejectInvalidStockShardCount() {
+        assertThrows(IllegalArgumentException.class, () -> productService.setStockShards(1L, 0));
+        assertThrows(IllegalArgumentException.class, () -> productService.setStockShards(1L, ProductService.MAX_STOCK_SHARDS + 1));
+        verifyNoInteractions(productStockShardRepository);
+    }
+
+    @Test
+    void shouldSoftDeleteProduct() {
         Long productId = 1L;
+        Product product = Product.builder()
+                .id(productId).name("Product").price(100.0).quantity(10).isRestricted(false).build();
 
-        when(productRepository.existsById(productId)).thenReturn(true);
+        when(productRepository.findById(productId)).thenReturn(Optional.of(product));
 
         productService.delete(productId);
 
-        verify(productRepository).existsById(productId);
-        verify(productRepository).deleteById(productId);
+        verify(productRepository).save(argThat(Product::isDeleted));
+        verify(productRepository, never()).deleteById(anyLong());
+        verify(productTombstoneRepository).save(argThat(tombstone -> tombstone.getProductId().equals(productId)));
+        verify(eventPublisher).publishEvent(any(ProductChangedEvent.class));
+    }
+
+    @Test
+    void shouldAppendPriceHistoryOnlyWhenPriceChanges() {
+        Long productId = 1L;
+        ProductDto dto = new ProductDto(productId, "Product", 150.0, 5, false, null);
+        Product entity = Product.builder()
+                .id(productId).name("Product").price(150.0).quantity(5).isRestricted(false).build();
+        when(productRepository.findById(productId)).thenReturn(Optional.of(Product.builder()
+                .id(productId).name("Product").price(150.0).quantity(5).isRestricted(false).build()));
+        when(productMapper.convertToEntity(dto)).thenReturn(entity);
+        when(productRepository.save(entity)).thenReturn(entity);
+        when(productPriceHistoryRepository.findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(eq(productId), any()))
+                .thenReturn(Optional.of(new ProductPriceHistory(1L, productId, 150.0, Instant.EPOCH)));
+
+        productService.update(productId, dto);
+        verify(productPriceHistoryRepository, never()).save(any());
+
+        entity.setPrice(120.0);
+        productService.update(productId, dto);
+        verify(productPriceHistoryRepository).save(argThat(entry -> entry.getPrice() == 120.0 && entry.getProductId().equals(productId)));
+    }
+
+    @Test
+    void shouldReportMissingHistoricalPrice() {
+        when(productPriceHistoryRepository.findFirstByProductIdAndValidFromLessThanEqualOrderByValidFromDescIdDesc(eq(1L), any()))
+                .thenReturn(Optional.empty());
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> productService.findPriceAt(1L, Instant.EPOCH));
+        assertTrue(exception.getMessage().startsWith("Price not found for product 1"));
+    }
+
+    @Test
+    void shouldMergeChangesAndTombstonesInChangeOrder() {
+        Product first = new Product(1L, "A", 10.0, 1, false, null, 5L, 11L, true, 0L, 0);
+        Product third = new Product(2L, "B", 20.0, 1, false, null, 9L, 13L, true, 0L, 0);
+        Product fourth = new Product(3L, "C", 30.0, 1, false, null, 8L, 14L, true, 0L, 0);
+        when(productRepository.findByActiveTrueAndSyncSeqGreaterThanOrderBySyncSeqAsc(eq(10L), any(Limit.class)))
+                .thenReturn(List.of(first, third, fourth));
+        when(productTombstoneRepository.findBySyncSeqGreaterThanOrderBySyncSeqAsc(eq(10L), any(Limit.class)))
+                .thenReturn(List.of(new ProductTombstone(6L, 7L, 12L)));
+        when(productMapper.convertManyToDto(List.of(first, third))).thenReturn(List.of(
+                new ProductDto(1L, "A", 10.0, 1, false, null),
+                new ProductDto(2L, "B", 20.0, 1, false, null)));
+
+        ProductChangesDto changes = productService.findChanges(10L, 3);
+
+        assertEquals(List.of(1L, 2L), changes.getChanged().stream().map(ProductDto::getId).toList());
+        assertEquals(List.of(7L), changes.getRemovedIds());
+        assertEquals(13L, changes.getNextSince());
+        assertTrue(changes.isHasMore());
+    }
+
+    @Test
+    void shouldRejectNegativeSince() {
+        assertThrows(IllegalArgumentException.class, () -> productService.findChanges(-1L, null));
     }
 
     @Test
     void shouldThrowExceptionWhenDeletingNonExistentProduct() {
         Long productId = 1L;
 
-        when(productRepository.existsById(productId)).thenReturn(false);
+        when(productRepository.findById(productId)).thenReturn(Optional.empty());
 
         IllegalArgumentException exception = assertThrows(
                 IllegalArgumentException.class,
@@ -149,7 +297,98 @@ class ProductServiceTest {
         );
         assertEquals("Product not found", exception.getMessage());
 
-        verify(productRepository).existsById(productId);
-        verify(productRepository, never()).deleteById(anyLong());
+        verify(productRepository, never()).save(any(Product.class));
+        verifyNoInteractions(productTombstoneRepository);
+    }
+
+    @Test
+    void shouldHideDeletedProductFromLookups() {
+        Product deleted = Product.builder()
+                .id(1L).name("Product").price(100.0).quantity(10).isRestricted(false).changeSeq(5L).active(false).build();
+        when(productRepository.findById(1L)).thenReturn(Optional.of(deleted));
+
+        assertThrows(IllegalArgumentException.class, () -> productService.findById(1L));
+        assertThrows(IllegalArgumentException.class, () -> productService.delete(1L));
+    }
+
+    @Test
+    void shouldReturnPageWithCursorWhenMoreProductsExist() {
+        Product first = Product.builder().id(1L).name("Product1").price(10.0).quantity(5).isRestricted(false).build();
+        Product second = Product.builder().id(2L).name("Product2").price(20.0).quantity(5).isRestricted(false).build();
+        Product third = Product.builder().id(3L).name("Product3").price(30.0).quantity(5).isRestricted(false).build();
+        ProductFilter filter = new ProductFilter();
+
+        when(productRepository.findPage(filter, ProductSort.PRICE, null, null, 3))
+                .thenReturn(new ArrayList<>(List.of(first, second, third)));
+        when(productMapper.convertManyToDto(List.of(first, second))).thenReturn(List.of(
+                new ProductDto(1L, "Product1", 10.0, 5, false, null),
+                new ProductDto(2L, "Product2", 20.0, 5, false, null)));
+
+        ProductPageDto page = productService.findPage(filter, ProductSort.PRICE, null, 2);
+
+        assertTrue(page.isHasMore());
+        assertEquals(2, page.getItems().size());
+        assertNotNull(page.getNextCursor());
+
+        when(productRepository.findPage(filter, ProductSort.PRICE, 20.0, 2L, 3))
+                .thenReturn(new ArrayList<>(List.of(third)));
+        when(productMapper.convertManyToDto(List.of(third)))
+                .thenReturn(List.of(new ProductDto(3L, "Product3", 30.0, 5, false, null)));
+
+        ProductPageDto nextPage = productService.findPage(filter, ProductSort.PRICE, page.getNextCursor(), 2);
+
+        assertFalse(nextPage.isHasMore());
+        assertNull(nextPage.getNextCursor());
+        verify(productRepository).findPage(filter, ProductSort.PRICE, 20.0, 2L, 3);
+    }
+
+    @Test
+    void shouldRejectPageSizeAboveMaximum() {
+        IllegalArgumentException exception = assertThrows(
+                IllegalArgumentException.class,
+                () -> productService.findPage(new ProductFilter(), ProductSort.ID, null, ProductService.MAX_PAGE_SIZE + 1)
+        );
+        assertEquals("Limit must be between 1 and " + ProductService.MAX_PAGE_SIZE, exception.getMessage());
+        verifyNoInteractions(productRepository);
+    }
+
+    @Test
+    void shouldRejectCursorOfDifferentSortOrder() {
+        Product first = Product.builder().id(1L).name("Product1").price(10.0).quantity(5).isRestricted(false).build();
+        Product second = Product.builder().id(2L).name("Product2").price(20.0).quantity(5).isRestricted(false).build();
+        ProductFilter filter = new ProductFilter();
+
+        when(productRepository.findPage(filter, ProductSort.ID, null, null, 2))
+                .thenReturn(new ArrayList<>(List.of(first, second)));
+        String cursor = productService.findPage(filter, ProductSort.ID, null, 1).getNextCursor();
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> productService.findPage(filter, ProductSort.PRICE, cursor, 1)
+        );
+    }
+
+    @Test
+    void shouldReturnSearchResultsInRankOrder() {
+        Product laptop = Product.builder().id(1L).name("Laptop").price(20000.0).quantity(2).isRestricted(false).build();
+        Product laptopBag = Product.builder()
+                .id(2L).name("Laptop bag").price(900.0).quantity(5).isRestricted(false).build();
+        ProductDto laptopDto = new ProductDto(1L, "Laptop", 20000.0, 2, false, null);
+        ProductDto laptopBagDto = new ProductDto(2L, "Laptop bag", 900.0, 5, false, null);
+
+        when(productSearchIndex.search("lap", 10)).thenReturn(List.of(2L, 1L));
+        when(productRepository.findAllById(any())).thenReturn(List.of(laptop, laptopBag));
+        when(productMapper.convertToDto(laptop)).thenReturn(laptopDto);
+        when(productMapper.convertToDto(laptopBag)).thenReturn(laptopBagDto);
+
+        List<ProductDto> result = productService.search("lap", null);
+
+        assertEquals(List.of(2L, 1L), result.stream().map(ProductDto::getId).toList());
+    }
+
+    @Test
+    void shouldRejectBlankSearchQuery() {
+        assertThrows(IllegalArgumentException.class, () -> productService.search(" ", null));
+        verifyNoInteractions(productSearchIndex);
     }
 }
\ No newline at end of file
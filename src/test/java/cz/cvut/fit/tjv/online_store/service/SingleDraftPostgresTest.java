@@ -0,0 +1,140 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.PostgresContainers;
+import cz.cvut.fit.tjv.online_store.domain.*;
+import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.context.ImportTestcontainers;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// uk_orders_user_draft is a PostgreSQL partial index, so the single-draft rule is only enforced there.
+// Skipped where Docker is not available.
+@SpringBootTest
+@ActiveProfiles({"test", "test-postgres"})
+@Testcontainers(disabledWithoutDocker = true)
+@ImportTestcontainers(PostgresContainers.class)
+class SingleDraftPostgresTest {
+    private static final int CALLERS = 8;
+
+    @Autowired
+    private SingleDraftMigration singleDraftMigration;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final List<Product> products = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM StockReservation");
+        jdbcTemplate.update("DELETE FROM ProductReservedStock");
+        users.forEach(user -> orderRepository.deleteAll(orderRepository.findByUserId(user.getId())));
+        productRepository.deleteAll(products);
+        userRepository.deleteAll(users);
+    }
+
+    @Test
+    void shouldLetOnlyOneOfConcurrentCallersCreateTheDraft() throws Exception {
+        User user = createUser("concurrent");
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Callable<Integer>> inserts = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            inserts.add(() -> {
+                start.await();
+                return orderRepository.insertDraftIfAbsent(user.getId(), LocalDate.now());
+            });
+        }
+        int created = 0;
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            inserts.forEach(insert -> results.add(executor.submit(insert)));
+            start.countDown();
+            for (Future<Integer> result : results) {
+                created += result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, created);
+        assertEquals(1, drafts(user).size());
+    }
+
+    @Test
+    void shouldCancelOlderDraftsAndReleaseTheirReservationsOnce() {
+        User user = createUser("migrated");
+        Product bread = productRepository.save(Product.builder()
+                .name("Migrated Bread").price(10.0).quantity(10).isRestricted(false).build());
+        products.add(bread);
+        // Drafts from before the index: drop it, and forget the migration ran, to seed two of them.
+        jdbcTemplate.execute("DROP INDEX uk_orders_user_draft");
+        jdbcTemplate.update("DELETE FROM SchemaMigration WHERE name = ?", SingleDraftMigration.NAME);
+        Long older = saveDraft(user, bread, 3);
+        Long newer = saveDraft(user, bread, 2);
+        stockReservationService.reserve(older, Map.of(bread.getId(), 3));
+        stockReservationService.reserve(newer, Map.of(bread.getId(), 2));
+
+        assertEquals(1, singleDraftMigration.migrate());
+        assertEquals(-1, singleDraftMigration.migrate());
+
+        assertEquals(OrderStatus.CANCELED, orderRepository.findById(older).orElseThrow().getStatus());
+        assertEquals(List.of(newer), drafts(user));
+        assertEquals(Map.of(), stockReservationService.reservedBy(older));
+        assertEquals(Map.of(bread.getId(), 2), stockReservationService.reservedStock(List.of(bread.getId())));
+        assertThrows(DataIntegrityViolationException.class, () -> saveDraft(user, bread, 1));
+    }
+
+    private User createUser(String name) {
+        User user = userRepository.save(new User(null, "Ann", name, "ann." + name + "@example.com", "password",
+                LocalDate.of(1990, 1, 1), Role.CUSTOMER));
+        users.add(user);
+        return user;
+    }
+
+    private Long saveDraft(User user, Product product, int quantity) {
+        Map<Long, Integer> lines = new HashMap<>(Map.of(product.getId(), quantity));
+        return orderRepository.save(new Order(null, user, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT)).getId();
+    }
+
+    private List<Long> drafts(User user) {
+        return orderRepository.findByUserId(user.getId()).stream()
+                .filter(order -> order.getStatus() == OrderStatus.DRAFT)
+                .map(Order::getId)
+                .toList();
+    }
+}
@@ -0,0 +1,58 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SparseFieldsTest {
+
+    private static final Map<String, String> AVAILABLE = SparseFields.paths(
+            "id", "id",
+            "userId", "user.id",
+            "total", "totalCost",
+            "lines", null);
+
+    @Test
+    void testParse_ShouldRejectUnknownField() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> SparseFields.parse("id,password", AVAILABLE));
+        assertEquals("Unknown field: password. Available fields: id, userId, total, lines", exception.getMessage());
+    }
+
+    @Test
+    void testParse_ShouldRejectEmptySelection() {
+        assertThrows(IllegalArgumentException.class, () -> SparseFields.parse(" , ", AVAILABLE));
+        assertThrows(IllegalArgumentException.class, () -> SparseFields.parse(null, AVAILABLE));
+    }
+
+    @Test
+    void testColumnsIncluding_ShouldAddInternalColumnsAndSkipComputedFields() {
+        SparseFields fields = SparseFields.parse("total, lines", AVAILABLE);
+
+        Map<String, String> columns = fields.columnsIncluding("id");
+
+        assertEquals(List.of("id", "total"), new ArrayList<>(columns.keySet()));
+        assertEquals("totalCost", columns.get("total"));
+        assertTrue(fields.contains("lines"));
+        assertFalse(fields.contains("userId"));
+    }
+
+    @Test
+    void testStrip_ShouldDropInternalColumnsAndKeepRequestedOrder() {
+        SparseFields fields = SparseFields.parse("total,userId", AVAILABLE);
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 1L);
+        row.put("userId", 7L);
+        row.put("total", 120.0);
+
+        List<Map<String, Object>> stripped = fields.strip(List.of(row));
+
+        assertEquals(List.of("total", "userId"), new ArrayList<>(stripped.get(0).keySet()));
+        assertEquals(120.0, stripped.get(0).get("total"));
+    }
+}
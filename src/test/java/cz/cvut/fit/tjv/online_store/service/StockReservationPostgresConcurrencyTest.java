@@ -0,0 +1,138 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.PostgresContainers;
+import cz.cvut.fit.tjv.online_store.domain.*;
+import cz.cvut.fit.tjv.online_store.repository.OrderRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.context.ImportTestcontainers;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// A cart reserving and a checkout buying the same product, started together many times. Under READ COMMITTED
+// each of them reads what the other writes without seeing it before it commits, so only the lock order makes
+// one of them wait; H2 locks whole statements differently and cannot show the race.
+@SpringBootTest
+@ActiveProfiles({"test", "test-postgres"})
+@Testcontainers(disabledWithoutDocker = true)
+@ImportTestcontainers(PostgresContainers.class)
+class StockReservationPostgresConcurrencyTest {
+    private static final int ROUNDS = 20;
+    private static final long FIRST_CART = 9101L;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final List<Long> orderIds = new ArrayList<>();
+    private final List<Long> productIds = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM StockReservation");
+        jdbcTemplate.update("DELETE FROM ProductReservedStock");
+        jdbcTemplate.update("DELETE FROM ProductStockShard");
+        orderRepository.deleteAllById(orderIds);
+        productRepository.deleteAllById(productIds);
+        userRepository.deleteAll(users);
+    }
+
+    @Test
+    void shouldNotSellStockThatACartReservesAtTheSameTime() throws Exception {
+        raceRounds(false);
+    }
+
+    @Test
+    void shouldNotSellShardedStockThatACartReservesAtTheSameTime() throws Exception {
+        raceRounds(true);
+    }
+
+    private void raceRounds(boolean sharded) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                Product bread = productRepository.save(Product.builder()
+                        .name("Bread " + round).price(10.0).quantity(10).isRestricted(false).build());
+                productIds.add(bread.getId());
+                if (sharded) {
+                    productService.setStockShards(bread.getId(), 4);
+                }
+                raceCartAgainstCheckout(executor, bread.getId(), round);
+
+                int left = sharded
+                        ? jdbcTemplate.queryForObject("SELECT SUM(quantity) FROM ProductStockShard WHERE productId = ?",
+                                Integer.class, bread.getId())
+                        : productRepository.findById(bread.getId()).orElseThrow().getQuantity();
+                int reserved = stockReservationService.reservedStock(List.of(bread.getId()))
+                        .getOrDefault(bread.getId(), 0);
+                assertTrue(reserved <= left, "Round " + round + ": " + reserved + " reserved of " + left + " left");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Both want 6 of the 10 pieces: either the cart gets them and the checkout is clamped to 4, or the checkout
+    // gets them and the cart is refused.
+    private void raceCartAgainstCheckout(ExecutorService executor, Long productId, int round) throws Exception {
+        User user = userRepository.save(new User(null, "Ann", "Lee " + round, "ann.lee" + round + "@example.com",
+                "password", LocalDate.of(1990, 1, 1), Role.CUSTOMER));
+        users.add(user);
+        Map<Long, Integer> lines = new HashMap<>(Map.of(productId, 6));
+        Long orderId = orderRepository.save(new Order(null, user, lines, LocalDate.now(), 0.0, OrderStatus.DRAFT)).getId();
+        orderIds.add(orderId);
+
+        CyclicBarrier start = new CyclicBarrier(2);
+        Future<List<Long>> reservation = executor.submit(() -> {
+            start.await();
+            return stockReservationService.reserve(FIRST_CART + round, Map.of(productId, 6));
+        });
+        Future<?> checkout = executor.submit(() -> {
+            start.await();
+            try {
+                orderService.updateStatus(orderId, OrderStatus.PROCESSING);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().startsWith("Warnings"), e.getMessage());
+            }
+            return null;
+        });
+        reservation.get(30, TimeUnit.SECONDS);
+        checkout.get(30, TimeUnit.SECONDS);
+    }
+}
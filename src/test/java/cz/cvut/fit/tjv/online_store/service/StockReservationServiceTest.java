@@ -0,0 +1,118 @@
+package cz.cvut.fit.tjv.online_store.service;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not @Transactional: a reservation that cannot be met rolls its own transaction back.
+@SpringBootTest
+@ActiveProfiles("test")
+class StockReservationServiceTest {
+    private static final long CART_A = 9001L;
+    private static final long CART_B = 9002L;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private StockReservationExpiryJob stockReservationExpiryJob;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final List<Long> created = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM StockReservation");
+        jdbcTemplate.update("DELETE FROM ProductReservedStock");
+        productRepository.deleteAllById(created);
+    }
+
+    @Test
+    void shouldNotReserveMoreThanTheStockAcrossCarts() {
+        Long id = create("Reserved Bread", 5);
+
+        assertEquals(List.of(), stockReservationService.reserve(CART_A, Map.of(id, 3)));
+        assertEquals(List.of(id), stockReservationService.reserve(CART_B, Map.of(id, 3)));
+        assertEquals(Map.of(), stockReservationService.reservedBy(CART_B));
+        assertEquals(List.of(), stockReservationService.reserve(CART_B, Map.of(id, 2)));
+
+        assertEquals(Map.of(id, 5), stockReservationService.reservedStock(List.of(id)));
+        assertEquals(Map.of(id, 3), stockReservationService.reservedBy(CART_A));
+    }
+
+    @Test
+    void shouldGiveStockBackWhenACartLowersOrReleasesItsReservation() {
+        Long bread = create("Reserved Bread", 5);
+        Long milk = create("Reserved Milk", 5);
+        stockReservationService.reserve(CART_A, Map.of(bread, 4, milk, 2));
+
+        stockReservationService.reserve(CART_A, Map.of(bread, 1));
+        assertEquals(Map.of(bread, 1, milk, 2), stockReservationService.reservedStock(List.of(bread, milk)));
+
+        stockReservationService.release(CART_A, milk);
+        assertEquals(Map.of(bread, 1, milk, 0), stockReservationService.reservedStock(List.of(bread, milk)));
+
+        stockReservationService.release(CART_A);
+        assertEquals(Map.of(bread, 0, milk, 0), stockReservationService.reservedStock(List.of(bread, milk)));
+        assertEquals(Map.of(), stockReservationService.reservedBy(CART_A));
+    }
+
+    @Test
+    void shouldReleaseOnlyExpiredReservations() {
+        Long id = create("Reserved Bread", 5);
+        stockReservationService.reserve(CART_A, Map.of(id, 3));
+        stockReservationService.reserve(CART_B, Map.of(id, 2));
+        jdbcTemplate.update("UPDATE StockReservation SET expiresAt = ? WHERE orderId = ?",
+                Timestamp.from(Instant.now().minusSeconds(1)), CART_A);
+
+        assertEquals(1, stockReservationExpiryJob.expire());
+
+        assertEquals(Map.of(id, 2), stockReservationService.reservedStock(List.of(id)));
+        assertEquals(Map.of(), stockReservationService.reservedBy(CART_A));
+        assertEquals(List.of(), stockReservationService.reserve(CART_A, Map.of(id, 3)));
+        assertEquals(0, stockReservationExpiryJob.expire());
+    }
+
+    @Test
+    void shouldGrowLowerAndDropLinesOfOneCartTogether() {
+        Long bread = create("Reserved Bread", 5);
+        Long milk = create("Reserved Milk", 5);
+        Long eggs = create("Reserved Eggs", 5);
+        Long salt = create("Reserved Salt", 5);
+        stockReservationService.reserve(CART_A, Map.of(bread, 1, milk, 4, eggs, 2));
+
+        assertEquals(List.of(), stockReservationService.reserve(CART_A, Map.of(bread, 3, milk, 1, eggs, 0, salt, 2)));
+        assertEquals(Map.of(bread, 3, milk, 1, salt, 2), stockReservationService.reservedBy(CART_A));
+        assertEquals(Map.of(bread, 3, milk, 1, eggs, 0, salt, 2),
+                stockReservationService.reservedStock(List.of(bread, milk, eggs, salt)));
+
+        // One line too many rolls back the whole call, the lines that fit included.
+        assertEquals(List.of(bread, salt), stockReservationService.reserve(CART_A, Map.of(bread, 6, milk, 2, salt, 9)));
+        assertEquals(Map.of(bread, 3, milk, 1, salt, 2), stockReservationService.reservedBy(CART_A));
+    }
+
+    private Long create(String name, int quantity) {
+        Long id = productRepository.save(Product.builder()
+                .name(name).price(10.0).quantity(quantity).isRestricted(false).build()).getId();
+        created.add(id);
+        return id;
+    }
+}
@@ -0,0 +1,130 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.domain.ProductTombstone;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductTombstoneRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CatalogSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private ProductRepository productRepository;
+    private ProductTombstoneRepository productTombstoneRepository;
+
+    @BeforeEach
+    void setUp() {
+        productRepository = mock(ProductRepository.class);
+        productTombstoneRepository = mock(ProductTombstoneRepository.class);
+    }
+
+    @Test
+    void shouldRoundTripCachedProductsInRecencyOrder() {
+        ProductCatalogCache cache = new ProductCatalogCache(10);
+        cache.put(Product.builder()
+                .id(1L).name("Bread").price(30.0).quantity(10).isRestricted(false).changeSeq(5L).build());
+        cache.put(Product.builder()
+                .id(2L).name("Whisky").price(900.0).quantity(3).isRestricted(true).allowedAge(18).changeSeq(6L).build());
+        cache.put(Product.builder().id(3L).name("Čaj").price(45.5).quantity(0).changeSeq(7L).build());
+        CatalogSnapshot snapshot = snapshot(cache);
+        snapshot.restore();
+        snapshot.write();
+
+        Optional<List<Product>> read = snapshot.read();
+
+        assertTrue(read.isPresent());
+        assertEquals(cache.snapshot(), read.get());
+    }
+
+    @Test
+    void shouldRefreshChangedAndDropRemovedProductsOnRestore() {
+        ProductCatalogCache before = new ProductCatalogCache(10);
+        before.put(Product.builder()
+                .id(1L).name("Bread").price(30.0).quantity(10).isRestricted(false).changeSeq(5L).build());
+        before.put(Product.builder()
+                .id(2L).name("Milk").price(20.0).quantity(6).isRestricted(false).changeSeq(6L).build());
+        before.put(Product.builder()
+                .id(3L).name("Cheese").price(90.0).quantity(2).isRestricted(false).changeSeq(7L).build());
+        CatalogSnapshot old = snapshot(before);
+        old.restore();
+        old.write();
+
+        when(productRepository.findByIdInAndChangeSeqGreaterThan(anyCollection(), eq(5L)))
+                .thenReturn(List.of(Product.builder()
+                        .id(1L).name("Bread").price(35.0).quantity(9).isRestricted(false).changeSeq(12L).build()));
+        when(productTombstoneRepository.findByProductIdIn(anyCollection()))
+                .thenReturn(List.of(new ProductTombstone(13L, 2L, null)));
+        ProductCatalogCache after = new ProductCatalogCache(10);
+
+        assertEquals(2, snapshot(after).restore());
+
+        List<Product> restored = after.snapshot();
+        assertEquals(List.of(1L, 3L), restored.stream().map(Product::getId).toList());
+        assertEquals(35.0, restored.get(0).getPrice());
+        verify(productRepository).findByIdInAndChangeSeqGreaterThan(argThat((Collection<Long> ids) -> ids.size() == 3), eq(5L));
+    }
+
+    @Test
+    void shouldStartColdFromMissingOrForeignFile() throws Exception {
+        ProductCatalogCache cache = new ProductCatalogCache(10);
+        CatalogSnapshot snapshot = snapshot(cache);
+
+        assertEquals(0, snapshot.restore());
+
+        Files.writeString(directory.resolve("catalog.snapshot"), "not a snapshot");
+        assertEquals(0, snapshot.restore());
+        assertTrue(cache.snapshot().isEmpty());
+        verifyNoInteractions(productRepository, productTombstoneRepository);
+    }
+
+    @Test
+    void shouldStartColdFromCorruptLengths() throws Exception {
+        ProductCatalogCache cache = new ProductCatalogCache(10);
+        cache.put(Product.builder()
+                .id(1L).name("Bread").price(30.0).quantity(10).isRestricted(false).changeSeq(5L).build());
+        CatalogSnapshot snapshot = snapshot(cache);
+        snapshot.restore();
+        snapshot.write();
+        Path file = directory.resolve("catalog.snapshot");
+        byte[] valid = Files.readAllBytes(file);
+
+        // Name length of the only entry, right after its fixed-size fields.
+        for (int nameLength : new int[]{Integer.MAX_VALUE, -1}) {
+            Files.write(file, ByteBuffer.wrap(valid.clone()).putInt(57, nameLength).array());
+            assertTrue(snapshot.read().isEmpty());
+        }
+        // Entry count far beyond what the file holds.
+        Files.write(file, ByteBuffer.wrap(valid.clone()).putInt(16, Integer.MAX_VALUE).array());
+        assertTrue(snapshot.read().isEmpty());
+    }
+
+    @Test
+    void shouldNotOverwriteSnapshotBeforeItWasRestored() {
+        ProductCatalogCache cache = new ProductCatalogCache(10);
+        cache.put(Product.builder()
+                .id(1L).name("Bread").price(30.0).quantity(10).isRestricted(false).changeSeq(5L).build());
+
+        snapshot(cache).write();
+
+        assertFalse(Files.exists(directory.resolve("catalog.snapshot")));
+    }
+
+    private CatalogSnapshot snapshot(ProductCatalogCache cache) {
+        return new CatalogSnapshot(cache, productRepository, productTombstoneRepository, directory.resolve("catalog.snapshot"));
+    }
+}
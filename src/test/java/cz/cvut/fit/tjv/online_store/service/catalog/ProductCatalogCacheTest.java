@@ -0,0 +1,60 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductCatalogCacheTest {
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+        ProductCatalogCache cache = new ProductCatalogCache(2);
+        cache.put(Product.builder().id(1L).name("A").price(10.0).quantity(1).isRestricted(false).build());
+        cache.put(Product.builder().id(2L).name("B").price(20.0).quantity(1).isRestricted(false).build());
+        cache.get(1L, id -> Optional.empty());
+        cache.put(Product.builder().id(3L).name("C").price(30.0).quantity(1).isRestricted(false).build());
+
+        assertTrue(cache.get(1L, id -> Optional.empty()).isPresent());
+        assertTrue(cache.get(2L, id -> Optional.empty()).isEmpty());
+        assertEquals(1, cache.stats().getEvictions());
+        assertEquals(2, cache.stats().getSize());
+    }
+
+    @Test
+    void shouldReturnCopiesSoCallersCannotChangeCachedState() {
+        ProductCatalogCache cache = new ProductCatalogCache(10);
+        cache.put(Product.builder().id(1L).name("A").price(10.0).quantity(5).isRestricted(false).build());
+
+        cache.get(1L, id -> Optional.empty()).orElseThrow().setQuantity(0);
+
+        assertEquals(5, cache.get(1L, id -> Optional.empty()).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void shouldNotCacheLoadThatRacedWithWrite() {
+        ProductCatalogCache cache = new ProductCatalogCache(10);
+
+        Optional<Product> stale = cache.get(1L, id -> {
+            cache.onProductChanged(ProductChangedEvent.changed(Product.builder()
+                    .id(1L).name("A").price(10.0).quantity(4).isRestricted(false).build()));
+            return Optional.of(Product.builder().id(1L).name("A").price(10.0).quantity(5).isRestricted(false).build());
+        });
+
+        assertEquals(5, stale.orElseThrow().getQuantity());
+        assertEquals(4, cache.get(1L, id -> Optional.empty()).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void shouldApplyRemovalsFromEvents() {
+        ProductCatalogCache cache = new ProductCatalogCache(10);
+        cache.onProductChanged(ProductChangedEvent.changed(List.of(Product.builder()
+                .id(1L).name("A").price(10.0).quantity(4).isRestricted(false).build())));
+        cache.onProductChanged(ProductChangedEvent.removed(1L));
+
+        assertTrue(cache.get(1L, id -> Optional.empty()).isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.controller.dto.ProductDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductLookupCoalescerTest {
+
+    @Test
+    void shouldShareOneLoadBetweenConcurrentCallers() throws Exception {
+        ProductLookupCoalescer coalescer = new ProductLookupCoalescer(5000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ProductDto product = new ProductDto(1L, "Lamp", 10.0, 1, false, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ProductDto>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> coalescer.load(1L, id -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return product;
+                })));
+            }
+            while (coalescer.stats().getInFlight() == 0) {
+                Thread.onSpinWait();
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<ProductDto> result : results) {
+                assertSame(product, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, coalescer.stats().getLoads());
+        assertEquals(7, coalescer.stats().getCollapsed());
+        assertEquals(0, coalescer.stats().getInFlight());
+    }
+
+    @Test
+    void shouldLoadOnItsOwnAfterTimeout() throws Exception {
+        ProductLookupCoalescer coalescer = new ProductLookupCoalescer(50);
+        CountDownLatch release = new CountDownLatch(1);
+        ProductDto slow = new ProductDto(1L, "Slow", 10.0, 1, false, null);
+        ProductDto fast = new ProductDto(1L, "Fast", 10.0, 1, false, null);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ProductDto> leader = executor.submit(() -> coalescer.load(1L, id -> {
+                await(release);
+                return slow;
+            }));
+            while (coalescer.stats().getInFlight() == 0) {
+                Thread.onSpinWait();
+            }
+
+            assertSame(fast, coalescer.load(1L, id -> fast));
+            assertEquals(1, coalescer.stats().getTimeouts());
+
+            release.countDown();
+            assertSame(slow, leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldPropagateLoaderFailure() {
+        ProductLookupCoalescer coalescer = new ProductLookupCoalescer(1000);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> coalescer.load(1L, id -> {
+                    throw new IllegalArgumentException("Product not found");
+                }));
+        assertEquals("Product not found", e.getMessage());
+        assertEquals(0, coalescer.stats().getInFlight());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.repository.ProductFilter;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import cz.cvut.fit.tjv.online_store.repository.ProductSort;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ProductPriceTableTest {
+
+    @Test
+    void shouldStoreAndReadColumnsAndGrowOnDemand() {
+        ProductPriceTable table = new ProductPriceTable(null, 100_000);
+        table.onProductChanged(ProductChangedEvent.changed(List.of(
+                Product.builder().id(3L).name("Bread").price(30.0).quantity(10).isRestricted(false).build(),
+                Product.builder().id(50_000L).name("Wine").price(250.0).quantity(4).isRestricted(true).allowedAge(18).build())));
+
+        assertEquals(30.0, table.price(3L));
+        assertEquals(10, table.quantity(3L));
+        assertEquals(ProductPriceTable.NO_AGE_LIMIT, table.allowedAge(3L));
+        assertEquals(18, table.allowedAge(50_000L));
+        assertEquals(2, table.stats().getSize());
+        assertTrue(table.stats().getCapacity() > 50_000L);
+    }
+
+    @Test
+    void shouldReportMissingAndOutOfRangeIds() {
+        ProductPriceTable table = new ProductPriceTable(null, 10);
+        table.onProductChanged(ProductChangedEvent.changed(Product.builder()
+                .id(11L).name("Too far").price(1.0).quantity(1).isRestricted(false).build()));
+
+        assertFalse(table.contains(1L));
+        assertFalse(table.contains(11L));
+        assertTrue(Double.isNaN(table.price(1L)));
+        assertEquals(ProductPriceTable.NOT_PRESENT, table.quantity(-5L));
+    }
+
+    @Test
+    void shouldNotLetLoadOverwriteNewerOrRemovedRows() {
+        ProductRepository repository = mock(ProductRepository.class);
+        when(repository.findPage(any(ProductFilter.class), eq(ProductSort.ID), isNull(), isNull(), anyInt()))
+                .thenReturn(List.of(
+                        Product.builder().id(1L).name("Bread").price(30.0).quantity(10).isRestricted(false).changeSeq(5L).build(),
+                        Product.builder().id(2L).name("Milk").price(20.0).quantity(6).isRestricted(false).changeSeq(6L).build(),
+                        Product.builder().id(3L).name("Cheese").price(90.0).quantity(2).isRestricted(false).changeSeq(7L).build()));
+        ProductPriceTable table = new ProductPriceTable(repository, 100);
+
+        table.onProductChanged(ProductChangedEvent.changed(Product.builder()
+                .id(1L).name("Bread").price(35.0).quantity(9).isRestricted(false).changeSeq(8L).build()));
+        table.onProductChanged(ProductChangedEvent.removed(2L));
+        table.load();
+
+        assertEquals(35.0, table.price(1L));
+        assertFalse(table.contains(2L));
+        assertEquals(90.0, table.price(3L));
+        assertEquals(2, table.stats().getSize());
+    }
+}
@@ -0,0 +1,78 @@
+package cz.cvut.fit.tjv.online_store.service.catalog;
+
+import cz.cvut.fit.tjv.online_store.domain.Product;
+import cz.cvut.fit.tjv.online_store.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductSearchIndexTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    private ProductSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(productRepository.findPage(any(), any(), isNull(), isNull(), anyInt())).thenReturn(new ArrayList<>(List.of(
+                Product.builder().id(1L).name("Laptop Lenovo").price(20000.0).quantity(2).isRestricted(false).build(),
+                Product.builder().id(2L).name("Laptop bag").price(900.0).quantity(5).isRestricted(false).build(),
+                Product.builder().id(3L).name("Červené víno").price(250.0).quantity(10).isRestricted(true).allowedAge(18).build(),
+                Product.builder().id(4L).name("Lamp").price(400.0).quantity(3).isRestricted(false).build())));
+        index = new ProductSearchIndex(productRepository);
+        index.rebuild();
+    }
+
+    @Test
+    void shouldRebuildFromRepository() {
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    void shouldRankExactMatchAbovePrefixMatch() {
+        assertEquals(List.of(4L), index.search("lamp", 10));
+        assertEquals(List.of(4L, 1L, 2L), index.search("la", 10));
+    }
+
+    @Test
+    void shouldMatchPrefixForAutocomplete() {
+        assertEquals(List.of(1L, 2L), index.search("lapt", 10));
+        assertEquals(List.of(2L), index.search("laptop ba", 10));
+    }
+
+    @Test
+    void shouldTolerateTypos() {
+        assertEquals(List.of(1L), index.search("lenvo", 10));
+        assertTrue(index.search("labtop", 10).containsAll(List.of(1L, 2L)));
+    }
+
+    @Test
+    void shouldIgnoreDiacriticsAndCase() {
+        assertEquals(List.of(3L), index.search("CERVENE vino", 10));
+    }
+
+    @Test
+    void shouldApplyChangesIncrementally() {
+        index.onProductChanged(ProductChangedEvent.changed(Product.builder()
+                .id(4L).name("Desk lamp").price(400.0).quantity(3).isRestricted(false).build()));
+        index.onProductChanged(ProductChangedEvent.removed(1L));
+
+        assertEquals(List.of(2L), index.search("laptop", 10));
+        assertEquals(List.of(4L), index.search("desk", 10));
+    }
+
+    @Test
+    void shouldLimitResults() {
+        assertEquals(1, index.search("l", 1).size());
+    }
+}